@@ -54,6 +54,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 
 /**
@@ -75,6 +76,46 @@ public abstract class AbstractSearchStrategy {
 
     public abstract Router newRouter(final Index index, final String ksName, BiFunction<Index, UUID, ShardRoutingState> shardsFunc, final ClusterState clusterState);
     
+    /**
+     * Natural endpoints of each token of the cassandra ring for a keyspace replication strategy, computed once per ring version
+     * and shared by all routers of indices on that keyspace, so that node state changes (join, leave, start, stop) do not
+     * recompute endpoints for every token of the ring.
+     */
+    static class RingEndpoints {
+        final long ringVersion;
+        final AbstractReplicationStrategy strategy;
+        final TokenMetadata metadata;
+        final Map<Token, List<InetAddress>> naturalEndpoints = new HashMap<Token, List<InetAddress>>();
+        
+        RingEndpoints(AbstractReplicationStrategy strategy, long ringVersion, TokenMetadata metadata) {
+            this.ringVersion = ringVersion;
+            this.strategy = strategy;
+            this.metadata = metadata;
+            for(Token token : metadata.sortedTokens())
+                naturalEndpoints.put(token, strategy.calculateNaturalEndpoints(token, metadata));
+        }
+        
+        List<InetAddress> naturalEndpoints(Token token) {
+            List<InetAddress> endpoints = naturalEndpoints.get(token);
+            return (endpoints == null) ? strategy.calculateNaturalEndpoints(token, metadata) : endpoints;
+        }
+    }
+    
+    private static final Map<String, RingEndpoints> ringEndpoints = new ConcurrentHashMap<String, RingEndpoints>();
+    
+    static RingEndpoints ringEndpoints(String ksName) {
+        final AbstractReplicationStrategy strategy = Keyspace.open(ksName).getReplicationStrategy();
+        final long ringVersion = StorageService.instance.getTokenMetadata().getRingVersion();
+        RingEndpoints ring = ringEndpoints.get(ksName);
+        if (ring == null || ring.strategy != strategy || ring.ringVersion != ringVersion) {
+            ring = new RingEndpoints(strategy, ringVersion, StorageService.instance.getTokenMetadata().cloneOnlyTokenMap());
+            ringEndpoints.put(ksName, ring);
+            if (logger.isDebugEnabled())
+                logger.debug("keyspace=[{}] ring version={} natural endpoints computed for {} tokens", ksName, ringVersion, ring.naturalEndpoints.size());
+        }
+        return ring;
+    }
+    
     // per index router, updated on each cassandra ring change.
     public abstract class Router {
         final Index index;
@@ -101,15 +142,18 @@ public abstract class AbstractSearchStrategy {
             this.localNode = clusterState.nodes().getLocalNode();
             this.shardsFunc = shardsFunc;
             
+            final RingEndpoints ring;
             if (isRoutable(clusterState)) {
                 // only available when keyspaces are initialized and node joined
-                this.strategy = Keyspace.open(ksName).getReplicationStrategy();
-                this.metadata = StorageService.instance.getTokenMetadata().cloneOnlyTokenMap();
+                ring = ringEndpoints(ksName);
+                this.strategy = ring.strategy;
+                this.metadata = ring.metadata;
                 for(DiscoveryNode node : clusterState.nodes()) {
                     for(Token token : this.metadata.getTokens(node.getInetAddress())) 
                         this.tokenToNodes.put(token, node);
                 }
             } else {
+                ring = null;
                 this.strategy = null;
                 this.metadata = null;
             }
@@ -120,6 +164,10 @@ public abstract class AbstractSearchStrategy {
             if (logger.isTraceEnabled())
                 logger.trace("index=[{}] keyspace=[{}] ordered tokens={}",index, ksName, this.tokens);
             
+            // resolve each endpoint and its shard state once, rather than for each token.
+            final Map<InetAddress, DiscoveryNode> endpointToNode = new HashMap<InetAddress, DiscoveryNode>();
+            final Map<DiscoveryNode, Boolean> startedNodes = new HashMap<DiscoveryNode, Boolean>();
+            
             int i=0;
             this.greenShards = new HashMap<DiscoveryNode, BitSet>();
             for(Token token: tokens) {
@@ -128,11 +176,13 @@ public abstract class AbstractSearchStrategy {
 
                 // greenshard = available node -> token range bitset, 
                 boolean orphanRange = true;
-                for(InetAddress endpoint :  (this.metadata == null) ? Collections.singletonList(localNode.getInetAddress()) : this.strategy.calculateNaturalEndpoints(token, this.metadata)) {
-                    UUID uuid = StorageService.instance.getHostId(endpoint);
-                    DiscoveryNode node =  (uuid == null) ? clusterState.nodes().findByInetAddress(endpoint) : clusterState.nodes().get(uuid.toString());
+                for(InetAddress endpoint :  (ring == null) ? Collections.singletonList(localNode.getInetAddress()) : ring.naturalEndpoints(token)) {
+                    DiscoveryNode node = endpointToNode.computeIfAbsent(endpoint, e -> {
+                        UUID uuid = StorageService.instance.getHostId(e);
+                        return (uuid == null) ? clusterState.nodes().findByInetAddress(e) : clusterState.nodes().get(uuid.toString());
+                    });
                     if (node != null && node.status() == DiscoveryNode.DiscoveryNodeStatus.ALIVE) {
-                        if (ShardRoutingState.STARTED.equals( shardsFunc.apply(this.index, node.uuid() ))) {
+                        if (startedNodes.computeIfAbsent(node, n -> ShardRoutingState.STARTED.equals( shardsFunc.apply(this.index, n.uuid() )))) {
                             orphanRange = false;
                             BitSet bs = greenShards.get(node);
                             if (bs == null) {
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster.routing;
+
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.routing.ShardRoutingState;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.index.Index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+/**
+ * For each newRoute(), select the healthiest available nodes covering the whole cassandra ring, according to the
+ * {@link SearchResponseStats} response time and in-flight requests of each node. Nodes are taken by increasing weight, each one
+ * responsible for its token ranges not already covered by a healthier node, so that a node in a long compaction or GC
+ * only receives the ranges no other replica can serve.
+ */
+public class AdaptiveSearchStrategy extends AbstractSearchStrategy {
+
+    public class AdaptiveRouter extends Router {
+
+        public AdaptiveRouter(final Index index, final String ksName, BiFunction<Index, UUID, ShardRoutingState> shardsFunc, final ClusterState clusterState) {
+            super(index, ksName, shardsFunc, clusterState, true);
+            // routers are rebuilt on cluster state changes.
+            SearchResponseStats.instance.retain(clusterState.nodes());
+        }
+
+        @Override
+        public Route newRoute(@Nullable String preference, TransportAddress src) {
+            final double meanNanos = SearchResponseStats.instance.meanNanos();
+            final Map<DiscoveryNode, Double> weights = new HashMap<DiscoveryNode, Double>(greenShards.size());
+            for(DiscoveryNode node : greenShards.keySet())
+                weights.put(node, SearchResponseStats.instance.weight(node.getId(), meanNanos));
+
+            final Map<DiscoveryNode, BitSet> selectedShards = selectShards(greenShards, weights, localNode);
+            if (logger.isTraceEnabled())
+                logger.trace("index=[{}] weights={} selectedShards={}", index, weights, selectedShards);
+
+            return new Route() {
+                @Override
+                public Map<DiscoveryNode, BitSet> selectedShards() {
+                    return selectedShards;
+                }
+            };
+        }
+    }
+
+    /**
+     * Select nodes by increasing weight, then the local node, then nodes holding more ranges, each one for its ranges not
+     * already covered by the previously selected nodes.
+     */
+    static Map<DiscoveryNode, BitSet> selectShards(Map<DiscoveryNode, BitSet> greenShards, Map<DiscoveryNode, Double> weights, DiscoveryNode localNode) {
+        final List<DiscoveryNode> nodes = new ArrayList<DiscoveryNode>(greenShards.keySet());
+        nodes.sort(Comparator.<DiscoveryNode>comparingDouble(weights::get)
+                .thenComparing(node -> !node.equals(localNode))
+                .thenComparing(Comparator.<DiscoveryNode>comparingInt(node -> greenShards.get(node).cardinality()).reversed()));
+
+        final Map<DiscoveryNode, BitSet> selectedShards = new LinkedHashMap<DiscoveryNode, BitSet>();
+        final BitSet coverBitmap = new BitSet();
+        for(DiscoveryNode node : nodes) {
+            BitSet bs = (BitSet) greenShards.get(node).clone();
+            bs.andNot(coverBitmap);
+            if (!bs.isEmpty()) {
+                selectedShards.put(node, bs);
+                coverBitmap.or(bs);
+            }
+        }
+        return selectedShards;
+    }
+
+    @Override
+    public Router newRouter(final Index index, final String ksName, BiFunction<Index, UUID, ShardRoutingState> shardsFunc, final ClusterState clusterState) {
+        return new AdaptiveRouter(index, ksName, shardsFunc, clusterState);
+    }
+
+}
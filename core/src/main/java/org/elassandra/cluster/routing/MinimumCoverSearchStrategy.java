@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster.routing;
+
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.routing.ShardRoutingState;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.index.Index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Distribute search requests to the fewest available nodes covering the whole cassandra ring.
+ * <p>
+ * Minimum set covers of the token ranges are computed once per router (so once per ring or cluster state change) by a greedy
+ * set cover seeded from each available node, and only the smallest ones are kept. Each newRoute() returns the cover having
+ * the lowest number of shard requests sent to its nodes by this router, so that the search load is balanced over the equivalent covers.
+ */
+public class MinimumCoverSearchStrategy extends AbstractSearchStrategy {
+
+    public class MinimumCoverRouter extends Router {
+        final List<Route> routes = new ArrayList<Route>();
+        final Map<DiscoveryNode, AtomicLong> shardRequests = new HashMap<DiscoveryNode, AtomicLong>();
+
+        public MinimumCoverRouter(final Index index, final String ksName, BiFunction<Index, UUID, ShardRoutingState> shardsFunc, final ClusterState clusterState) {
+            super(index, ksName, shardsFunc, clusterState, true);
+
+            for(DiscoveryNode node : greenShards.keySet())
+                shardRequests.put(node, new AtomicLong());
+
+            final List<Map<DiscoveryNode, BitSet>> covers = minimumCovers(greenShards, localNode);
+
+            for(final Map<DiscoveryNode, BitSet> cover : covers) {
+                routes.add(new Route() {
+                    @Override
+                    public Map<DiscoveryNode, BitSet> selectedShards() {
+                        return cover;
+                    }
+                });
+            }
+            if (routes.isEmpty()) {
+                routes.add(new Route() {
+                    @Override
+                    public Map<DiscoveryNode, BitSet> selectedShards() {
+                        return Collections.emptyMap();
+                    }
+                });
+            }
+            if (logger.isDebugEnabled())
+                logger.debug("index=[{}] keyspace=[{}] {} minimum cover(s) of {} node(s) among {} available nodes", index, ksName, covers.size(),
+                        covers.isEmpty() ? 0 : covers.get(0).size(), greenShards.size());
+        }
+
+        @Override
+        public Route newRoute(@Nullable String preference, TransportAddress src) {
+            Route choice = null;
+            long choiceLoad = Long.MAX_VALUE;
+            for(Route route : routes) {
+                long load = 0;
+                for(DiscoveryNode node : route.selectedShards().keySet())
+                    load += shardRequests.get(node).get();
+                if (load < choiceLoad || (load == choiceLoad && route.selectedShards().containsKey(localNode))) {
+                    choiceLoad = load;
+                    choice = route;
+                }
+            }
+            for(DiscoveryNode node : choice.selectedShards().keySet())
+                shardRequests.get(node).incrementAndGet();
+            return choice;
+        }
+    }
+
+    /**
+     * @return the distinct smallest greedy covers of the token ranges of the available nodes, seeded from each available node.
+     */
+    static List<Map<DiscoveryNode, BitSet>> minimumCovers(Map<DiscoveryNode, BitSet> shards, DiscoveryNode localNode) {
+        final Set<Set<DiscoveryNode>> coveringNodes = new HashSet<Set<DiscoveryNode>>();
+        final List<Map<DiscoveryNode, BitSet>> covers = new ArrayList<Map<DiscoveryNode, BitSet>>();
+        final BitSet scratch = new BitSet();
+        int minSize = Integer.MAX_VALUE;
+        for(DiscoveryNode seed : shards.keySet()) {
+            Map<DiscoveryNode, BitSet> cover = greedyCover(shards, seed, localNode, minSize, scratch);
+            if (cover == null || !coveringNodes.add(cover.keySet()))
+                continue;
+            if (cover.size() < minSize) {
+                minSize = cover.size();
+                covers.clear();
+            }
+            covers.add(cover);
+        }
+        return covers;
+    }
+
+    /**
+     * Starting from the seed node, repeatedly add the node covering the most uncovered token ranges,
+     * the local node first, until no available node covers any remaining range.
+     * @param maxSize cover size above which the cover is abandoned.
+     * @param scratch bitset reused to count the uncovered ranges of each candidate node.
+     * @return selected nodes mapped to the token ranges they are responsible for in this cover, or null if larger than maxSize.
+     */
+    static Map<DiscoveryNode, BitSet> greedyCover(Map<DiscoveryNode, BitSet> shards, DiscoveryNode seed, DiscoveryNode localNode, int maxSize, BitSet scratch) {
+        final Map<DiscoveryNode, BitSet> cover = new LinkedHashMap<DiscoveryNode, BitSet>();
+        final BitSet uncovered = new BitSet();
+        for(BitSet bs : shards.values())
+            uncovered.or(bs);
+
+        DiscoveryNode choice = seed;
+        while (choice != null) {
+            if (cover.size() >= maxSize)
+                return null;
+            BitSet choiceBitset = (BitSet) shards.get(choice).clone();
+            choiceBitset.and(uncovered);
+            cover.put(choice, choiceBitset);
+            uncovered.andNot(choiceBitset);
+
+            choice = null;
+            int best = 0;
+            if (uncovered.isEmpty())
+                break;
+            for(Map.Entry<DiscoveryNode, BitSet> entry : shards.entrySet()) {
+                if (cover.containsKey(entry.getKey()) || !entry.getValue().intersects(uncovered))
+                    continue;
+                scratch.clear();
+                scratch.or(entry.getValue());
+                scratch.and(uncovered);
+                int card = scratch.cardinality();
+                if (card > best || (card == best && entry.getKey().equals(localNode))) {
+                    best = card;
+                    choice = entry.getKey();
+                }
+            }
+        }
+        return cover;
+    }
+
+    @Override
+    public Router newRouter(final Index index, final String ksName, BiFunction<Index, UUID, ShardRoutingState> shardsFunc, final ClusterState clusterState) {
+        return new MinimumCoverRouter(index, ksName, shardsFunc, clusterState);
+    }
+
+}
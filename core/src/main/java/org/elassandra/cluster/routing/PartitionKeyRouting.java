@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster.routing;
+
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.index.mapper.KeywordFieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.mapper.NumberFieldMapper;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.ConstantScoreQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.TermQueryBuilder;
+import org.elasticsearch.index.query.TermsQueryBuilder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the partition key pinned by a search query, so that the search is routed to the node owning its token
+ * rather than to a full ring cover.
+ * <p>
+ * The partition key is pinned when all partition key columns have a term equality in the required clauses of the query
+ * (term, single value terms, constant_score, bool must and filter). Only keyword and numeric fields are considered,
+ * because a term on an analyzed field does not match the column value.
+ */
+public class PartitionKeyRouting {
+
+    private static final Object CONFLICT = new Object();
+
+    /**
+     * @return the _routing value of the partition key pinned by the query, or null.
+     */
+    public static String routing(QueryBuilder query, MapperService mapperService, List<String> partitionKeyColumns) throws IOException {
+        if (query == null)
+            return null;
+        final Map<String, Object> terms = new HashMap<String, Object>();
+        collectTerms(query, terms);
+
+        final Object[] values = new Object[partitionKeyColumns.size()];
+        for(int i = 0; i < values.length; i++) {
+            final String column = partitionKeyColumns.get(i);
+            final Object value = terms.get(column);
+            if (value == null || value == CONFLICT)
+                return null;
+            final MappedFieldType fieldType = mapperService.fullName(column);
+            if (!(fieldType instanceof KeywordFieldMapper.KeywordFieldType) && !(fieldType instanceof NumberFieldMapper.NumberFieldType))
+                return null;
+            values[i] = value;
+        }
+        if (values.length == 1)
+            return values[0].toString();
+        // composite partition key as a JSON array.
+        return ClusterService.jsonMapper.writeValueAsString(values);
+    }
+
+    private static void collectTerms(QueryBuilder query, Map<String, Object> terms) {
+        if (query instanceof TermQueryBuilder) {
+            TermQueryBuilder termQuery = (TermQueryBuilder) query;
+            addTerm(terms, termQuery.fieldName(), termQuery.value());
+        } else if (query instanceof TermsQueryBuilder) {
+            TermsQueryBuilder termsQuery = (TermsQueryBuilder) query;
+            if (termsQuery.values() != null && termsQuery.values().size() == 1)
+                addTerm(terms, termsQuery.fieldName(), termsQuery.values().get(0));
+        } else if (query instanceof ConstantScoreQueryBuilder) {
+            collectTerms(((ConstantScoreQueryBuilder) query).innerQuery(), terms);
+        } else if (query instanceof BoolQueryBuilder) {
+            BoolQueryBuilder boolQuery = (BoolQueryBuilder) query;
+            for(QueryBuilder clause : boolQuery.must())
+                collectTerms(clause, terms);
+            for(QueryBuilder clause : boolQuery.filter())
+                collectTerms(clause, terms);
+        }
+    }
+
+    private static void addTerm(Map<String, Object> terms, String field, Object value) {
+        if (value == null)
+            return;
+        Object previous = terms.putIfAbsent(field, value);
+        if (previous != null && !previous.equals(value))
+            terms.put(field, CONFLICT); // no match, let the search fan out.
+    }
+}
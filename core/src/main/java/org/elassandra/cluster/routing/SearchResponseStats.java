@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster.routing;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-node search response time, failures and load, as seen by this coordinating node, used by the {@link AdaptiveSearchStrategy}.
+ * <p>
+ * The response time is an exponentially weighted moving average of the query phase round trip. It decays toward the mean response
+ * time of all nodes with the time elapsed since the last response, so that a slow node is tried again once it stopped receiving
+ * requests, and unknown nodes get the mean response time. The failure rate is an exponentially weighted moving average of failed
+ * requests, decaying toward zero. The load is the number of in-flight shard query requests sent to the node.
+ */
+public class SearchResponseStats implements ToXContent {
+
+    public static final SearchResponseStats instance = new SearchResponseStats();
+
+    static final double ALPHA = 0.3;
+    static final long HALF_LIFE_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // weight multiplier of a node failing all its requests.
+    static final double FAILURE_PENALTY = 10;
+
+    static class NodeStats {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final CounterMetric responses = new CounterMetric();
+        final CounterMetric failures = new CounterMetric();
+        double ewmaNanos = 0;
+        long lastResponseNanos = 0;
+        double failureRate = 0;
+        long lastFailureUpdateNanos = 0;
+
+        synchronized void onResponse(long tookNanos, long now) {
+            ewmaNanos = (responses.count() == 0) ? tookNanos : ALPHA * tookNanos + (1 - ALPHA) * ewmaNanos;
+            lastResponseNanos = now;
+            responses.inc();
+            failureRate = (1 - ALPHA) * failureRate(now);
+            lastFailureUpdateNanos = now;
+        }
+
+        synchronized void onFailure(long now) {
+            failures.inc();
+            failureRate = ALPHA + (1 - ALPHA) * failureRate(now);
+            lastFailureUpdateNanos = now;
+        }
+
+        static double decay(long elapsedNanos) {
+            return Math.pow(0.5, (double) elapsedNanos / HALF_LIFE_NANOS);
+        }
+
+        /**
+         * @return the response time decayed toward the mean response time, or the mean response time when no response was received.
+         */
+        synchronized double ewmaNanos(double meanNanos, long now) {
+            if (responses.count() == 0)
+                return meanNanos;
+            return meanNanos + (ewmaNanos - meanNanos) * decay(now - lastResponseNanos);
+        }
+
+        synchronized double failureRate(long now) {
+            return failureRate * decay(now - lastFailureUpdateNanos);
+        }
+
+        double weight(double meanNanos, long now) {
+            return ewmaNanos(meanNanos, now) * (1 + inFlight.get()) * (1 + FAILURE_PENALTY * failureRate(now));
+        }
+    }
+
+    private final ConcurrentMap<String, NodeStats> nodeStats = ConcurrentCollections.newConcurrentMap();
+
+    SearchResponseStats() {
+    }
+
+    private NodeStats nodeStats(String nodeId) {
+        return nodeStats.computeIfAbsent(nodeId, k -> new NodeStats());
+    }
+
+    /**
+     * Wrap a shard query request listener to record the response time and the in-flight requests of the target node.
+     */
+    public <T> ActionListener<T> wrap(DiscoveryNode node, ActionListener<T> listener) {
+        final NodeStats stats = nodeStats(node.getId());
+        final long start = System.nanoTime();
+        stats.inFlight.incrementAndGet();
+        return new ActionListener<T>() {
+            @Override
+            public void onResponse(T response) {
+                stats.inFlight.decrementAndGet();
+                long now = System.nanoTime();
+                stats.onResponse(now - start, now);
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                stats.inFlight.decrementAndGet();
+                stats.onFailure(System.nanoTime());
+                listener.onFailure(e);
+            }
+        };
+    }
+
+    /**
+     * @return the mean of the node response times, or 0 when no response was received.
+     */
+    public double meanNanos() {
+        double sum = 0;
+        int count = 0;
+        for(NodeStats stats : nodeStats.values()) {
+            synchronized (stats) {
+                if (stats.responses.count() > 0) {
+                    sum += stats.ewmaNanos;
+                    count++;
+                }
+            }
+        }
+        return (count == 0) ? 0 : sum / count;
+    }
+
+    /**
+     * @return the search weight of a node, the lower the better. Unknown nodes have the weight of an idle node having the mean response time.
+     */
+    public double weight(String nodeId, double meanNanos) {
+        return weight(nodeId, meanNanos, System.nanoTime());
+    }
+
+    double weight(String nodeId, double meanNanos, long now) {
+        NodeStats stats = nodeStats.get(nodeId);
+        return (stats == null) ? meanNanos : stats.weight(meanNanos, now);
+    }
+
+    /**
+     * Remove the stats of nodes that left the cluster.
+     */
+    public void retain(DiscoveryNodes nodes) {
+        nodeStats.entrySet().removeIf(entry -> !nodes.nodeExists(entry.getKey()) && entry.getValue().inFlight.get() == 0);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        final long now = System.nanoTime();
+        final double meanNanos = meanNanos();
+        builder.startObject("nodes");
+        for(Map.Entry<String, NodeStats> entry : nodeStats.entrySet()) {
+            NodeStats stats = entry.getValue();
+            builder.startObject(entry.getKey());
+            builder.field("response_time_ewma_in_millis", stats.ewmaNanos(meanNanos, now) / 1000000.0);
+            builder.field("failure_rate", stats.failureRate(now));
+            builder.field("in_flight", stats.inFlight.get());
+            builder.field("responses", stats.responses.count());
+            builder.field("failures", stats.failures.count());
+            builder.field("weight", stats.weight(meanNanos, now) / 1000000.0);
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+}
@@ -65,6 +65,7 @@ import org.elasticsearch.transport.TransportService;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.Locale;
@@ -106,6 +107,11 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
     
     private final ConcurrentMap<String, ShardRoutingState> localShardStateMap = new ConcurrentHashMap<String, ShardRoutingState>();
     private final ConcurrentMap<UUID, Map<String,ShardRoutingState>> remoteShardRoutingStateMap = new ConcurrentHashMap<UUID, Map<String,ShardRoutingState>>();
+    private final ConcurrentMap<UUID, GossipShardStates.Snapshot> remoteShardStatesSnapshots = new ConcurrentHashMap<UUID, GossipShardStates.Snapshot>();
+    private final GossipShardStates localShardStates = new GossipShardStates();
+    
+    // publish shard states as JSON, readable by nodes running a previous version during a rolling upgrade.
+    private final boolean jsonShardStates = Boolean.getBoolean(ClusterService.SETTING_SYSTEM_GOSSIP_JSON_SHARD_STATES);
     
     /**
      * When searchEnabled=true, local shards are visible for routing, otherwise, local shards are seen as UNASSIGNED.
@@ -311,16 +317,11 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
                     }
                     
                     // initialize the remoteShardRoutingStateMap from gossip states
-                    if (state.getApplicationState(ApplicationState.X1) != null) {
-                        VersionedValue x1 = state.getApplicationState(ApplicationState.X1);
-                        if (!endpoint.equals(this.localAddress)) {
-                            Map<String, ShardRoutingState> shardsStateMap;
-                            try {
-                                shardsStateMap = jsonMapper.readValue(x1.value, indexShardStateTypeReference);
-                                this.remoteShardRoutingStateMap.put(Gossiper.instance.getHostId(endpoint), shardsStateMap);
-                            } catch (IOException e) {
-                                logger.error("Failed to parse X1 for node [{}]", dn.getId());
-                            }
+                    if (!endpoint.equals(this.localAddress)) {
+                        try {
+                            updateRemoteShardRoutingState(Gossiper.instance.getHostId(endpoint), state);
+                        } catch (IOException e) {
+                            logger.error("Failed to parse X1 for node [{}]", dn.getId());
                         }
                     }
                 }
@@ -397,18 +398,15 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
             // update remote shard routing view.
             switch(newStatus) {
             case ALIVE:
-                VersionedValue x1 = state.getApplicationState(ApplicationState.X1);
-                if (x1 != null) {
-                    try {
-                        Map<String, ShardRoutingState> shardsStateMap = jsonMapper.readValue(x1.value, indexShardStateTypeReference);
-                        this.remoteShardRoutingStateMap.put(dn.uuid(), shardsStateMap);
-                    } catch (IOException e) {
-                        logger.error("Failed to parse X1 for node=[{}]", dn.getId());
-                    }
+                try {
+                    updateRemoteShardRoutingState(dn.uuid(), state);
+                } catch (IOException e) {
+                    logger.error("Failed to parse X1 for node=[{}]", dn.getId());
                 }
                 break;
             default:
                 this.remoteShardRoutingStateMap.remove(dn.uuid());
+                this.remoteShardStatesSnapshots.remove(dn.uuid());
             }
 
             if (updatedNode)
@@ -536,15 +534,15 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
                 break;
                 
             case X1:
+            case X3:
                 try {
                     // update the remoteShardRoutingStateMap to build ES routing table for joined-normal nodes only.
                     if (clusterGroup.contains(epState.getApplicationState(ApplicationState.HOST_ID).value)) {
-                        if (logger.isTraceEnabled())
-                            logger.trace("Endpoint={} X1={} => updating routing table", endpoint, versionValue);
-                        
-                        Map<String, ShardRoutingState> shardsStateMap = jsonMapper.readValue(versionValue.value, indexShardStateTypeReference);
-                        this.remoteShardRoutingStateMap.put(Gossiper.instance.getHostId(endpoint), shardsStateMap);
-                        updateRoutingTable("X1-" + endpoint, false);
+                        if (updateRemoteShardRoutingState(Gossiper.instance.getHostId(endpoint), epState)) {
+                            if (logger.isTraceEnabled())
+                                logger.trace("Endpoint={} {}={} => updating routing table", endpoint, state, versionValue);
+                            updateRoutingTable(state + "-" + endpoint, false);
+                        }
                     }
                 } catch (Exception e) {
                     logger.warn("Failed to parse gossip index shard state", e);
@@ -662,6 +660,7 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
                     notifyMetaDataVersionAckListener(Gossiper.instance.getEndpointStateForEndpoint(endpoint));
                 }
                 this.remoteShardRoutingStateMap.remove(removedNode.uuid());
+                this.remoteShardStatesSnapshots.remove(removedNode.uuid());
                 this.clusterGroup.remove(removedNode.getId());
                 updateRoutingTable("node-removed-"+endpoint, true);
             }
@@ -679,6 +678,7 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
 
     private static final ApplicationState ELASTIC_SHARDS_STATES = ApplicationState.X1;
     private static final ApplicationState ELASTIC_META_DATA = ApplicationState.X2;
+    private static final ApplicationState ELASTIC_SHARDS_STATES_DELTA = ApplicationState.X3;
     private static final ObjectMapper jsonMapper = new ObjectMapper();
     private static final TypeReference<Map<String, ShardRoutingState>> indexShardStateTypeReference = new TypeReference<Map<String, ShardRoutingState>>() {};
 
@@ -686,6 +686,32 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
         return remoteShardRoutingStateMap.get(nodeUuid);
     }
     
+    /**
+     * Update the shard states of a remote node from its gossip snapshot (X1) and delta (X3), the snapshot being
+     * decoded only when its gossip version changes.
+     * @return true if the shard states of the node changed.
+     */
+    private boolean updateRemoteShardRoutingState(UUID nodeUuid, EndpointState state) throws IOException {
+        VersionedValue x1 = state.getApplicationState(ELASTIC_SHARDS_STATES);
+        if (x1 == null)
+            return false;
+        
+        final Map<String, ShardRoutingState> shardsStateMap;
+        if (x1.value.startsWith("{")) {
+            // JSON shard states published by a node running a previous version.
+            shardsStateMap = jsonMapper.readValue(x1.value, indexShardStateTypeReference);
+        } else {
+            GossipShardStates.Snapshot snapshot = remoteShardStatesSnapshots.get(nodeUuid);
+            if (snapshot == null || snapshot.version() != x1.version) {
+                snapshot = new GossipShardStates.Snapshot(x1.version, x1.value);
+                remoteShardStatesSnapshots.put(nodeUuid, snapshot);
+            }
+            VersionedValue x3 = state.getApplicationState(ELASTIC_SHARDS_STATES_DELTA);
+            shardsStateMap = snapshot.apply(x3 == null ? null : x3.value);
+        }
+        return !shardsStateMap.equals(remoteShardRoutingStateMap.put(nodeUuid, shardsStateMap));
+    }
+    
     public void publishShardRoutingState(final String index, final ShardRoutingState shardRoutingState) throws JsonGenerationException, JsonMappingException, IOException {
         ShardRoutingState prevShardRoutingState = localShardStateMap.put(index, shardRoutingState);
         if (shardRoutingState != prevShardRoutingState)
@@ -730,14 +756,22 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
     }
     
     // Warning: on nodetool enablegossip, Gossiper.instance.isEnable() may be false while receiving a onChange event !
-    private void publishX1(boolean force) throws JsonGenerationException, JsonMappingException, IOException {
+    private synchronized void publishX1(boolean force) throws JsonGenerationException, JsonMappingException, IOException {
         if (Gossiper.instance.isEnabled() || force) {
-            if (searchEnabled.get()) {
-                String newValue = jsonMapper.writerWithType(indexShardStateTypeReference).writeValueAsString(localShardStateMap);
+            if (jsonShardStates) {
+                String newValue = searchEnabled.get() ? jsonMapper.writerWithType(indexShardStateTypeReference).writeValueAsString(localShardStateMap) : "{}";
                 Gossiper.instance.addLocalApplicationState(ELASTIC_SHARDS_STATES, StorageService.instance.valueFactory.datacenter(newValue));
+            } else if (searchEnabled.get()) {
+                // publish changes since the last snapshot, or a new snapshot when there are too many changes.
+                String delta = force ? null : localShardStates.delta(localShardStateMap);
+                if (delta == null) {
+                    Gossiper.instance.addLocalApplicationState(ELASTIC_SHARDS_STATES, StorageService.instance.valueFactory.datacenter(localShardStates.snapshot(localShardStateMap)));
+                } else {
+                    Gossiper.instance.addLocalApplicationState(ELASTIC_SHARDS_STATES_DELTA, StorageService.instance.valueFactory.datacenter(delta));
+                }
             } else {
-                // publish an empty map, so other nodes will see local shards UNASSIGNED.
-                Gossiper.instance.addLocalApplicationState(ELASTIC_SHARDS_STATES, StorageService.instance.valueFactory.datacenter("{}"));
+                // publish an empty snapshot, so other nodes will see local shards UNASSIGNED.
+                Gossiper.instance.addLocalApplicationState(ELASTIC_SHARDS_STATES, StorageService.instance.valueFactory.datacenter(localShardStates.snapshot(Collections.emptyMap())));
             }
         }
     }
@@ -746,6 +780,11 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
         publishX2(clusterState, false);
     }
     
+    /**
+     * Publish the metadata version in X2 as clusterUUID/version. Unlike shard states, this value does not grow with
+     * the number of indices and only changes on metadata updates, so it is not binary encoded : nodes running a previous
+     * version parse it to acknowledge metadata updates during a rolling upgrade.
+     */
     public void publishX2(ClusterState clusterState, boolean force) {
         String clusterStateSting = clusterState.metaData().clusterUUID() + '/' + clusterState.metaData().version();
         if (Gossiper.instance.isEnabled() || force) {
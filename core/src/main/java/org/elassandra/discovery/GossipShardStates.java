@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.discovery;
+
+import org.elasticsearch.cluster.routing.ShardRoutingState;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.CompressorFactory;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary gossip encoding of the shard states of a node.
+ * <p>
+ * A snapshot lists all local indices with their shard state. It is compressed and published with a new generation
+ * in the X1 application state, and the position of an index in the snapshot is its ordinal. Subsequent changes are
+ * published as a cumulative delta from the snapshot in the X3 application state, where known indices are referenced by
+ * their ordinal. Because gossip only propagates the latest value of an application state, a delta always contains all
+ * changes since its snapshot, and a new snapshot is published when the delta becomes too large.
+ */
+public class GossipShardStates {
+
+    static final byte FORMAT_VERSION = 1;
+
+    // a new snapshot is published when the delta has more than MIN_SNAPSHOT_DELTA entries and more than 1/4 of the snapshot entries.
+    static final int MIN_SNAPSHOT_DELTA = 16;
+
+    // last published snapshot.
+    private long generation = System.currentTimeMillis();
+    private Map<String, Integer> ordinals = null;
+    private Map<String, ShardRoutingState> snapshotStates = null;
+
+    /**
+     * @return the encoded snapshot of the local shard states, with a new generation.
+     */
+    public synchronized String snapshot(Map<String, ShardRoutingState> states) throws IOException {
+        generation++;
+        ordinals = new HashMap<String, Integer>(states.size());
+        snapshotStates = new HashMap<String, ShardRoutingState>(states);
+
+        BytesStreamOutput bytes = new BytesStreamOutput();
+        try (StreamOutput out = CompressorFactory.COMPRESSOR.streamOutput(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeVLong(generation);
+            out.writeVInt(snapshotStates.size());
+            for(Map.Entry<String, ShardRoutingState> entry : snapshotStates.entrySet()) {
+                ordinals.put(entry.getKey(), ordinals.size());
+                out.writeString(entry.getKey());
+                out.writeByte(entry.getValue().value());
+            }
+        }
+        return encode(bytes.bytes());
+    }
+
+    /**
+     * @return the encoded changes of the local shard states since the last snapshot, or null when a new snapshot should be published.
+     */
+    public synchronized String delta(Map<String, ShardRoutingState> states) throws IOException {
+        if (snapshotStates == null)
+            return null;
+
+        Map<String, ShardRoutingState> changes = new HashMap<String, ShardRoutingState>();
+        for(Map.Entry<String, ShardRoutingState> entry : states.entrySet()) {
+            if (entry.getValue() != snapshotStates.get(entry.getKey()))
+                changes.put(entry.getKey(), entry.getValue());
+        }
+        if (changes.size() > MIN_SNAPSHOT_DELTA && changes.size() > snapshotStates.size() / 4)
+            return null;
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        out.writeByte(FORMAT_VERSION);
+        out.writeVLong(generation);
+        out.writeVInt(changes.size());
+        for(Map.Entry<String, ShardRoutingState> entry : changes.entrySet()) {
+            Integer ordinal = ordinals.get(entry.getKey());
+            if (ordinal == null) {
+                out.writeVInt(0);
+                out.writeString(entry.getKey());
+            } else {
+                out.writeVInt(ordinal + 1);
+            }
+            out.writeByte(entry.getValue().value());
+        }
+        return encode(out.bytes());
+    }
+
+    static String encode(BytesReference bytes) {
+        return Base64.getEncoder().encodeToString(BytesReference.toBytes(bytes));
+    }
+
+    static StreamInput decode(String value) throws IOException {
+        BytesArray bytes = new BytesArray(Base64.getDecoder().decode(value));
+        StreamInput in = CompressorFactory.COMPRESSOR.isCompressed(bytes) ? CompressorFactory.COMPRESSOR.streamInput(bytes.streamInput()) : bytes.streamInput();
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION)
+            throw new IOException("Unsupported shard states format version [" + version + "]");
+        return in;
+    }
+
+    /**
+     * Decoded snapshot of a remote node, used to apply its deltas.
+     */
+    public static class Snapshot {
+        final int version;      // gossip version of the snapshot value
+        final long generation;
+        final String[] names;
+        final Map<String, ShardRoutingState> states;
+
+        public Snapshot(int version, String value) throws IOException {
+            this.version = version;
+            try (StreamInput in = GossipShardStates.decode(value)) {
+                this.generation = in.readVLong();
+                this.names = new String[in.readVInt()];
+                this.states = new HashMap<String, ShardRoutingState>(names.length);
+                for(int i = 0; i < names.length; i++) {
+                    names[i] = in.readString();
+                    states.put(names[i], ShardRoutingState.fromValue(in.readByte()));
+                }
+            }
+        }
+
+        public int version() {
+            return version;
+        }
+
+        /**
+         * @return the shard states of the snapshot updated by the delta, ignoring a delta of another generation.
+         */
+        public Map<String, ShardRoutingState> apply(@Nullable String delta) throws IOException {
+            if (delta == null)
+                return Collections.unmodifiableMap(states);
+            try (StreamInput in = GossipShardStates.decode(delta)) {
+                if (in.readVLong() != generation)
+                    return Collections.unmodifiableMap(states);
+                int size = in.readVInt();
+                Map<String, ShardRoutingState> result = new HashMap<String, ShardRoutingState>(states);
+                for(int i = 0; i < size; i++) {
+                    int ref = in.readVInt();
+                    String name = (ref == 0) ? in.readString() : names[ref - 1];
+                    result.put(name, ShardRoutingState.fromValue(in.readByte()));
+                }
+                return Collections.unmodifiableMap(result);
+            }
+        }
+    }
+}
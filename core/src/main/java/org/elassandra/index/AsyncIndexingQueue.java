@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.index;
+
+import org.elasticsearch.common.CheckedRunnable;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.IndexSettings;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bounded per-index queue of lucene operations produced by the {@link ElasticSecondaryIndex} on the Cassandra write path,
+ * and applied in batches by a dedicated indexing thread, so that lucene analysis and merges do not add to the CQL write latency.
+ * <p>
+ * Operations are applied in the enqueue order. When the queue is full, the Cassandra write thread blocks until
+ * the indexing thread frees some space (back-pressure). {@link #awaitApplied()} is a flush barrier waiting for all
+ * previously enqueued operations to be applied before a lucene commit. Operations enqueued after {@link #close()} are
+ * applied by the caller once all previously enqueued operations have been applied.
+ * <p>
+ * Failed operations are logged and counted, since the Cassandra write is already acknowledged. If the indexing thread dies,
+ * it is restarted by the next enqueue or flush barrier, so that Cassandra write threads never wait for a dead thread.
+ */
+public class AsyncIndexingQueue extends AbstractIndexComponent implements Closeable {
+
+    private static final int BATCH_SIZE = 256;
+    // the max visibility lag is reported over the current and the previous window.
+    private static final long LAG_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final BlockingQueue<Task> queue;
+    private volatile Thread thread;
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Object appliedMutex = new Object();
+    private volatile long applied = 0;
+    private final Object lagMutex = new Object();
+    private long lagWindowStart = System.nanoTime();
+    private long windowMaxLagNanos = 0;
+    private long previousWindowMaxLagNanos = 0;
+    // enqueue holds the read lock, so that no operation is enqueued once closed.
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed = false;
+
+    private static class Task {
+        final long enqueueTime;
+        final CheckedRunnable<Exception> operation;
+
+        Task(CheckedRunnable<Exception> operation) {
+            this.enqueueTime = System.nanoTime();
+            this.operation = operation;
+        }
+    }
+
+    public AsyncIndexingQueue(IndexSettings indexSettings, int capacity) {
+        super(indexSettings);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = newThread();
+        this.thread.start();
+    }
+
+    private Thread newThread() {
+        return EsExecutors.daemonThreadFactory(indexSettings.getNodeSettings(), "async_indexing[" + index().getName() + "]")
+                .newThread(this::run);
+    }
+
+    /**
+     * @return the indexing thread, restarted if it died while operations remain to be applied.
+     */
+    private synchronized Thread worker() {
+        if (!thread.isAlive() && (!closed || !queue.isEmpty())) {
+            logger.warn("restarting the async indexing thread, pending={}", pending());
+            thread = newThread();
+            thread.start();
+        }
+        return thread;
+    }
+
+    /**
+     * Enqueue a lucene operation, blocking while the queue is full. When interrupted, the operation is still enqueued
+     * and the interrupt status is restored. When closed, the operation is applied after all pending operations.
+     */
+    public void enqueue(CheckedRunnable<Exception> operation) {
+        final Task task = new Task(operation);
+        closeLock.readLock().lock();
+        try {
+            if (!closed) {
+                enqueued.incrementAndGet();
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        if (queue.offer(task, 100, TimeUnit.MILLISECONDS))
+                            break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                    worker();
+                }
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+                return;
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        awaitTermination();
+        apply(task);
+    }
+
+    /**
+     * Wait for all operations enqueued before this call to be applied.
+     */
+    public void awaitApplied() throws InterruptedException {
+        final long target = enqueued.get();
+        synchronized (appliedMutex) {
+            while (applied < target && worker().isAlive())
+                appliedMutex.wait(100);
+        }
+    }
+
+    /**
+     * @return number of enqueued operations not yet applied.
+     */
+    public long pending() {
+        return enqueued.get() - applied;
+    }
+
+    /**
+     * @return number of operations that failed to apply.
+     */
+    public long failed() {
+        return failed.get();
+    }
+
+    /**
+     * @return maximum delay in milliseconds between the enqueue and the application of an operation over the last one to two minutes,
+     * including the age of the oldest pending operation.
+     */
+    public long maxVisibilityLagInMillis() {
+        long lag;
+        synchronized (lagMutex) {
+            rollLagWindow(System.nanoTime());
+            lag = Math.max(windowMaxLagNanos, previousWindowMaxLagNanos);
+        }
+        Task oldest = queue.peek();
+        if (oldest != null)
+            lag = Math.max(lag, System.nanoTime() - oldest.enqueueTime);
+        return TimeUnit.NANOSECONDS.toMillis(lag);
+    }
+
+    private void run() {
+        final List<Task> batch = new ArrayList<>(BATCH_SIZE);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Task task = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (task == null)
+                    continue;
+                batch.add(task);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (Task t : batch)
+                    apply(t);
+            } catch (InterruptedException e) {
+                if (!closed)
+                    logger.warn("async indexing thread interrupted", e);
+            } finally {
+                if (!batch.isEmpty()) {
+                    synchronized (appliedMutex) {
+                        applied += batch.size();
+                        appliedMutex.notifyAll();
+                    }
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private void apply(Task task) {
+        try {
+            task.operation.run();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            logger.error("async indexing operation failed", e);
+        }
+        final long now = System.nanoTime();
+        synchronized (lagMutex) {
+            rollLagWindow(now);
+            windowMaxLagNanos = Math.max(windowMaxLagNanos, now - task.enqueueTime);
+        }
+    }
+
+    private void rollLagWindow(long now) {
+        if (now - lagWindowStart >= LAG_WINDOW_NANOS) {
+            previousWindowMaxLagNanos = (now - lagWindowStart >= 2 * LAG_WINDOW_NANOS) ? 0 : windowMaxLagNanos;
+            windowMaxLagNanos = 0;
+            lagWindowStart = now;
+        }
+    }
+
+    private void awaitTermination() {
+        boolean interrupted = false;
+        Thread t;
+        while ((t = worker()).isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Apply pending operations and stop the indexing thread.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        awaitTermination();
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.index;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.CBuilder;
+import org.apache.cassandra.db.Clustering;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.EmptyIterators;
+import org.apache.cassandra.db.PartitionPosition;
+import org.apache.cassandra.db.PartitionRangeReadCommand;
+import org.apache.cassandra.db.ReadCommand;
+import org.apache.cassandra.db.ReadExecutionController;
+import org.apache.cassandra.db.SinglePartitionReadCommand;
+import org.apache.cassandra.db.filter.ClusteringIndexFilter;
+import org.apache.cassandra.db.filter.ClusteringIndexNamesFilter;
+import org.apache.cassandra.db.filter.DataLimits;
+import org.apache.cassandra.db.filter.RowFilter;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.db.partitions.PartitionIterator;
+import org.apache.cassandra.db.partitions.PartitionIterators;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
+import org.apache.cassandra.db.rows.BTreeRow;
+import org.apache.cassandra.db.rows.BufferCell;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIterators;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.Bounds;
+import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.exceptions.ReadTimeoutException;
+import org.apache.cassandra.index.Index;
+import org.apache.cassandra.service.ElassandraDaemon;
+import org.apache.cassandra.utils.AbstractIterator;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.SortedNumericSortField;
+import org.apache.lucene.search.TopFieldDocs;
+import org.elassandra.index.mapper.internal.TokenFieldMapper;
+import org.elassandra.index.search.TokenRangesQuery;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.UidFieldMapper;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CQL searcher of the {@link ElasticSecondaryIndex}, executing the elasticsearch query of the es_query expression
+ * on the local shard for the token range of the read command.
+ * <p>
+ * Matching documents are read by batches sorted by _token, and the corresponding partitions and rows are read from
+ * the base table in ring order, so that the CQL paging (restarting after the last returned partition or row) and the
+ * read command limits apply as for any range read. As a consequence, rows are returned in token order, not by score.
+ * <p>
+ * When es_query has aggregations, no partial aggregation is computed by the replicas: they return no rows, and the CQL
+ * coordinator runs a single elasticsearch search request (size 0) over the token range of the partition range read,
+ * as a search through the elasticsearch API would do, returning a single row having the aggregation results as JSON in
+ * the es_query column. Single partition reads with aggregations are rejected by {@link #validate()}.
+ */
+class ElasticIndexSearcher implements Index.Searcher {
+
+    // maximum number of documents fetched from lucene at a time.
+    static final int MAX_BATCH_SIZE = 1000;
+
+    static final Set<String> UID_FIELD = Collections.singleton(UidFieldMapper.NAME);
+    static final Sort TOKEN_SORT = new Sort(new SortedNumericSortField(TokenFieldMapper.NAME, SortField.Type.LONG));
+
+    final ElasticSecondaryIndex index;
+    final ReadCommand command;
+
+    ElasticIndexSearcher(ElasticSecondaryIndex index, ReadCommand command) {
+        this.index = index;
+        this.command = command;
+    }
+
+    /**
+     * @return the value of the es_query or es_options expression, or null.
+     */
+    static String expression(RowFilter filter, ByteBuffer name) {
+        for(RowFilter.Expression expression : filter) {
+            if (name.equals(expression.column().name.bytes))
+                return UTF8Type.instance.compose(expression.getIndexValue());
+        }
+        return null;
+    }
+
+    /**
+     * Select the target index, from the <i>indices</i> option of es_options (comma separated index names or wildcard expressions),
+     * or the index named as the keyspace, or the first index of the table.
+     */
+    ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo(ElasticSecondaryIndex.ImmutableMappingInfo mappingInfo, String options) {
+        String[] patterns = null;
+        if (options != null) {
+            for(String option : options.split("&")) {
+                int i = option.indexOf('=');
+                String key = (i > 0) ? option.substring(0, i).trim() : option.trim();
+                if ("indices".equals(key) && i > 0)
+                    patterns = option.substring(i+1).trim().split(",");
+                else
+                    throw new IllegalArgumentException("Unsupported es_options ["+option+"]");
+            }
+        }
+        for(ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo : mappingInfo.indices) {
+            if (patterns == null ? indexInfo.name.equals(index.baseCfs.keyspace.getName()) : Regex.simpleMatch(patterns, indexInfo.name))
+                return indexInfo;
+        }
+        if (patterns != null)
+            throw new IllegalArgumentException("No index matching es_options ["+options+"] for table ["+index.index_name+"]");
+        return mappingInfo.indices.length > 0 ? mappingInfo.indices[0] : null;
+    }
+
+    @Override
+    public UnfilteredPartitionIterator search(ReadExecutionController executionController) {
+        final ElasticSecondaryIndex.ImmutableMappingInfo mappingInfo = index.mappingInfo;
+        if (mappingInfo == null || mappingInfo.indices == null)
+            return new Partitions(null, null, executionController);
+
+        final ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo = indexInfo(mappingInfo, expression(command.rowFilter(), ElasticSecondaryIndex.ES_OPTIONS_BYTE_BUFFER));
+        final IndexShard indexShard = (indexInfo == null) ? null : indexInfo.shard();
+        if (indexShard == null)
+            throw new ElasticsearchException("No started shard available for table [{}]", index.index_name);
+
+        final SearchSourceBuilder source;
+        try {
+            source = source(indexInfo.indexService.xContentRegistry());
+        } catch (IOException e) {
+            throw new ElasticsearchException("Failed to parse es_query for table [{}]", e, index.index_name);
+        }
+        // aggregations are computed by the coordinator in {@link #reduce(PartitionIterator)}.
+        if (source.aggregations() != null)
+            return EmptyIterators.unfilteredPartition(command.metadata(), command.isForThrift());
+
+        final Engine.Searcher searcher = indexShard.acquireSearcher("cql_search");
+        try {
+            final Query query = query(indexInfo.indexService, indexShard, searcher, source);
+            return new Partitions(searcher, query, executionController);
+        } catch (Exception e) {
+            searcher.close();
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            throw new ElasticsearchException("Failed to search table [{}]", e, index.index_name);
+        }
+    }
+
+    /**
+     * Reject single partition reads having es_query aggregations, which are only computed for partition range reads.
+     */
+    void validate() throws InvalidRequestException {
+        if (!(command instanceof SinglePartitionReadCommand) || expression(command.rowFilter(), ElasticSecondaryIndex.ES_QUERY_BYTE_BUFFER) == null)
+            return;
+        final SearchSourceBuilder source;
+        try {
+            source = source(ElassandraDaemon.injector().getInstance(NamedXContentRegistry.class));
+        } catch (IOException e) {
+            throw new InvalidRequestException("Failed to parse es_query: " + e.getMessage());
+        }
+        if (source.aggregations() != null)
+            throw new InvalidRequestException("es_query aggregations are not supported for single partition reads");
+    }
+
+    AbstractBounds<PartitionPosition> keyRange() {
+        if (command instanceof PartitionRangeReadCommand)
+            return ((PartitionRangeReadCommand) command).dataRange().keyRange();
+        DecoratedKey key = ((SinglePartitionReadCommand) command).partitionKey();
+        return new Bounds<PartitionPosition>(key, key);
+    }
+
+    /**
+     * Parse the es_query search source, a match_all query when es_query is not set.
+     */
+    SearchSourceBuilder source(NamedXContentRegistry xContentRegistry) throws IOException {
+        final String esQuery = expression(command.rowFilter(), ElasticSecondaryIndex.ES_QUERY_BYTE_BUFFER);
+        if (esQuery == null)
+            return new SearchSourceBuilder();
+        try (XContentParser parser = XContentFactory.xContent(esQuery).createParser(xContentRegistry, esQuery)) {
+            return SearchSourceBuilder.fromXContent(new QueryParseContext(parser));
+        }
+    }
+
+    /**
+     * Filter the es_query query on the index type and on the token ranges covering the key range of the read command.
+     */
+    Query query(IndexService indexService, IndexShard indexShard, Engine.Searcher searcher, SearchSourceBuilder source) throws IOException {
+        final QueryBuilder queryBuilder = source.query();
+        final QueryShardContext context = indexService.newQueryShardContext(indexShard.shardId().id(), searcher.reader(), System::currentTimeMillis);
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add((queryBuilder == null) ? Queries.newMatchAllQuery() : context.toQuery(queryBuilder).query(), Occur.MUST);
+        builder.add(index.typeTermQuery, Occur.FILTER);
+        builder.add(Queries.newNonNestedFilter(), Occur.FILTER);
+        builder.add(tokenRangesQuery(keyRange()), Occur.FILTER);
+        return builder.build();
+    }
+
+    /**
+     * @return a query matching the tokens of the key range, including both bounds and unwrapped around the ring.
+     * Partitions matching the token but not the key range bounds are filtered out when read.
+     */
+    static Query tokenRangesQuery(AbstractBounds<PartitionPosition> keyRange) {
+        final Token left = keyRange.left.getToken();
+        final Token right = keyRange.right.getToken();
+        final long lower = left.isMinimum() ? Long.MIN_VALUE : (Long) left.getTokenValue();
+        final long upper = right.isMinimum() ? Long.MAX_VALUE : (Long) right.getTokenValue();
+        if (!right.isMinimum() && lower > upper)
+            return new TokenRangesQuery(TokenFieldMapper.NAME, new long[] { lower, Long.MIN_VALUE }, new long[] { Long.MAX_VALUE, upper });
+        return new TokenRangesQuery(TokenFieldMapper.NAME, new long[] { lower }, new long[] { upper });
+    }
+
+    /**
+     * @return the token range of a key range, for the shard search request token ranges filter.
+     */
+    static Range<Token> tokenRange(AbstractBounds<PartitionPosition> keyRange) {
+        Token left = keyRange.left.getToken();
+        if (keyRange.inclusiveLeft() && !left.isMinimum())
+            left = new LongToken((Long) left.getTokenValue() - 1);
+        return new Range<Token>(left, keyRange.right.getToken());
+    }
+
+    /**
+     * When es_query has aggregations, run a single elasticsearch search for the token range of the read command, without
+     * reading the replicas, and return one row having the aggregations as JSON in the es_query column. Otherwise, return
+     * the partitions unchanged.
+     * <p>
+     * The search is executed by the search thread pool, and the calling CQL request thread waits for the response no longer
+     * than the range read timeout.
+     * <p>
+     * The result row is keyed by empty partition key and clustering values, and is only built on the coordinator after
+     * the replica responses have been resolved, so it is never read-repaired into the base table. As the search covers
+     * the whole key range of the first page, following pages are empty.
+     */
+    PartitionIterator reduce(PartitionIterator partitions) {
+        final SearchSourceBuilder source;
+        try {
+            source = source(ElassandraDaemon.injector().getInstance(NamedXContentRegistry.class));
+        } catch (IOException e) {
+            partitions.close();
+            throw new ElasticsearchException("Failed to parse es_query for table [{}]", e, index.index_name);
+        }
+        if (source.aggregations() == null)
+            return partitions;
+
+        // replica requests are only sent when iterating, closing skips them.
+        partitions.close();
+        final AbstractBounds<PartitionPosition> keyRange = keyRange();
+        if (keyRange.left instanceof DecoratedKey)
+            throw new IllegalStateException("es_query aggregations are not supported for single partition reads");
+
+        final ElasticSecondaryIndex.ImmutableMappingInfo mappingInfo = index.mappingInfo;
+        final ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo = (mappingInfo == null || mappingInfo.indices == null) ? null :
+            indexInfo(mappingInfo, expression(command.rowFilter(), ElasticSecondaryIndex.ES_OPTIONS_BYTE_BUFFER));
+        if (indexInfo == null)
+            return EmptyIterators.partition();
+
+        final SearchRequest request = new SearchRequest(indexInfo.name).types(index.typeName).source(source.size(0));
+        if (!keyRange.left.getToken().isMinimum() || !keyRange.right.getToken().isMinimum())
+            request.tokenRanges(Collections.singletonList(tokenRange(keyRange)));
+        final PlainActionFuture<SearchResponse> future = PlainActionFuture.newFuture();
+        ElassandraDaemon.injector().getInstance(Client.class).search(request, future);
+        final SearchResponse response;
+        try {
+            response = future.actionGet(DatabaseDescriptor.getRangeRpcTimeout(), TimeUnit.MILLISECONDS);
+        } catch (ElasticsearchTimeoutException e) {
+            future.cancel(true);
+            throw new ReadTimeoutException(ConsistencyLevel.ONE, 0, 1, false);
+        }
+        if (response.getAggregations() == null)
+            return EmptyIterators.partition();
+
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+            response.getAggregations().toXContent(builder, ToXContent.EMPTY_PARAMS);
+            builder.endObject();
+            return PartitionIterators.singletonIterator(UnfilteredRowIterators.filter(row(builder.string()).unfilteredIterator(), command.nowInSec()));
+        } catch (IOException e) {
+            throw new ElasticsearchException("Failed to render aggregations for table [{}]", e, index.index_name);
+        }
+    }
+
+    /**
+     * @return a row having empty primary key values and the value in the es_query column, timestamped by the read command.
+     */
+    PartitionUpdate row(String value) {
+        final CFMetaData metadata = command.metadata();
+        final CBuilder builder = CBuilder.create(metadata.getKeyValidatorAsClusteringComparator());
+        for(int i = 0; i < metadata.partitionKeyColumns().size(); i++)
+            builder.add(ByteBufferUtil.EMPTY_BYTE_BUFFER);
+        final DecoratedKey key = metadata.partitioner.decorateKey(CFMetaData.serializePartitionKey(builder.build()));
+
+        final ByteBuffer[] clusteringValues = new ByteBuffer[metadata.clusteringColumns().size()];
+        Arrays.fill(clusteringValues, ByteBufferUtil.EMPTY_BYTE_BUFFER);
+        final ColumnDefinition column = metadata.getColumnDefinition(ElasticSecondaryIndex.ES_QUERY_BYTE_BUFFER);
+        final Row row = BTreeRow.singleCellRow(Clustering.make(clusteringValues),
+                BufferCell.live(column, command.nowInSec() * 1000000L, UTF8Type.instance.decompose(value)));
+        return PartitionUpdate.singleRowUpdate(metadata, key, row);
+    }
+
+    /**
+     * @return the primary key values of a document _id, a single value or a JSON array.
+     */
+    static Object[] primaryKey(String id) throws IOException {
+        return (id.startsWith("[") && id.endsWith("]")) ? ClusterService.jsonMapper.readValue(id, Object[].class) : new Object[] { id };
+    }
+
+    DecoratedKey partitionKey(Object[] elements) throws IOException {
+        final CFMetaData metadata = command.metadata();
+        final List<ColumnDefinition> partitionColumns = metadata.partitionKeyColumns();
+        CBuilder builder = CBuilder.create(metadata.getKeyValidatorAsClusteringComparator());
+        for(int i = 0; i < partitionColumns.size(); i++)
+            builder.add(ClusterService.fromString(partitionColumns.get(i).type, elements[i].toString()));
+        return metadata.partitioner.decorateKey(CFMetaData.serializePartitionKey(builder.build()));
+    }
+
+    Clustering clustering(Object[] elements) throws IOException {
+        final List<ColumnDefinition> clusteringColumns = command.metadata().clusteringColumns();
+        final int offset = command.metadata().partitionKeyColumns().size();
+        ByteBuffer[] values = new ByteBuffer[clusteringColumns.size()];
+        for(int i = 0; i < values.length; i++)
+            values[i] = ClusterService.fromString(clusteringColumns.get(i).type, elements[offset + i].toString());
+        return Clustering.make(values);
+    }
+
+    /**
+     * Streams partitions of the matching documents in ring order. A partition is returned once all documents having a
+     * token lower or equal to its token have been fetched, because rows of a partition may span several batches.
+     */
+    class Partitions extends AbstractIterator<UnfilteredRowIterator> implements UnfilteredPartitionIterator {
+        final Engine.Searcher searcher;
+        final Query query;
+        final ReadExecutionController executionController;
+        final AbstractBounds<PartitionPosition> keyRange;
+        final int batchSize;
+
+        // matching partitions not yet returned, mapped to the matching clusterings, or null for a skinny row.
+        final TreeMap<DecoratedKey, NavigableSet<Clustering>> pending = new TreeMap<DecoratedKey, NavigableSet<Clustering>>();
+        // pending wide row partitions having a matching static document.
+        final Set<DecoratedKey> staticDocuments = new HashSet<DecoratedKey>();
+        ScoreDoc after = null;
+        long lastToken = Long.MIN_VALUE;
+        boolean exhausted;
+
+        Partitions(Engine.Searcher searcher, Query query, ReadExecutionController executionController) {
+            this.searcher = searcher;
+            this.query = query;
+            this.executionController = executionController;
+            this.keyRange = keyRange();
+            this.batchSize = Math.max(1, Math.min(command.limits().count(), MAX_BATCH_SIZE));
+            this.exhausted = (searcher == null);
+        }
+
+        @Override
+        public boolean isForThrift() {
+            return command.isForThrift();
+        }
+
+        @Override
+        public CFMetaData metadata() {
+            return command.metadata();
+        }
+
+        @Override
+        protected UnfilteredRowIterator computeNext() {
+            while (true) {
+                while (!exhausted && (pending.isEmpty() || (Long) pending.firstKey().getToken().getTokenValue() >= lastToken))
+                    fetch();
+                if (pending.isEmpty())
+                    return endOfData();
+                Map.Entry<DecoratedKey, NavigableSet<Clustering>> entry = pending.pollFirstEntry();
+                UnfilteredRowIterator partition = read(entry.getKey(), entry.getValue(), staticDocuments.remove(entry.getKey()));
+                if (partition != null)
+                    return partition;
+            }
+        }
+
+        void fetch() {
+            try {
+                TopFieldDocs topDocs = searcher.searcher().searchAfter(after, query, batchSize, TOKEN_SORT, false, false);
+                for(ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                    Document doc = searcher.searcher().doc(scoreDoc.doc, UID_FIELD);
+                    add(Uid.createUid(doc.get(UidFieldMapper.NAME)).id());
+                    after = scoreDoc;
+                    lastToken = (Long) ((FieldDoc) scoreDoc).fields[0];
+                }
+                if (topDocs.scoreDocs.length < batchSize)
+                    exhausted = true;
+            } catch (IOException e) {
+                throw new ElasticsearchException("Failed to search table [{}]", e, index.index_name);
+            }
+        }
+
+        /**
+         * Add the partition and row of a matching document to the pending ones.
+         */
+        void add(String id) throws IOException {
+            final Object[] elements = primaryKey(id);
+            final DecoratedKey key = partitionKey(elements);
+            if (!keyRange.contains(key))
+                return;
+
+            final int clusteringSize = command.metadata().clusteringColumns().size();
+            NavigableSet<Clustering> clusterings = pending.get(key);
+            if (clusterings == null) {
+                clusterings = (clusteringSize == 0) ? null : new TreeSet<Clustering>(command.metadata().comparator);
+                pending.put(key, clusterings);
+            }
+            if (clusterings == null)
+                return;
+            if (elements.length < command.metadata().partitionKeyColumns().size() + clusteringSize)
+                staticDocuments.add(key);
+            else
+                clusterings.add(clustering(elements));
+        }
+
+        /**
+         * Read the matching rows of a partition, restricted to the clustering filter of the read command (also used for paging inside a partition).
+         * @return the partition rows, or null when no matching row remains.
+         */
+        UnfilteredRowIterator read(DecoratedKey key, NavigableSet<Clustering> clusterings, boolean staticDocument) {
+            final ClusteringIndexFilter commandFilter = command.clusteringIndexFilter(key);
+            ClusteringIndexFilter filter = commandFilter;
+            if (clusterings != null) {
+                Iterator<Clustering> it = clusterings.iterator();
+                while (it.hasNext()) {
+                    if (!commandFilter.selects(it.next()))
+                        it.remove();
+                }
+                if (clusterings.isEmpty() && !staticDocument)
+                    return null;
+                // an empty set of clusterings only selects the static row.
+                filter = new ClusteringIndexNamesFilter(clusterings, commandFilter.isReversed());
+            }
+            SinglePartitionReadCommand readCommand = SinglePartitionReadCommand.create(command.metadata(), command.nowInSec(),
+                    command.columnFilter(), RowFilter.NONE, DataLimits.NONE, key, filter);
+            return readCommand.queryMemtableAndDisk(index.baseCfs, executionController);
+        }
+
+        @Override
+        public void close() {
+            if (searcher != null)
+                searcher.close();
+        }
+    }
+}
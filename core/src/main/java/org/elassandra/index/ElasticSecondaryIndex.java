@@ -40,7 +40,12 @@ import org.apache.cassandra.db.ReadCommand;
 import org.apache.cassandra.db.ReadExecutionController;
 import org.apache.cassandra.db.SinglePartitionReadCommand;
 import org.apache.cassandra.db.Slice;
+import org.apache.cassandra.db.Slices;
 import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.db.filter.ClusteringIndexNamesFilter;
+import org.apache.cassandra.db.filter.ClusteringIndexSliceFilter;
+import org.apache.cassandra.db.filter.ColumnFilter;
+import org.apache.cassandra.db.filter.DataLimits;
 import org.apache.cassandra.db.filter.RowFilter;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.CollectionType;
@@ -102,10 +107,14 @@ import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.CheckedRunnable;
 import org.elasticsearch.common.SuppressForbidden;
 import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.geo.GeoPoint;
+import org.elasticsearch.common.hash.MurmurHash3;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.geo.builders.ShapeBuilder;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.lucene.BytesRefs;
@@ -170,10 +179,12 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -182,6 +193,7 @@ import java.util.NavigableSet;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -211,6 +223,9 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
     public static final Map<String, ElasticSecondaryIndex> elasticSecondayIndices = Maps.newConcurrentMap();
     public static final Pattern TARGET_REGEX = Pattern.compile("^(keys|entries|values|full)\\((.+)\\)$");
     
+    // maximum number of lucene operations applied in a single engine batch.
+    public static final int MAX_BATCH_OPERATIONS = 1024;
+    
     public static boolean runsElassandra = false;
     
     final String index_name;
@@ -287,6 +302,51 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
         throw new RuntimeException(String.format(Locale.ROOT,"Unable to parse targets for index %s (%s)", indexDef.name, target));
     }
     
+    /**
+     * 64 bits digest of the mapping, the document TTL and the mapped column values, stored in the {@link Engine#DIGEST_FIELD}
+     * so that the engine can skip re-indexing a document when a Cassandra update does not change its indexed content.
+     */
+    public static long digest(DocumentMapper docMapper, Object[] values, long ttl) throws IOException {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            // mapping updates (like a new sub-field) change the indexed content without changing the values.
+            out.writeInt(docMapper.mappingSource().hashCode());
+            out.writeLong(ttl);
+            out.writeVInt(values.length);
+            for(Object value : values)
+                writeDigestValue(out, value);
+            final BytesRef bytes = out.bytes().toBytesRef();
+            return MurmurHash3.hash128(bytes.bytes, bytes.offset, bytes.length, 0, new MurmurHash3.Hash128()).h1;
+        }
+    }
+    
+    private static void writeDigestValue(StreamOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte((byte)0);
+        } else if (value instanceof ByteBuffer) {
+            out.writeByte((byte)1);
+            out.writeByteArray(ByteBufferUtil.getArray((ByteBuffer) value));
+        } else if (value instanceof Map) {
+            out.writeByte((byte)2);
+            out.writeVInt(((Map<?,?>) value).size());
+            for(Map.Entry<?,?> entry : ((Map<?,?>) value).entrySet()) {
+                writeDigestValue(out, entry.getKey());
+                writeDigestValue(out, entry.getValue());
+            }
+        } else if (value instanceof Collection) {
+            out.writeByte((byte)3);
+            out.writeVInt(((Collection<?>) value).size());
+            for(Object element : (Collection<?>) value)
+                writeDigestValue(out, element);
+        } else if (value instanceof Date) {
+            // Date.toString() truncates milliseconds.
+            out.writeByte((byte)4);
+            out.writeLong(((Date) value).getTime());
+        } else {
+            out.writeByte((byte)5);
+            out.writeString(value.toString());
+        }
+    }
+    
     // reusable per thread context
     private CloseableThreadLocal<Context> perThreadContext = new CloseableThreadLocal<Context>() {
         @Override
@@ -804,6 +864,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             final boolean index_static_only;
             final boolean index_on_compaction;
             final boolean versionLessEngine;
+            final boolean skipNoopUpdates;
             
             Mapper[] mappers;   // inititalized in the ImmutableMappingInfo constructor.
             ReadWriteLock dynamicMappingUpdateLock;
@@ -812,6 +873,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             public ImmutableIndexInfo(String name, IndexService indexService, MappingMetaData mappingMetaData, MetaData metadata, boolean versionLessEngine) throws IOException {
                 this.name = name;
                 this.versionLessEngine = versionLessEngine;
+                this.skipNoopUpdates = IndexMetaData.isIndexSkippingNoopUpdates(indexService.getIndexSettings().getSettings());
                 this.indexService = indexService;
                 this.mapping = mappingMetaData.sourceAsMap();
                 this.type = mappingMetaData.type();
@@ -868,7 +930,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                     IndexShard shard = shard();
                     if (shard != null) {
                         try {
-                            shard.refresh("synchronous_refresh");
+                            apply(() -> shard.refresh("synchronous_refresh"));
                         } catch (Throwable e) {
                             logger.error("error", e);
                         }
@@ -876,6 +938,18 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 }
             }
             
+            /**
+             * Apply a lucene operation, or enqueue it when the index has an asynchronous indexing queue.
+             */
+            public <E extends Exception> void apply(CheckedRunnable<E> operation) throws E {
+                final AsyncIndexingQueue queue = indexService.asyncIndexingQueue();
+                if (queue == null) {
+                    operation.run();
+                } else {
+                    queue.enqueue(operation::run);
+                }
+            }
+            
             public void deleteByQuery(RangeTombstone tombstone) {
                 IndexShard shard = shard();
                 if (shard != null) {
@@ -906,7 +980,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                     if (!updated)
                         updated = true;
                     DeleteByQuery deleteByQuery = new DeleteByQuery(query, null, null, null, null, Operation.Origin.PRIMARY, System.currentTimeMillis(), typeName);
-                    shard.getEngine().delete(deleteByQuery);
+                    apply(() -> shard.getEngine().delete(deleteByQuery));
                 }
             }
             
@@ -1025,6 +1099,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
         final long metadataVersion;
         final String nodeId;
         final boolean indexOnCompaction;  // true if at least one index has index_on_compaction=true;
+        final ColumnFilter readColumnFilter; // read-before-write column filter, only values of indexed columns are queried.
         
         ImmutableMappingInfo(final ClusterState state) {
             this.metadataVersion = state.metaData().version();
@@ -1041,6 +1116,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 this.indexedPkColumns = null;
                 this.partitionFunctions = null;
                 this.indexOnCompaction = false;
+                this.readColumnFilter = null;
                return;
             }
             
@@ -1137,6 +1213,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 this.indexedPkColumns = null;
                 this.partitionFunctions = null;
                 this.indexOnCompaction = false;
+                this.readColumnFilter = null;
                 return;
             }
 
@@ -1178,6 +1255,8 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             
             this.fieldsToRead = new BitSet(fields.length);
             this.staticColumns = (baseCfs.metadata.hasStaticColumns()) ? new BitSet(fields.length) : null;
+            // fetch all columns to preserve the row liveness, but only query values of indexed columns.
+            ColumnFilter.Builder readColumnFilterBuilder = ColumnFilter.allColumnsBuilder(baseCfs.metadata);
             for(int i=0; i < fields.length; i++) {
                 ColumnIdentifier colId = new ColumnIdentifier(fields[i], true);
                 ColumnDefinition colDef = baseCfs.metadata.getColumnDefinition(colId);
@@ -1185,7 +1264,10 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 this.fieldsToRead.set(i, fieldsMap.get(fields[i]) && !colDef.isPrimaryKeyColumn());
                 if (staticColumns != null)
                     this.staticColumns.set(i,colDef.isStatic());
+                if (!colDef.isPrimaryKeyColumn())
+                    readColumnFilterBuilder.add(colDef);
             }
+            this.readColumnFilter = readColumnFilterBuilder.build();
             
             if (partFuncs != null && partFuncs.size() > 0) {
                 for(ImmutablePartitionFunction func : partFuncs.values()) {
@@ -1278,7 +1360,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
         }
 
         class WideRowcumentIndexer extends RowcumentIndexer {        
-            NavigableSet<Clustering> clusterings = new java.util.TreeSet<Clustering>(baseCfs.metadata.comparator);
+            NavigableSet<Clustering> clusterings = new TreeSet<Clustering>(baseCfs.metadata.comparator);
             Map<Clustering, WideRowcument> rowcuments = new TreeMap<Clustering, WideRowcument>(baseCfs.metadata.comparator);
             Row inStaticRow, outStaticRow;
             
@@ -1341,6 +1423,16 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 if (logger.isTraceEnabled())
                     logger.trace("indexer={} inStaticRow={} outStaticRow={} clustering={}", this.hashCode(), inStaticRow, outStaticRow, this.clusterings);
                 
+                // apply rows of the partition update as engine batches.
+                beginBatches();
+                try {
+                    flushRows();
+                } finally {
+                    applyBatches();
+                }
+            }
+            
+            private void flushRows() {
                 switch(transactionType) {
                 case CLEANUP:
                     for(WideRowcument rowcument : rowcuments.values())
@@ -1349,17 +1441,26 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 case COMPACTION:
                 case UPDATE:
                     if (!clusterings.isEmpty()) {
-                        boolean hasMissingFields = false;
-                        for(WideRowcument rowcument : rowcuments.values()) {
+                        // index complete rows from the update, and only read rows with missing fields.
+                        NavigableSet<Clustering> missingClusterings = null;
+                        for(Map.Entry<Clustering, WideRowcument> entry : rowcuments.entrySet()) {
+                            WideRowcument rowcument = entry.getValue();
                             if (rowcument.hasMissingFields()) {
-                                hasMissingFields = true;
-                                break;
+                                if (missingClusterings == null)
+                                    missingClusterings = new TreeSet<Clustering>(baseCfs.metadata.comparator);
+                                missingClusterings.add(entry.getKey());
+                            } else if (rowcument.hasLiveData(nowInSec)) {
+                                rowcument.index();
+                            } else {
+                                rowcument.delete();
                             }
                         }
-                        if (hasMissingFields) {
+                        readBeforeWrite(missingClusterings == null ? 0 : missingClusterings.size(), rowcuments.size());
+                        if (missingClusterings != null) {
                             if (logger.isTraceEnabled())
-                                logger.trace("indexer={} read partition for clusterings={}", this.hashCode(), clusterings);
-                            SinglePartitionReadCommand command = SinglePartitionReadCommand.create(baseCfs.metadata, nowInSec, key, clusterings);
+                                logger.trace("indexer={} read partition for clusterings={}", this.hashCode(), missingClusterings);
+                            SinglePartitionReadCommand command = SinglePartitionReadCommand.create(baseCfs.metadata, nowInSec, readColumnFilter, RowFilter.NONE, DataLimits.NONE, 
+                                    key, new ClusteringIndexNamesFilter(missingClusterings, false));
                             RowIterator rowIt = read(command);
                             this.inStaticRow = rowIt.staticRow();
                             for(; rowIt.hasNext(); ) {
@@ -1381,14 +1482,6 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                                     logger.error("Unexpected error", e);
                                 }
                             }
-                        } else {
-                            for(WideRowcument rowcument : rowcuments.values()) {
-                                if (rowcument.hasLiveData(nowInSec)) {
-                                    rowcument.index();
-                                 } else {
-                                    rowcument.delete();
-                                 }
-                            }
                         }
                     }
                 }
@@ -1467,8 +1560,11 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                         break;
                     case COMPACTION: // remove expired row or reindex a doc when a column has expired, happen only when index_on_compaction=true for at least one elasticsearch index.
                     case UPDATE:
-                        if (rowcument.hasMissingFields()) {
-                            SinglePartitionReadCommand command = SinglePartitionReadCommand.fullPartitionRead(baseCfs.metadata, nowInSec, key);
+                        final boolean hasMissingFields = rowcument.hasMissingFields();
+                        readBeforeWrite(hasMissingFields ? 1 : 0, 1);
+                        if (hasMissingFields) {
+                            SinglePartitionReadCommand command = SinglePartitionReadCommand.create(baseCfs.metadata, nowInSec, readColumnFilter, RowFilter.NONE, DataLimits.NONE,
+                                    key, new ClusteringIndexSliceFilter(Slices.ALL, false));
                             RowIterator rowIt = read(command);
                             if (rowIt.hasNext())
                                 try {
@@ -1496,6 +1592,9 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             final String partitionKey;
             BitSet targets = null;
             
+            // when not null, lucene operations are collected per index and applied as engine batches.
+            Map<ImmutableMappingInfo.ImmutableIndexInfo, List<Engine.Operation>> batchedOperations = null;
+            
             public RowcumentIndexer(final DecoratedKey key,
                     final PartitionColumns columns,
                     final int nowInSec,
@@ -1605,10 +1704,66 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 }
             }
             
+            /**
+             * Collect lucene operations of the following rowcuments until {@link #applyBatches()}.
+             */
+            public void beginBatches() {
+                this.batchedOperations = new LinkedHashMap<>();
+            }
+            
+            /**
+             * Apply the collected lucene operations, one engine batch per index.
+             */
+            public void applyBatches() {
+                final Map<ImmutableMappingInfo.ImmutableIndexInfo, List<Engine.Operation>> batches = this.batchedOperations;
+                this.batchedOperations = null;
+                if (batches != null) {
+                    for(Map.Entry<ImmutableMappingInfo.ImmutableIndexInfo, List<Engine.Operation>> entry : batches.entrySet())
+                        applyBatch(entry.getKey(), entry.getValue());
+                }
+            }
+            
+            void addToBatch(ImmutableMappingInfo.ImmutableIndexInfo indexInfo, Engine.Operation operation) {
+                List<Engine.Operation> operations = batchedOperations.computeIfAbsent(indexInfo, k -> new ArrayList<>());
+                operations.add(operation);
+                if (operations.size() >= MAX_BATCH_OPERATIONS)
+                    applyBatch(indexInfo, batchedOperations.remove(indexInfo));
+            }
+            
+            private void applyBatch(ImmutableMappingInfo.ImmutableIndexInfo indexInfo, List<Engine.Operation> operations) {
+                final IndexShard indexShard = indexInfo.shard();
+                if (indexShard == null || operations.isEmpty())
+                    return;
+                try {
+                    indexInfo.apply(() -> {
+                        List<Engine.Result> results = indexShard.batch(indexShard.getEngine(), operations);
+                        for(int i = 0; i < results.size(); i++) {
+                            if (results.get(i).hasFailure())
+                                logger.error("document CF={}.{} index={} uid={} {} failure", 
+                                        baseCfs.metadata.ksName, baseCfs.metadata.cfName, indexInfo.name, operations.get(i).uid().text(), results.get(i).getOperationType(), results.get(i).getFailure());
+                        }
+                        if (logger.isDebugEnabled())
+                            logger.debug("batch CF={}.{} index={} operations={}", baseCfs.metadata.ksName, baseCfs.metadata.cfName, indexInfo.name, operations.size());
+                    });
+                } catch (IOException e) {
+                    logger.error("error", e);
+                }
+            }
+            
             public abstract void collect(Row inRow, Row outRow);
             
             public abstract void flush(); 
             
+            /**
+             * Account read-before-write rows in the stats of the associated indices.
+             * @param readRows number of rows read before indexing
+             * @param updatedRows number of rows of the partition update
+             */
+            public void readBeforeWrite(int readRows, int updatedRows) {
+                for(ImmutableMappingInfo.ImmutableIndexInfo indexInfo : indices)
+                    indexInfo.indexService.onReadBeforeWrite(readRows, updatedRows - readRows);
+            }
+            
             public RowIterator read(SinglePartitionReadCommand command) {
                 ReadExecutionController control = command.executionController();
                 try {
@@ -1890,7 +2045,10 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                                         ((Context.StaticDocument)doc).applyFilter(isStatic());
                                 }
                             }
+                            if (indexInfo.skipNoopUpdates)
+                                context.rootDoc().add(new NumericDocValuesField(Engine.DIGEST_FIELD, digest(context.docMapper, values, ttl)));
                             context.finalize();
+                            // the per-thread context is reset for the next row while the operation may be deferred in a batch, so copy its documents.
                             final ParsedDocument parsedDoc = new ParsedDocument(
                                     context.version(),
                                     (isStatic()) ? partitionKey : id,
@@ -1899,7 +2057,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                                     System.currentTimeMillis(), // timstamp
                                     ttl,
                                     ((Long)key.getToken().getTokenValue()).longValue(), 
-                                    context.docs(), 
+                                    new ArrayList<Document>(context.docs()), 
                                     context.source(), // source 
                                     XContentType.JSON,
                                     (Mapping)null); // mappingUpdate
@@ -1913,7 +2071,8 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                             if (indexShard != null) {
                                 if (!indexInfo.updated)
                                     indexInfo.updated = true;
-                                final Engine.Index operation = new Engine.Index(context.docMapper.uidMapper().term(Uid.createUid(context.docMapper.type(), id)), 
+                                final String docType = context.docMapper.type();
+                                final Engine.Index operation = new Engine.Index(context.docMapper.uidMapper().term(Uid.createUid(docType, id)), 
                                         parsedDoc, 
                                         1L, 
                                         VersionType.INTERNAL, 
@@ -1922,17 +2081,23 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                                         startTime, false) {
                                     @Override
                                     public int estimatedSizeInBytes() {
-                                        return (id.length() + context.docMapper.type().length()) * 2 + inRowDataSize + 12;
+                                        return (id.length() + docType.length()) * 2 + inRowDataSize + 12;
                                     }
                                 };
                                 
-                                IndexResult result = indexShard.index(indexShard.getEngine(), operation);
-                                
-                                if (logger.isDebugEnabled()) {
-                                    logger.debug("document CF={}.{} index={} type={} id={} version={} created={} static={} ttl={} refresh={} ", 
-                                        baseCfs.metadata.ksName, baseCfs.metadata.cfName,
-                                        context.indexInfo.name, typeName,
-                                        parsedDoc.id(), operation.version(), result.isCreated(), isStatic(), ttl, context.indexInfo.refresh);
+                                if (batchedOperations != null) {
+                                    addToBatch(indexInfo, operation);
+                                } else {
+                                    indexInfo.apply(() -> {
+                                        IndexResult result = indexShard.index(indexShard.getEngine(), operation);
+                                        
+                                        if (logger.isDebugEnabled()) {
+                                            logger.debug("document CF={}.{} index={} type={} id={} version={} created={} static={} ttl={} refresh={} ", 
+                                                baseCfs.metadata.ksName, baseCfs.metadata.cfName,
+                                                indexInfo.name, typeName,
+                                                parsedDoc.id(), operation.version(), result.isCreated(), isStatic(), ttl, indexInfo.refresh);
+                                        }
+                                    });
                                 }
                              }
                         } catch (IOException e) {
@@ -1964,8 +2129,12 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                         Engine.Delete delete = indexShard.prepareDeleteOnPrimary(typeName, id, 
                                 indexInfo.versionLessEngine ? 1L : Versions.MATCH_ANY, 
                                 indexInfo.versionLessEngine ? VersionType.EXTERNAL : VersionType.INTERNAL);
+                        if (batchedOperations != null) {
+                            addToBatch(indexInfo, delete);
+                            return;
+                        }
                         try {
-                            indexShard.delete(delete);
+                            indexInfo.apply(() -> indexShard.delete(delete));
                         } catch (IOException e) {
                             logger.error("Document deletion error", e);
                         }
@@ -2002,7 +2171,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                             builder.add(typeTermQuery, Occur.FILTER);
                             builder.add(tokenRangeQuery, Occur.FILTER);
                             DeleteByQuery deleteByQuery = new DeleteByQuery(builder.build(), null, null, null, null, Operation.Origin.PRIMARY, System.currentTimeMillis(), typeName);
-                            indexShard.getEngine().delete(deleteByQuery);
+                            indexInfo.apply(() -> indexShard.getEngine().delete(deleteByQuery));
                         }
                     }
                 } catch(Throwable t) {
@@ -2148,6 +2317,9 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                             if (indexShard.state() == IndexShardState.STARTED)  {
                                 long start = System.currentTimeMillis();
                                 indexInfo.updated = false; // reset updated state
+                                AsyncIndexingQueue asyncIndexingQueue = indexInfo.indexService.asyncIndexingQueue();
+                                if (asyncIndexingQueue != null)
+                                    asyncIndexingQueue.awaitApplied(); // flush barrier, commit all operations of the flushed memtable
                                 indexShard.flush(new FlushRequest().force(false).waitIfOngoing(true));
                                 if (logger.isInfoEnabled())
                                     logger.info("Elasticsearch index=[{}] flushed, duration={}ms",indexInfo.name, System.currentTimeMillis() - start);
@@ -2243,7 +2415,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                             if (!indexInfo.updated)
                                 indexInfo.updated = true;
                             DeleteByQuery deleteByQuery = new DeleteByQuery(typeTermQuery, null, null, null, null, Operation.Origin.PRIMARY, System.currentTimeMillis(), typeName);
-                            indexShard.getEngine().delete(deleteByQuery);
+                            indexInfo.apply(() -> indexShard.getEngine().delete(deleteByQuery));
                         }
                     } catch (ElasticsearchException e) {
                         logger.error("Error while truncating index=[{}]", e, indexInfo.name);
@@ -2300,21 +2472,31 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
 
     @Override
     public RowFilter getPostIndexQueryFilter(RowFilter filter) {
-        return null;
+        // es_query and es_options are handled by the searcher, other expressions still apply to the returned rows.
+        RowFilter postFilter = filter;
+        for(RowFilter.Expression expression : filter) {
+            if (supportsExpression(expression.column(), expression.operator()))
+                postFilter = postFilter.without(expression);
+        }
+        return postFilter;
     }
 
     @Override
     public BiFunction<PartitionIterator, ReadCommand, PartitionIterator> postProcessorFor(ReadCommand command) {
+        // reduce es_query aggregations on the coordinator.
         return (partitionIterator, readCommand) -> {
-            return partitionIterator;
+            return new ElasticIndexSearcher(this, readCommand).reduce(partitionIterator);
         };
     }
 
+    @Override
+    public void validate(ReadCommand command) throws InvalidRequestException {
+        new ElasticIndexSearcher(this, command).validate();
+    }
+
     @Override
     public Searcher searcherFor(ReadCommand command) {
-        return (group) -> {
-            throw new IllegalStateException("CQL query not supported.");
-        };
+        return new ElasticIndexSearcher(this, command);
     }
     
     public Indexer indexerFor(DecoratedKey key, PartitionColumns columns, int nowInSec, Group opGroup, Type transactionType) {
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.index;
+
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.statements.ParsedStatement;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.IndexSettings;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Per-index cache of the prepared CQL INSERT statements used to write documents, keyed by table,
+ * ordered column names and IF NOT EXISTS flag. TTL and TIMESTAMP are bind markers, so documents
+ * with the same columns share the same prepared statement. The cache is cleared on mapping updates.
+ */
+public class InsertStatementCache extends AbstractIndexComponent implements Closeable {
+
+    private final ConcurrentMap<Key, ParsedStatement.Prepared> cache = new ConcurrentHashMap<>();
+
+    public InsertStatementCache(IndexSettings indexSettings) {
+        super(indexSettings);
+    }
+
+    public ParsedStatement.Prepared getOrPrepare(String cfName, Collection<String> columns, boolean ifNotExists, Supplier<String> querySupplier) {
+        Key key = new Key(cfName, columns, ifNotExists);
+        ParsedStatement.Prepared prepared = cache.get(key);
+        if (prepared != null)
+            return prepared;
+        String query = querySupplier.get();
+        if (logger.isTraceEnabled())
+            logger.trace("new insert statement={}", query);
+        prepared = QueryProcessor.prepareInternal(query);
+        ParsedStatement.Prepared previous = cache.putIfAbsent(key, prepared);
+        return (previous == null) ? prepared : previous;
+    }
+
+    public void clear(String reason) {
+        if (logger.isDebugEnabled())
+            logger.debug("clearing {} insert statements because [{}]", cache.size(), reason);
+        cache.clear();
+    }
+
+    @Override
+    public void close() {
+        clear("close");
+    }
+
+    private static class Key {
+        final String cfName;
+        final List<String> columns;
+        final boolean ifNotExists;
+        final int hashCode;
+
+        Key(String cfName, Collection<String> columns, boolean ifNotExists) {
+            this.cfName = cfName;
+            this.columns = new ArrayList<>(columns);
+            this.ifNotExists = ifNotExists;
+            this.hashCode = 31 * (31 * cfName.hashCode() + this.columns.hashCode()) + Boolean.hashCode(ifNotExists);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            Key other = (Key) o;
+            return ifNotExists == other.ifNotExists && cfName.equals(other.cfName) && columns.equals(other.columns);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
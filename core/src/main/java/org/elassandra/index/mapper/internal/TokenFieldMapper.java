@@ -20,6 +20,9 @@ import org.apache.lucene.document.SortedNumericDocValuesField;
 import org.apache.lucene.index.DocValuesType;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.SortedNumericSortField;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.mapper.EnabledAttributeMapper;
@@ -46,6 +49,16 @@ public class TokenFieldMapper extends MetadataFieldMapper {
 
     public static final String NAME = "_token";
     public static final String CONTENT_TYPE = "_token";
+    
+    /**
+     * Lucene index sort by _token when index.sort_by_token is true, documents without token sort first.
+     */
+    public static final Sort INDEX_SORT;
+    static {
+        SortedNumericSortField sortField = new SortedNumericSortField(NAME, SortField.Type.LONG);
+        sortField.setMissingValue(Long.MIN_VALUE);
+        INDEX_SORT = new Sort(sortField);
+    }
 
     public static class Defaults extends LegacyLongFieldMapper.Defaults {
         public static final String NAME = TokenFieldMapper.NAME;
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.index.search;
+
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.statements.ParsedStatement;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.mapper.DocumentMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-index cache of the prepared CQL statements used by the fetch phase, shared by all search requests.
+ * <p>
+ * Statements are keyed by type, static document flag, grouped read flag, required columns and {@link DocumentMapper} instance,
+ * so that a mapping update never reuses a statement built for a previous mapping. The cache is also cleared on mapping updates.
+ */
+public class FetchStatementCache extends AbstractIndexComponent implements Closeable {
+
+    private final ConcurrentMap<Key, ParsedStatement.Prepared> cache = new ConcurrentHashMap<>();
+    private final CounterMetric hitCount = new CounterMetric();
+    private final CounterMetric missCount = new CounterMetric();
+
+    public FetchStatementCache(IndexSettings indexSettings) {
+        super(indexSettings);
+    }
+
+    /**
+     * Returns the cached prepared statement, or prepare and cache the query provided by the querySupplier.
+     */
+    public ParsedStatement.Prepared getOrPrepare(DocumentMapper docMapper, boolean staticDocument, boolean batch, Set<String> columns,
+            CheckedSupplier<String, IOException> querySupplier) throws IOException {
+        Key key = new Key(docMapper, staticDocument, batch, columns);
+        ParsedStatement.Prepared prepared = cache.get(key);
+        if (prepared != null) {
+            hitCount.inc();
+            return prepared;
+        }
+        missCount.inc();
+        String query = querySupplier.get();
+        if (logger.isTraceEnabled())
+            logger.trace("new fetch statement={}", query);
+        prepared = QueryProcessor.prepareInternal(query);
+        ParsedStatement.Prepared previous = cache.putIfAbsent(key, prepared);
+        return (previous == null) ? prepared : previous;
+    }
+
+    public long hitCount() {
+        return hitCount.count();
+    }
+
+    public long missCount() {
+        return missCount.count();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear(String reason) {
+        if (logger.isDebugEnabled())
+            logger.debug("clearing {} fetch statements because [{}]", cache.size(), reason);
+        cache.clear();
+    }
+
+    @Override
+    public void close() {
+        clear("close");
+    }
+
+    private static class Key {
+        final DocumentMapper docMapper;
+        final boolean staticDocument;
+        final boolean batch;
+        final Set<String> columns;
+        final int hashCode;
+
+        Key(DocumentMapper docMapper, boolean staticDocument, boolean batch, Set<String> columns) {
+            this.docMapper = docMapper;
+            this.staticDocument = staticDocument;
+            this.batch = batch;
+            this.columns = Collections.unmodifiableSet(new TreeSet<>(columns));
+            int h = System.identityHashCode(docMapper);
+            h = 31 * h + Boolean.hashCode(staticDocument);
+            h = 31 * h + Boolean.hashCode(batch);
+            this.hashCode = 31 * h + this.columns.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            Key other = (Key) o;
+            return docMapper == other.docMapper && staticDocument == other.staticDocument && batch == other.batch && columns.equals(other.columns);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -19,6 +19,8 @@
 
 package org.elassandra.index.search;
 
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.util.Supplier;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
@@ -27,19 +29,33 @@ import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.BitDocIdSet;
 import org.apache.lucene.util.BitSet;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 import org.elasticsearch.index.AbstractIndexComponent;
 import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.IndexWarmer;
+import org.elasticsearch.index.IndexWarmer.TerminationHandle;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.shard.IndexShard;
 import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.threadpool.ThreadPool;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
 
 /**
- * This is a per-index cache for {@link BitDocIdSet} based filters and is unbounded by size or time.
+ * This is a per-index cache for {@link BitDocIdSet} based filters. Entries are removed when the token ranges query expires
+ * or when the segment is closed, and the least recently used bitsets of all indices are evicted by the {@link TokenRangesService}
+ * when the node-wide memory budget is exceeded.
  * <p>
  * Use this cache with care, only components that require that a filter is to be materialized as a {@link BitDocIdSet}
  * and require that it should always be around should use this cache, otherwise the
@@ -76,7 +92,11 @@ public class TokenRangesBitsetFilterCache extends AbstractIndexComponent impleme
     };
 
     private final TokenRangesService tokenRangesService;
-    private final Map<Query, TokenRangesBitsetProducer> perQueryBitsetCache = Collections.synchronizedMap(new WeakHashMap<Query,TokenRangesBitsetProducer>());
+    private final ConcurrentMap<Query, TokenRangesBitsetProducer> perQueryBitsetCache = ConcurrentCollections.newConcurrentMap();
+    private final CounterMetric hitCount = new CounterMetric();
+    private final CounterMetric missCount = new CounterMetric();
+    private final CounterMetric evictionCount = new CounterMetric();
+    private final CounterMetric cacheCount = new CounterMetric();
     protected volatile Listener listener = DEFAULT_NOOP_LISTENER;
     protected final ShardId shardId;
 
@@ -94,6 +114,112 @@ public class TokenRangesBitsetFilterCache extends AbstractIndexComponent impleme
         return p.getBitSet(context);
     }
     
+    void onHit() {
+        hitCount.inc();
+    }
+
+    void onMiss() {
+        missCount.inc();
+    }
+
+    void onCache(Accountable accountable) {
+        cacheCount.inc();
+        this.listener.onCache(shardId, accountable);
+        this.tokenRangesService.onBitsetCached(accountable.ramBytesUsed());
+    }
+
+    void onRemoval(Accountable accountable) {
+        cacheCount.dec();
+        this.listener.onRemoval(shardId, accountable);
+        this.tokenRangesService.onBitsetRemoved(accountable.ramBytesUsed());
+    }
+
+    void onEviction(Accountable accountable) {
+        evictionCount.inc();
+        onRemoval(accountable);
+    }
+
+    void collect(List<TokenRangesBitsetProducer.CachedBitset> cachedBitsets) {
+        for(TokenRangesBitsetProducer p : perQueryBitsetCache.values())
+            p.collect(cachedBitsets);
+    }
+
+    public long hitCount() {
+        return hitCount.count();
+    }
+
+    public long missCount() {
+        return missCount.count();
+    }
+
+    public long evictionCount() {
+        return evictionCount.count();
+    }
+
+    /**
+     * @return number of cached segment bitsets.
+     */
+    public long cacheCount() {
+        return cacheCount.count();
+    }
+
+    /**
+     * @return a warmer building the bitsets of new segments on refresh for, at most, the given number of most recently used queries.
+     */
+    public IndexWarmer.Listener createListener(ThreadPool threadPool, IntSupplier warmerSize) {
+        return new TokenRangesBitsetWarmer(threadPool, warmerSize);
+    }
+
+    final class TokenRangesBitsetWarmer implements IndexWarmer.Listener {
+
+        private final Executor executor;
+        private final IntSupplier warmerSize;
+
+        TokenRangesBitsetWarmer(ThreadPool threadPool, IntSupplier warmerSize) {
+            this.executor = threadPool.executor(ThreadPool.Names.WARMER);
+            this.warmerSize = warmerSize;
+        }
+
+        @Override
+        public IndexWarmer.TerminationHandle warmReader(final IndexShard indexShard, final Engine.Searcher searcher) {
+            if (indexSettings.getIndex().equals(indexShard.indexSettings().getIndex()) == false) {
+                // this is from a different index
+                return TerminationHandle.NO_WAIT;
+            }
+
+            final int size = warmerSize.getAsInt();
+            if (size <= 0 || perQueryBitsetCache.isEmpty()) {
+                return TerminationHandle.NO_WAIT;
+            }
+
+            final List<TokenRangesBitsetProducer> warmUp = perQueryBitsetCache.values().stream()
+                    .sorted(Comparator.comparingLong((TokenRangesBitsetProducer p) -> p.lastAccessTime).reversed())
+                    .limit(size)
+                    .collect(Collectors.toList());
+
+            final CountDownLatch latch = new CountDownLatch(searcher.reader().leaves().size() * warmUp.size());
+            for (final LeafReaderContext ctx : searcher.reader().leaves()) {
+                for (final TokenRangesBitsetProducer producer : warmUp) {
+                    executor.execute(() -> {
+                        try {
+                            final long start = System.nanoTime();
+                            ctx.reader().addCoreClosedListener(TokenRangesBitsetFilterCache.this);
+                            producer.warm(ctx);
+                            if (indexShard.warmerService().logger().isTraceEnabled()) {
+                                indexShard.warmerService().logger().trace("warmed token_ranges bitset for [{}], took [{}]", producer.getQuery(), TimeValue.timeValueNanos(System.nanoTime() - start));
+                            }
+                        } catch (Exception e) {
+                            indexShard.warmerService().logger().warn((Supplier<?>) () -> new ParameterizedMessage("failed to load token_ranges bitset for [{}]", producer.getQuery()), e);
+                        } finally {
+                            latch.countDown();
+                        }
+                    });
+                }
+            }
+            return () -> latch.await();
+        }
+    }
+
     /**
      * Sets a listener that is invoked for all subsequent cache and removal events.
      * @throws IllegalStateException if the listener is set more than once
@@ -130,10 +256,8 @@ public class TokenRangesBitsetFilterCache extends AbstractIndexComponent impleme
     @Override
     public void onRemoveQuery(Query query) {
         TokenRangesBitsetProducer producer = this.perQueryBitsetCache.remove(query);
-        if (producer != null) {
+        if (producer != null)
             producer.clear();
-            this.listener.onRemoval(shardId, producer);
-        }
         if (logger.isTraceEnabled())
             logger.trace("query={} removed, cache size={}", query, perQueryBitsetCache.size());
     }
@@ -147,9 +271,11 @@ public class TokenRangesBitsetFilterCache extends AbstractIndexComponent impleme
 
     public void clear(String reason) {
         logger.debug("clearing all bitsets because [{}]", reason);
-        for(TokenRangesBitsetProducer producer : this.perQueryBitsetCache.values())
-            this.listener.onRemoval(shardId, producer);
-        perQueryBitsetCache.clear();
+        for(Query query : this.perQueryBitsetCache.keySet()) {
+            TokenRangesBitsetProducer producer = this.perQueryBitsetCache.remove(query);
+            if (producer != null)
+                producer.clear();
+        }
     }
 
 }
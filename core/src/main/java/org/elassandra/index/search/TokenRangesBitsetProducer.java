@@ -15,19 +15,23 @@ import org.apache.lucene.search.Weight;
 import org.apache.lucene.search.join.BitSetProducer;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.BitSet;
+import org.apache.lucene.util.BitSetIterator;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.RamUsageEstimator;
 
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
 import java.io.IOException;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
 /**
  * A {@link BitSetProducer} that wraps a query and caches matching
- * {@link BitSet}s per segment.
+ * {@link BitSet}s per segment in a concurrent map, the RAM usage being bounded by
+ * the {@link TokenRangesService} LRU eviction.
  */
 public class TokenRangesBitsetProducer implements BitSetProducer, Accountable {
     private static final Logger logger = LogManager.getLogger(TokenRangesBitsetProducer.class);
@@ -40,12 +44,14 @@ public class TokenRangesBitsetProducer implements BitSetProducer, Accountable {
      * 2; // hash tables need to be oversized to avoid collisions, assume 2x capacity
 
     static class Value implements Accountable {
-        int tombestones;
-        BitSet bitset;
+        final int tombestones;
+        final BitSet bitset;
+        volatile long lastAccessTime;  // for LRU eviction
         
         Value(int tombestones, BitSet bitset) {
             this.tombestones = tombestones;
             this.bitset = bitset;
+            this.lastAccessTime = System.nanoTime();
         }
 
         @Override
@@ -59,9 +65,37 @@ public class TokenRangesBitsetProducer implements BitSetProducer, Accountable {
         }
   }
   
+  /**
+   * A cached segment bitset, candidate for eviction.
+   */
+  final class CachedBitset {
+      final Object coreCacheKey;
+      final Value value;
+      final long lastAccessTime;
+      
+      CachedBitset(Object coreCacheKey, Value value) {
+          this.coreCacheKey = coreCacheKey;
+          this.value = value;
+          this.lastAccessTime = value.lastAccessTime;
+      }
+      
+      /**
+       * Remove the bitset if not already replaced or removed.
+       * @return the number of released bytes.
+       */
+      long evict() {
+          if (leafCache.remove(coreCacheKey, value)) {
+              bitsetFilterCache.onEviction(value);
+              return value.ramBytesUsed();
+          }
+          return 0;
+      }
+  }
+  
   private final TokenRangesBitsetFilterCache bitsetFilterCache;
   private final Query query;
-  private final Map<Object,Value> leafCache;
+  private final ConcurrentMap<Object,Value> leafCache = ConcurrentCollections.newConcurrentMap();
+  volatile long lastAccessTime = System.nanoTime();  // for warming the most recently used queries
 
   
   /** Wraps another query's result and caches it into bitsets.
@@ -70,9 +104,6 @@ public class TokenRangesBitsetProducer implements BitSetProducer, Accountable {
   public TokenRangesBitsetProducer(TokenRangesBitsetFilterCache bitsetFilterCache, Query query) {
     this.bitsetFilterCache = bitsetFilterCache;
     this.query = query;
-    this.leafCache = Collections.synchronizedMap(new WeakHashMap<Object,Value>());
-                    //new ConcurrentReferenceHashMap<Object,Value>(10, 0.9f, 1, ReferenceType.WEAK);
-    this.bitsetFilterCache.listener.onCache(this.bitsetFilterCache.shardId, this);
   }
 
   /**
@@ -88,13 +119,21 @@ public class TokenRangesBitsetProducer implements BitSetProducer, Accountable {
           logger.trace("query={} coreCacheKey={} removed", query, coreCacheKey);
       Value value = leafCache.remove(coreCacheKey);
       if (value != null) 
-          this.bitsetFilterCache.listener.onRemoval(this.bitsetFilterCache.shardId, value);
+          this.bitsetFilterCache.onRemoval(value);
   }
   
   public void clear() {
-      for(Value value : leafCache.values())
-          this.bitsetFilterCache.listener.onRemoval(this.bitsetFilterCache.shardId, value);
-      leafCache.clear();
+      for(Object coreCacheKey : leafCache.keySet())
+          remove(coreCacheKey);
+  }
+  
+  public int size() {
+      return leafCache.size();
+  }
+  
+  void collect(List<CachedBitset> cachedBitsets) {
+      for(Map.Entry<Object, Value> entry : leafCache.entrySet())
+          cachedBitsets.add(new CachedBitset(entry.getKey(), entry.getValue()));
   }
   
   @Override
@@ -102,50 +141,76 @@ public class TokenRangesBitsetProducer implements BitSetProducer, Accountable {
     final LeafReader reader = context.reader();
     final Object key = reader.getCoreCacheKey();
 
+    this.lastAccessTime = System.nanoTime();
     Value value = leafCache.get(key);
-    BitSet bitset = value == null ? null : value.bitset;
-    if (value == null || value.tombestones < reader.numDeletedDocs()) {
-      final IndexReaderContext topLevelContext = ReaderUtil.getTopLevelContext(context);
-      final IndexSearcher searcher = new IndexSearcher(topLevelContext);
-      searcher.setQueryCache(null);
-      final Weight weight = searcher.createNormalizedWeight(query, false);
-      final Scorer s = weight.scorer(context);
-      int tombestones = 0;
-      if (s != null) {
-          final DocIdSetIterator it = s.iterator();
-          final Bits liveDocs = reader.getLiveDocs();
-          if (liveDocs == null) {
-              // visible docs = query result
-              bitset = BitSet.of(it, reader.maxDoc());
-              if (logger.isTraceEnabled())
-                  logger.trace("no tombstone, query={} coreCacheKey={} segment={} cardinality={}", query, key, reader, bitset.cardinality());
-          } else  {
-              // visible docs = query result AND liveDocs.
-              tombestones = reader.numDeletedDocs();
-              DocIdSetIterator fit = new FilteredDocIdSetIterator(it) {
-                @Override
-                protected boolean match(int doc) {
-                    return liveDocs.get(doc);
-                }
-              };
-              bitset = BitSet.of(fit, reader.maxDoc());
-              if (logger.isTraceEnabled())
-                  logger.trace("has tombstones, query={} coreCacheKey={} segment={} cardinality={}", query, key, reader, bitset.cardinality());
-          }
-      } else {
-           bitset = null; // no visible docs.
-           if (logger.isTraceEnabled())
-              logger.trace("no matching doc, query={} coreCacheKey={} segment={} cardinality=0 ", query, key, reader);
-      }
-      Value newValue = new Value(tombestones, bitset);
-      Value oldValue = leafCache.put(key, newValue);
-      if (oldValue != null)
-          this.bitsetFilterCache.listener.onRemoval(this.bitsetFilterCache.shardId, oldValue);
-      this.bitsetFilterCache.listener.onCache(this.bitsetFilterCache.shardId, newValue);
+    if (value != null && value.tombestones >= reader.numDeletedDocs()) {
+      value.lastAccessTime = this.lastAccessTime;
+      this.bitsetFilterCache.onHit();
+      return value.bitset;
     }
+    
+    this.bitsetFilterCache.onMiss();
+    return load(context, value);
+  }
+  
+  /**
+   * Build and cache the bitset of a segment if not already cached, without accounting a cache hit or miss.
+   */
+  void warm(LeafReaderContext context) throws IOException {
+    final LeafReader reader = context.reader();
+    Value value = leafCache.get(reader.getCoreCacheKey());
+    if (value == null || value.tombestones < reader.numDeletedDocs())
+        load(context, value);
+  }
+  
+  private BitSet load(LeafReaderContext context, Value value) throws IOException {
+    final LeafReader reader = context.reader();
+    final Object key = reader.getCoreCacheKey();
+    final Bits liveDocs = reader.getLiveDocs();
+    final int tombestones = (liveDocs == null) ? 0 : reader.numDeletedDocs();
+    BitSet bitset;
+    if (value != null) {
+        // new tombstones since the bitset was cached, filter the cached bitset with liveDocs rather than re-running the query.
+        // The cached bitset is copied because it may still be used by a searcher on a previous reader of the same segment.
+        bitset = (value.bitset == null) ? null : BitSet.of(filterLiveDocs(new BitSetIterator(value.bitset, value.bitset.approximateCardinality()), liveDocs), reader.maxDoc());
+        if (logger.isTraceEnabled())
+            logger.trace("new tombstones={}, query={} coreCacheKey={} segment={} cardinality={}", tombestones - value.tombestones, query, key, reader, bitset == null ? 0 : bitset.cardinality());
+    } else {
+        final IndexReaderContext topLevelContext = ReaderUtil.getTopLevelContext(context);
+        final IndexSearcher searcher = new IndexSearcher(topLevelContext);
+        searcher.setQueryCache(null);
+        final Weight weight = searcher.createNormalizedWeight(query, false);
+        final Scorer s = weight.scorer(context);
+        if (s != null) {
+            // visible docs = query result AND liveDocs.
+            bitset = BitSet.of(filterLiveDocs(s.iterator(), liveDocs), reader.maxDoc());
+            if (logger.isTraceEnabled())
+                logger.trace("tombstones={}, query={} coreCacheKey={} segment={} cardinality={}", tombestones, query, key, reader, bitset.cardinality());
+        } else {
+             bitset = null; // no visible docs.
+             if (logger.isTraceEnabled())
+                logger.trace("no matching doc, query={} coreCacheKey={} segment={} cardinality=0 ", query, key, reader);
+        }
+    }
+    Value newValue = new Value(tombestones, bitset);
+    Value oldValue = leafCache.put(key, newValue);
+    if (oldValue != null)
+        this.bitsetFilterCache.onRemoval(oldValue);
+    this.bitsetFilterCache.onCache(newValue);
     return bitset;
   }
   
+  private static DocIdSetIterator filterLiveDocs(DocIdSetIterator it, Bits liveDocs) {
+      if (liveDocs == null)
+          return it;
+      return new FilteredDocIdSetIterator(it) {
+          @Override
+          protected boolean match(int doc) {
+              return liveDocs.get(doc);
+          }
+      };
+  }
+  
   @Override
   public String toString() {
     return "TokenRangesBitsetProducer("+query.toString()+":"+leafCache+")";
@@ -2,11 +2,19 @@ package org.elassandra.index.search;
 
 import java.io.IOException;
 
+import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.FilterDirectoryReader;
 import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.PointValues.Relation;
 import org.apache.lucene.search.Query;
+import org.elassandra.index.mapper.internal.TokenFieldMapper;
 
+/**
+ * Filter the documents of each segment with the token ranges query. Segments having all their tokens in the requested ranges
+ * are not wrapped, and segments having no token in the ranges expose no document, according to the _token points min and max values.
+ */
 public class TokenRangesDirectoryReader extends FilterDirectoryReader {
     final Query query;
     final TokenRangesBitsetFilterCache cache;
@@ -16,7 +24,14 @@ public class TokenRangesDirectoryReader extends FilterDirectoryReader {
             @Override
             public LeafReader wrap(LeafReader reader) {
                 try {
-                    return new TokenRangesLeafReader(in, reader, query, cache);
+                    switch (relate(reader, query)) {
+                    case CELL_INSIDE_QUERY:
+                        return reader;
+                    case CELL_OUTSIDE_QUERY:
+                        return new TokenRangesLeafReader(reader);
+                    default:
+                        return new TokenRangesLeafReader(in, reader, query, cache);
+                    }
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -35,4 +50,24 @@ public class TokenRangesDirectoryReader extends FilterDirectoryReader {
     public Object getCoreCacheKey() {
         return in.getCoreCacheKey();
     }
+    
+    /**
+     * @return the relation between the segment _token min and max values and the token ranges, or CELL_CROSSES_QUERY
+     * when the query is not a single token ranges filter.
+     */
+    static Relation relate(LeafReader reader, Query query) throws IOException {
+        final TokenRangesQuery tokenRangesQuery = TokenRangesLeafReader.tokenRangesQuery(query);
+        if (tokenRangesQuery == null)
+            return Relation.CELL_CROSSES_QUERY;
+        final PointValues values = reader.getPointValues(TokenFieldMapper.NAME);
+        if (values == null)
+            return Relation.CELL_OUTSIDE_QUERY;
+        final Relation relation = tokenRangesQuery.relate(
+                LongPoint.decodeDimension(values.getMinPackedValue(), 0),
+                LongPoint.decodeDimension(values.getMaxPackedValue(), 0));
+        // documents without token never match
+        if (relation == Relation.CELL_INSIDE_QUERY && values.getDocCount() < reader.maxDoc())
+            return Relation.CELL_CROSSES_QUERY;
+        return relation;
+    }
 }
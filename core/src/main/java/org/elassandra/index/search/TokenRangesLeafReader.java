@@ -1,18 +1,26 @@
 package org.elassandra.index.search;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.FilterLeafReader;
 import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.util.BitSet;
 import org.apache.lucene.util.Bits;
+import org.elassandra.index.mapper.internal.TokenFieldMapper;
 import org.elasticsearch.common.lucene.index.ElasticsearchDirectoryReader;
 
 /**
- * Per request LeafReader using cached token ranges bitset filter.
+ * Per request LeafReader using cached token ranges bitset filter, or contiguous document id ranges
+ * when the segment is sorted by _token.
  */
 public class TokenRangesLeafReader extends FilterLeafReader {
 
@@ -22,11 +30,24 @@ public class TokenRangesLeafReader extends FilterLeafReader {
      */
     private volatile int numDocs = -1;
     private final BitSet mask;
+    private final DocIdRanges docIdRanges;
     private final boolean hasDeletions;
     private final Bits noBitMatch;
     
     public TokenRangesLeafReader(DirectoryReader directoryReader, LeafReader in, Query query, TokenRangesBitsetFilterCache cache) throws IOException {
         super(in);
+        final TokenRangesQuery tokenRangesQuery = tokenRangesQuery(query);
+        if (tokenRangesQuery != null && TokenFieldMapper.INDEX_SORT.equals(in.getIndexSort())) {
+            // binary search the token doc values, no bitset to build nor to cache.
+            this.docIdRanges = new DocIdRanges(in, tokenRangesQuery);
+            this.mask = null;
+            this.noBitMatch = null;
+            this.hasDeletions = docIdRanges.count < in.maxDoc() || in.hasDeletions();
+            if (!in.hasDeletions())
+                numDocs = docIdRanges.count;
+            return;
+        }
+        this.docIdRanges = null;
         try {
             in.addCoreClosedListener(cache);
             ElasticsearchDirectoryReader.addReaderCloseListener(directoryReader, cache);
@@ -46,9 +67,23 @@ public class TokenRangesLeafReader extends FilterLeafReader {
         }
     }
 
+    /**
+     * A leaf reader exposing no live document, for segments having no token in the requested ranges.
+     */
+    TokenRangesLeafReader(LeafReader in) {
+        super(in);
+        this.numDocs = 0;
+        this.mask = null;
+        this.docIdRanges = null;
+        this.hasDeletions = true;
+        this.noBitMatch = new Bits.MatchNoBits(in.maxDoc());
+    }
+
     /** Returns the number of documents in this index. */
     @Override
     public int numDocs() {
+        if (numDocs == -1)
+            numDocs = docIdRanges.liveCount();
         return numDocs;
     }
     
@@ -74,6 +109,8 @@ public class TokenRangesLeafReader extends FilterLeafReader {
     public Bits getLiveDocs() {
         if (!hasDeletions)
             return null;
+        if (docIdRanges != null)
+            return docIdRanges;
         return (mask == null)  ? noBitMatch : mask;
     }
     
@@ -89,5 +126,107 @@ public class TokenRangesLeafReader extends FilterLeafReader {
       buffer.append(')');
       return buffer.toString();
     }
+    
+    /**
+     * @return the {@link TokenRangesQuery} if the query is a single token ranges filter, or null.
+     */
+    static TokenRangesQuery tokenRangesQuery(Query query) {
+        if (query instanceof TokenRangesQuery)
+            return (TokenRangesQuery) query;
+        if (query instanceof BooleanQuery && ((BooleanQuery) query).clauses().size() == 1) {
+            BooleanClause clause = ((BooleanQuery) query).clauses().get(0);
+            if (clause.getOccur() == Occur.FILTER && clause.getQuery() instanceof TokenRangesQuery)
+                return (TokenRangesQuery) clause.getQuery();
+        }
+        return null;
+    }
+    
+    /**
+     * Live documents of a segment sorted by _token matching the token ranges, as sorted disjoint [start, end) document id ranges.
+     */
+    static final class DocIdRanges implements Bits {
+        private final int[] starts;
+        private final int[] ends;
+        private final Bits liveDocs;
+        private final int maxDoc;
+        final int count;    // number of documents in ranges, including deleted ones.
+        
+        DocIdRanges(LeafReader reader, TokenRangesQuery query) throws IOException {
+            final SortedNumericDocValues tokens = DocValues.getSortedNumeric(reader, TokenFieldMapper.NAME);
+            this.maxDoc = reader.maxDoc();
+            this.liveDocs = reader.getLiveDocs();
+            int[] starts = new int[query.size()];
+            int[] ends = new int[query.size()];
+            int size = 0, count = 0;
+            // skip documents without token, sorted first with Long.MIN_VALUE which is not a valid Murmur3 token.
+            int from = firstDocAbove(tokens, 0, Long.MIN_VALUE);
+            for (int i = 0; i < query.size() && from < maxDoc; i++) {
+                int start = (query.lower(i) == Long.MIN_VALUE) ? from : firstDocAbove(tokens, from, query.lower(i) - 1);
+                int end = (query.upper(i) == Long.MAX_VALUE) ? maxDoc : firstDocAbove(tokens, start, query.upper(i));
+                if (start < end) {
+                    starts[size] = start;
+                    ends[size] = end;
+                    count += end - start;
+                    size++;
+                }
+                from = end;
+            }
+            this.starts = Arrays.copyOf(starts, size);
+            this.ends = Arrays.copyOf(ends, size);
+            this.count = count;
+        }
+        
+        /**
+         * @return the first document in [from, maxDoc) with a token strictly greater than value, or maxDoc.
+         */
+        private int firstDocAbove(SortedNumericDocValues tokens, int from, long value) {
+            int lo = from, hi = maxDoc - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (token(tokens, mid) <= value)
+                    lo = mid + 1;
+                else
+                    hi = mid - 1;
+            }
+            return lo;
+        }
+        
+        private static long token(SortedNumericDocValues tokens, int doc) {
+            // documents without token sort first, see TokenFieldMapper.INDEX_SORT
+            tokens.setDocument(doc);
+            return (tokens.count() == 0) ? Long.MIN_VALUE : tokens.valueAt(0);
+        }
+        
+        int liveCount() {
+            if (liveDocs == null)
+                return count;
+            int live = 0;
+            for (int i = 0; i < starts.length; i++)
+                for (int doc = starts[i]; doc < ends[i]; doc++)
+                    if (liveDocs.get(doc))
+                        live++;
+            return live;
+        }
+        
+        @Override
+        public boolean get(int index) {
+            int lo = 0, hi = starts.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] > index)
+                    hi = mid - 1;
+                else if (ends[mid] <= index)
+                    lo = mid + 1;
+                else
+                    return liveDocs == null || liveDocs.get(index);
+            }
+            return false;
+        }
+        
+        @Override
+        public int length() {
+            return maxDoc;
+        }
+    }
 
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.index.search;
+
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.PointValues.IntersectVisitor;
+import org.apache.lucene.index.PointValues.Relation;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.DocIdSetBuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Matches documents having a long point value in any of a set of inclusive ranges, with a single traversal of the points tree
+ * per segment instead of one range query per token range in a boolean disjunction.
+ * <p>
+ * Ranges are sorted and merged at construction time, so that two queries on the same token ranges are equal
+ * and share the same cache entries.
+ */
+public final class TokenRangesQuery extends Query {
+
+    private final String field;
+    private final long[] lowers;   // inclusive, sorted, non-overlapping
+    private final long[] uppers;   // inclusive
+
+    /**
+     * @param lowers inclusive lower bounds
+     * @param uppers inclusive upper bounds, a range with an upper bound lower than its lower bound is empty.
+     */
+    public TokenRangesQuery(String field, long[] lowers, long[] uppers) {
+        if (lowers.length != uppers.length)
+            throw new IllegalArgumentException("lowers and uppers must have the same length");
+        this.field = Objects.requireNonNull(field);
+
+        Integer[] order = new Integer[lowers.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (i, j) -> Long.compare(lowers[i], lowers[j]));
+
+        long[] mergedLowers = new long[lowers.length];
+        long[] mergedUppers = new long[lowers.length];
+        int size = 0;
+        for (int i : order) {
+            if (uppers[i] < lowers[i])
+                continue;
+            // merge overlapping or adjacent ranges.
+            if (size > 0 && (mergedUppers[size - 1] == Long.MAX_VALUE || lowers[i] <= mergedUppers[size - 1] + 1)) {
+                mergedUppers[size - 1] = Math.max(mergedUppers[size - 1], uppers[i]);
+            } else {
+                mergedLowers[size] = lowers[i];
+                mergedUppers[size] = uppers[i];
+                size++;
+            }
+        }
+        this.lowers = Arrays.copyOf(mergedLowers, size);
+        this.uppers = Arrays.copyOf(mergedUppers, size);
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public int size() {
+        return lowers.length;
+    }
+
+    /** @return inclusive lower bound of the i-th range, ranges are sorted and disjoint. */
+    public long lower(int i) {
+        return lowers[i];
+    }
+
+    /** @return inclusive upper bound of the i-th range. */
+    public long upper(int i) {
+        return uppers[i];
+    }
+
+    /**
+     * @return index of the first range having an upper bound greater or equal to value, or the number of ranges.
+     */
+    private int firstRangeUpTo(long value) {
+        int lo = 0, hi = uppers.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (uppers[mid] < value)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private boolean matches(long value) {
+        int i = firstRangeUpTo(value);
+        return i < lowers.length && lowers[i] <= value;
+    }
+
+    Relation relate(long min, long max) {
+        int i = firstRangeUpTo(min);
+        if (i == lowers.length || lowers[i] > max)
+            return Relation.CELL_OUTSIDE_QUERY;
+        if (lowers[i] <= min && uppers[i] >= max)
+            return Relation.CELL_INSIDE_QUERY;
+        return Relation.CELL_CROSSES_QUERY;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        return new ConstantScoreWeight(this) {
+
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                final LeafReader reader = context.reader();
+                final PointValues values = reader.getPointValues(field);
+                if (values == null || lowers.length == 0)
+                    return null;
+                if (values.getNumDimensions() != 1 || values.getBytesPerDimension() != Long.BYTES)
+                    throw new IllegalArgumentException("field=[" + field + "] is not indexed as a long point");
+
+                final DocIdSetIterator iterator;
+                if (values.getDocCount() == reader.maxDoc()
+                        && relate(LongPoint.decodeDimension(values.getMinPackedValue(), 0),
+                                  LongPoint.decodeDimension(values.getMaxPackedValue(), 0)) == Relation.CELL_INSIDE_QUERY) {
+                    // all documents of the segment match.
+                    iterator = DocIdSetIterator.all(reader.maxDoc());
+                } else {
+                    final DocIdSetBuilder result = new DocIdSetBuilder(reader.maxDoc(), values, field);
+                    values.intersect(new IntersectVisitor() {
+                        DocIdSetBuilder.BulkAdder adder;
+
+                        @Override
+                        public void grow(int count) {
+                            adder = result.grow(count);
+                        }
+
+                        @Override
+                        public void visit(int docID) {
+                            adder.add(docID);
+                        }
+
+                        @Override
+                        public void visit(int docID, byte[] packedValue) {
+                            if (matches(LongPoint.decodeDimension(packedValue, 0)))
+                                adder.add(docID);
+                        }
+
+                        @Override
+                        public Relation compare(byte[] minPackedValue, byte[] maxPackedValue) {
+                            return relate(LongPoint.decodeDimension(minPackedValue, 0), LongPoint.decodeDimension(maxPackedValue, 0));
+                        }
+                    });
+                    iterator = result.build().iterator();
+                }
+                return new ConstantScoreScorer(this, score(), iterator);
+            }
+        };
+    }
+
+    @Override
+    public String toString(String defaultField) {
+        StringBuilder sb = new StringBuilder();
+        if (!field.equals(defaultField))
+            sb.append(field).append(':');
+        sb.append('{');
+        for (int i = 0; i < lowers.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append('[').append(lowers[i]).append(" TO ").append(uppers[i]).append(']');
+        }
+        return sb.append('}').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (sameClassAs(o) == false)
+            return false;
+        TokenRangesQuery that = (TokenRangesQuery) o;
+        return field.equals(that.field) && Arrays.equals(lowers, that.lowers) && Arrays.equals(uppers, that.uppers);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(), field, Arrays.hashCode(lowers), Arrays.hashCode(uppers));
+    }
+}
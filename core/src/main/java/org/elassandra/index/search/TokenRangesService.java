@@ -7,8 +7,6 @@ import com.google.common.cache.RemovalNotification;
 
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
-import org.apache.lucene.search.BooleanClause.Occur;
-import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.elassandra.cluster.routing.AbstractSearchStrategy;
 import org.elassandra.index.mapper.internal.TokenFieldMapper;
@@ -16,21 +14,35 @@ import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.component.AbstractComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.MemorySizeValue;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.index.mapper.NumberFieldMapper;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TokenRangesService extends AbstractComponent {
 
     Queue<TokenRangesQueryListener> tokenRangesQueryListeners = new ConcurrentLinkedQueue<TokenRangesQueryListener>();
 
+    // node-wide memory budget of cached token_ranges bitsets.
+    private final long bitsetCacheMaxBytes;
+    private final AtomicLong bitsetCacheBytes = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    
     @Inject
     public TokenRangesService(Settings settings) {
         super(settings);
+        this.bitsetCacheMaxBytes = MemorySizeValue.parseBytesSizeValueOrHeapRatio(
+                System.getProperty(ClusterService.SETTING_SYSTEM_TOKEN_BITSET_CACHE_SIZE, "10%"), 
+                ClusterService.SETTING_SYSTEM_TOKEN_BITSET_CACHE_SIZE).getBytes();
     }
     
     public interface TokenRangesQueryListener {
@@ -45,6 +57,55 @@ public class TokenRangesService extends AbstractComponent {
         tokenRangesQueryListeners.remove(listener);
     }
     
+    public long bitsetCacheMaxBytes() {
+        return bitsetCacheMaxBytes;
+    }
+    
+    /**
+     * @return memory used by cached token_ranges bitsets of all indices.
+     */
+    public long bitsetCacheBytes() {
+        return bitsetCacheBytes.get();
+    }
+    
+    void onBitsetCached(long ramBytesUsed) {
+        if (bitsetCacheBytes.addAndGet(ramBytesUsed) > bitsetCacheMaxBytes)
+            evictBitsets();
+    }
+    
+    void onBitsetRemoved(long ramBytesUsed) {
+        bitsetCacheBytes.addAndGet(-ramBytesUsed);
+    }
+    
+    /**
+     * Evict the least recently used bitsets of all indices until the memory usage drops under 90% of the budget.
+     * Only one thread evicts at a time, others go on without waiting.
+     */
+    void evictBitsets() {
+        if (!evicting.compareAndSet(false, true))
+            return;
+        try {
+            List<TokenRangesBitsetProducer.CachedBitset> cachedBitsets = new ArrayList<>();
+            for(TokenRangesQueryListener listener : tokenRangesQueryListeners)
+                if (listener instanceof TokenRangesBitsetFilterCache)
+                    ((TokenRangesBitsetFilterCache) listener).collect(cachedBitsets);
+            cachedBitsets.sort(Comparator.comparingLong(c -> c.lastAccessTime));
+            
+            final long target = bitsetCacheMaxBytes / 10 * 9;
+            int evicted = 0;
+            for(TokenRangesBitsetProducer.CachedBitset cachedBitset : cachedBitsets) {
+                if (bitsetCacheBytes.get() <= target)
+                    break;
+                if (cachedBitset.evict() > 0)
+                    evicted++;
+            }
+            if (logger.isDebugEnabled())
+                logger.debug("evicted {}/{} token_ranges bitsets, memory used={} max={}", evicted, cachedBitsets.size(), bitsetCacheBytes.get(), bitsetCacheMaxBytes);
+        } finally {
+            evicting.set(false);
+        }
+    }
+    
     Cache<Collection<Range<Token>>, Query> tokenRangesQueryCache = CacheBuilder.newBuilder()
             .concurrencyLevel(EsExecutors.boundedNumberOfProcessors(settings))
             .expireAfterAccess(Integer.getInteger(ClusterService.SETTING_SYSTEM_TOKEN_RANGES_QUERY_EXPIRE, 5), TimeUnit.MINUTES)
@@ -76,7 +137,7 @@ public class TokenRangesService extends AbstractComponent {
                     }
                     tokenRangesQuery = tokenRangesQueryCache.getIfPresent(tokenRanges);
                     if (tokenRangesQuery == null) {
-                        tokenRangesQuery = newNumericRangesQuery(unique_range);
+                        tokenRangesQuery = newTokenRangesQuery(tokenRanges);
                         tokenRangesQueryCache.put(tokenRanges, tokenRangesQuery);
                     }
                     if (logger.isTraceEnabled())
@@ -85,15 +146,12 @@ public class TokenRangesService extends AbstractComponent {
                 default:
                     tokenRangesQuery = tokenRangesQueryCache.getIfPresent(tokenRanges);
                     if (tokenRangesQuery == null) {
-                        BooleanQuery.Builder bq2 = new BooleanQuery.Builder();
                         boolean hasSingleton = false;
                         for (Range<Token> range : tokenRanges) {
-                            bq2.add(newNumericRangesQuery(range), Occur.SHOULD);
                             if (range.left.equals(range.right))
                                 hasSingleton = true;
                         }
-                        bq2.setMinimumNumberShouldMatch(1);
-                        tokenRangesQuery = bq2.build();
+                        tokenRangesQuery = newTokenRangesQuery(tokenRanges);
                         if (!hasSingleton)
                             tokenRangesQueryCache.put(tokenRanges, tokenRangesQuery);
                     }
@@ -105,15 +163,22 @@ public class TokenRangesService extends AbstractComponent {
         return null;
     }
     
-    Query newNumericRangesQuery(Range<Token> range) {
-        Long left =  (Long) range.left.getTokenValue();
-        Long right = (Long) range.right.getTokenValue();
-        return (left.equals(right)) ?
-            NumberFieldMapper.NumberType.LONG.termQuery(TokenFieldMapper.NAME,left) :
-            NumberFieldMapper.NumberType.LONG.rangeQuery(TokenFieldMapper.NAME, 
-                left == Long.MIN_VALUE ? null : left,
-                right == Long.MAX_VALUE ? null : right,
-                false, true, true);
+    /**
+     * Build a {@link TokenRangesQuery} matching all token ranges (left exclusive, right inclusive) in a single points tree traversal.
+     * A range with equal bounds matches a single token.
+     */
+    Query newTokenRangesQuery(Collection<Range<Token>> tokenRanges) {
+        final long[] lowers = new long[tokenRanges.size()];
+        final long[] uppers = new long[tokenRanges.size()];
+        int i = 0;
+        for (Range<Token> range : tokenRanges) {
+            long left =  (Long) range.left.getTokenValue();
+            long right = (Long) range.right.getTokenValue();
+            lowers[i] = (left == right || left == Long.MIN_VALUE) ? left : left + 1;
+            uppers[i] = right;
+            i++;
+        }
+        return new TokenRangesQuery(TokenFieldMapper.NAME, lowers, uppers);
     }
     
     public static boolean tokenRangesIntersec(Collection<Range<Token>> shardTokenRanges, Range<Token> requestTokenRange) {
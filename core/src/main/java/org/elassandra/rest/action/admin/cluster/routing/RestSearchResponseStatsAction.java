@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.rest.action.admin.cluster.routing;
+
+import org.elassandra.cluster.routing.SearchResponseStats;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestStatus.OK;
+
+/**
+ * Returns the per-node search response time, in-flight requests and weight seen by the coordinating node,
+ * as used by the adaptive search strategy.
+ */
+public class RestSearchResponseStatsAction extends BaseRestHandler {
+
+    @Inject
+    public RestSearchResponseStatsAction(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(GET, "/_search_strategy/stats", this);
+    }
+
+    @Override
+    public RestChannelConsumer prepareRequest(final RestRequest request, final NodeClient client) {
+        return channel -> {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            SearchResponseStats.instance.toXContent(builder, request);
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(OK, builder));
+        };
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.util;
+
+import org.elasticsearch.cluster.service.ClusterService;
+
+/**
+ * Elassandra counters of the search, indexing and segments stats are serialized between nodes only when the
+ * es.stats_extensions system property is true. They cannot be gated on the elasticsearch transport version,
+ * so this must be enabled on all nodes, once they all run the current version.
+ */
+public final class StatsExtensions {
+
+    public static final boolean ENABLED = Boolean.getBoolean(ClusterService.SETTING_SYSTEM_STATS_EXTENSIONS);
+
+    private StatsExtensions() {
+    }
+}
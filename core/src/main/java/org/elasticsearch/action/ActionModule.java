@@ -26,6 +26,7 @@ import org.elassandra.action.admin.indices.rebuild.RebuildAction;
 import org.elassandra.action.admin.indices.rebuild.TransportRebuildAction;
 import org.elassandra.action.admin.indices.reload.ReloadAction;
 import org.elassandra.action.admin.indices.reload.TransportReloadAction;
+import org.elassandra.rest.action.admin.cluster.routing.RestSearchResponseStatsAction;
 import org.elassandra.rest.action.admin.indices.cleanup.RestCleanupAction;
 import org.elassandra.rest.action.admin.indices.rebuild.RestRebuildAction;
 import org.elassandra.rest.action.admin.indices.reload.RestReloadAction;
@@ -538,6 +539,7 @@ public class ActionModule extends AbstractModule {
         registerHandler.accept(new RestRebuildAction(settings, restController));
         registerHandler.accept(new RestReloadAction(settings, restController));
         registerHandler.accept(new RestCleanupAction(settings, restController));
+        registerHandler.accept(new RestSearchResponseStatsAction(settings, restController));
         
         
         registerHandler.accept(new RestGetIndicesAction(settings, restController, indexScopedSettings, settingsFilter));
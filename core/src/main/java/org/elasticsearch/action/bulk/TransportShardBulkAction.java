@@ -66,7 +66,12 @@ import org.elasticsearch.transport.TransportRequestOptions;
 import org.elasticsearch.transport.TransportService;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /** Performs shard-level bulk (index, delete or update) operations */
 public class TransportShardBulkAction extends TransportWriteAction<BulkShardRequest, BulkShardRequest, BulkShardResponse> {
@@ -116,9 +121,18 @@ public class TransportShardBulkAction extends TransportWriteAction<BulkShardRequ
         long[] preVersions = new long[request.items().length];
         VersionType[] preVersionTypes = new VersionType[request.items().length];
         Translog.Location location = null;
+        final boolean partitionBatch = primary.indexService().isBulkPartitionBatchEnabled();
+        final List<Integer> deferredItems = new ArrayList<>();
+        final List<ClusterService.DocumentWrite> deferredWrites = new ArrayList<>();
+        final ClusterService.DocumentWrite[] preparedWrites = prepareBulkWritesOnPrimary(metaData, primary, request);
         for (int requestIndex = 0; requestIndex < request.items().length; requestIndex++) {
-            location = executeBulkItemRequest(metaData, primary, request, preVersions, preVersionTypes, location, requestIndex);
+            if (partitionBatch && deferIndexRequest(metaData, primary, request, preVersions, preVersionTypes, requestIndex, preparedWrites[requestIndex], deferredItems, deferredWrites))
+                continue;
+            // apply deferred writes first to preserve the bulk order.
+            applyDeferredWrites(primary, request, deferredItems, deferredWrites);
+            location = executeBulkItemRequest(metaData, primary, request, preVersions, preVersionTypes, location, requestIndex, preparedWrites[requestIndex]);
         }
+        applyDeferredWrites(primary, request, deferredItems, deferredWrites);
 
         BulkItemResponse[] responses = new BulkItemResponse[request.items().length];
         BulkItemRequest[] items = request.items();
@@ -129,11 +143,68 @@ public class TransportShardBulkAction extends TransportWriteAction<BulkShardRequ
         return new WritePrimaryResult<>(request, response, location, null, primary, logger);
     }
 
+    /**
+     * Prepares the Cassandra writes of the index requests before executing any item, so that the dynamic mapping updates
+     * of all items are merged into a single mapping update per type, rather than one cluster state update and CQL schema
+     * change per document.
+     * @return the prepared writes by item, null for items to prepare when executed.
+     */
+    private ClusterService.DocumentWrite[] prepareBulkWritesOnPrimary(IndexMetaData metaData, IndexShard primary, BulkShardRequest request) {
+        final ClusterService.DocumentWrite[] writes = new ClusterService.DocumentWrite[request.items().length];
+        final Map<String, Mapping> mappingUpdates = new LinkedHashMap<>();
+        for (int requestIndex = 0; requestIndex < writes.length; requestIndex++) {
+            final DocWriteRequest itemRequest = request.items()[requestIndex].request();
+            if (itemRequest.opType() != DocWriteRequest.OpType.INDEX && itemRequest.opType() != DocWriteRequest.OpType.CREATE)
+                continue;
+            final IndexRequest indexRequest = (IndexRequest) itemRequest;
+            try {
+                writes[requestIndex] = clusterService.prepareDocumentWrite(indicesService, indexRequest, metaData, true);
+                if (writes[requestIndex] == null) {
+                    Mapping update = prepareIndexOperationOnPrimary(indexRequest, primary).parsedDoc().dynamicMappingsUpdate();
+                    if (update != null)
+                        mappingUpdates.merge(indexRequest.type(), update, (previous, mapping) -> previous.merge(mapping, false));
+                }
+            } catch (Exception e) {
+                // parsing failures and conflicting dynamic mappings are reported when executing the item.
+                writes[requestIndex] = null;
+            }
+        }
+        if (mappingUpdates.isEmpty())
+            return writes;
+
+        final Set<String> updatedTypes = new HashSet<>();
+        for (Map.Entry<String, Mapping> entry : mappingUpdates.entrySet()) {
+            try {
+                mappingUpdatedAction.updateMappingOnMaster(primary.shardId().getIndex(), entry.getKey(), entry.getValue());
+                updatedTypes.add(entry.getKey());
+            } catch (Exception e) {
+                // fallback to per item mapping updates.
+                logger.debug((Supplier<?>) () -> new ParameterizedMessage("{} failed to update mapping of type [{}] for bulk items",
+                        request.shardId(), entry.getKey()), e);
+            }
+        }
+        // only prepare again the writes of items having unmapped fields, other writes are not affected by the new columns.
+        for (int requestIndex = 0; requestIndex < writes.length; requestIndex++) {
+            final DocWriteRequest itemRequest = request.items()[requestIndex].request();
+            if (writes[requestIndex] != null || !updatedTypes.contains(itemRequest.type()) ||
+                (itemRequest.opType() != DocWriteRequest.OpType.INDEX && itemRequest.opType() != DocWriteRequest.OpType.CREATE))
+                continue;
+            try {
+                writes[requestIndex] = clusterService.prepareDocumentWrite(indicesService, (IndexRequest) itemRequest, metaData, true);
+            } catch (Exception e) {
+                // reported when executing the item.
+                writes[requestIndex] = null;
+            }
+        }
+        return writes;
+    }
+
     /** Executes bulk item requests and handles request execution exceptions */
     private Translog.Location executeBulkItemRequest(IndexMetaData metaData, IndexShard primary,
                                                      BulkShardRequest request,
                                                      long[] preVersions, VersionType[] preVersionTypes,
-                                                     Translog.Location location, int requestIndex) throws Exception {
+                                                     Translog.Location location, int requestIndex,
+                                                     ClusterService.DocumentWrite preparedWrite) throws Exception {
         final DocWriteRequest itemRequest = request.items()[requestIndex].request();
         preVersions[requestIndex] = itemRequest.version();
         preVersionTypes[requestIndex] = itemRequest.versionType();
@@ -147,18 +218,8 @@ public class TransportShardBulkAction extends TransportWriteAction<BulkShardRequ
                 case CREATE:
                 case INDEX:
                     final IndexRequest indexRequest = (IndexRequest) itemRequest;
-                    Engine.IndexResult indexResult = executeIndexRequestOnPrimary(indexRequest, primary, mappingUpdatedAction, this.clusterService, this.indicesService, metaData);
-                    if (indexResult.hasFailure()) {
-                        response = null;
-                    } else {
-                        // update the version on request so it will happen on the replicas
-                        final long version = indexResult.getVersion();
-                        indexRequest.version(version);
-                        indexRequest.versionType(indexRequest.versionType().versionTypeForReplicationAndRecovery());
-                        assert indexRequest.versionType().validateVersionForWrites(indexRequest.version());
-                        response = new IndexResponse(primary.shardId(), indexRequest.type(), indexRequest.id(),
-                                indexResult.getVersion(), indexResult.isCreated());
-                    }
+                    final Engine.IndexResult indexResult = executeIndexRequestOnPrimary(indexRequest, preparedWrite, primary, mappingUpdatedAction, this.clusterService, this.indicesService, metaData);
+                    response = indexResponse(primary, indexRequest, indexResult);
                     operationResult = indexResult;
                     replicaRequest = request.items()[requestIndex];
                     break;
@@ -188,56 +249,125 @@ public class TransportShardBulkAction extends TransportWriteAction<BulkShardRequ
                 default:
                     throw new IllegalStateException("unexpected opType [" + itemRequest.opType() + "] found");
             }
-            // update the bulk item request because update request execution can mutate the bulk item request
-            request.items()[requestIndex] = replicaRequest;
-            if (operationResult == null) { // in case of noop update operation
-                assert response.getResult() == DocWriteResponse.Result.NOOP
-                        : "only noop update can have null operation";
-                replicaRequest.setIgnoreOnReplica();
-                replicaRequest.setPrimaryResponse(new BulkItemResponse(replicaRequest.id(), opType, response));
-            } else if (operationResult.hasFailure() == false) {
-                //location = locationToSync(location, operationResult.getTranslogLocation());
-                BulkItemResponse primaryResponse = new BulkItemResponse(replicaRequest.id(), opType, response);
-                replicaRequest.setPrimaryResponse(primaryResponse);
-                // set an empty ShardInfo to indicate no shards participated in the request execution
-                // so we can safely send it to the replicas. We won't use it in the real response though.
-                primaryResponse.getResponse().setShardInfo(new ShardInfo());
-            } else {
-                DocWriteRequest docWriteRequest = replicaRequest.request();
-                Exception failure = operationResult.getFailure();
-                if (isConflictException(failure)) {
-                    logger.trace((Supplier<?>) () -> new ParameterizedMessage("{} failed to execute bulk item ({}) {}",
-                            request.shardId(), docWriteRequest.opType().getLowercase(), request), failure);
-                } else {
-                    logger.debug((Supplier<?>) () -> new ParameterizedMessage("{} failed to execute bulk item ({}) {}",
-                            request.shardId(), docWriteRequest.opType().getLowercase(), request), failure);
-                }
-                // if its a conflict failure, and we already executed the request on a primary (and we execute it
-                // again, due to primary relocation and only processing up to N bulk items when the shard gets closed)
-                // then just use the response we got from the successful execution
-                if (replicaRequest.getPrimaryResponse() == null || isConflictException(failure) == false) {
-                    replicaRequest.setIgnoreOnReplica();
-                    replicaRequest.setPrimaryResponse(new BulkItemResponse(replicaRequest.id(), docWriteRequest.opType(),
-                            new BulkItemResponse.Failure(request.index(), docWriteRequest.type(), docWriteRequest.id(), failure)));
-                }
-            }
-            assert replicaRequest.getPrimaryResponse() != null;
+            setItemPrimaryResponse(request, requestIndex, opType, operationResult, response, replicaRequest);
             assert preVersionTypes[requestIndex] != null;
         } catch (Exception e) {
             // rethrow the failure if we are going to retry on primary and let parent failure to handle it
             if (retryPrimaryException(e)) {
-                // restore updated versions...
-                for (int j = 0; j < requestIndex; j++) {
-                    DocWriteRequest docWriteRequest = request.items()[j].request();
-                    docWriteRequest.version(preVersions[j]);
-                    docWriteRequest.versionType(preVersionTypes[j]);
-                }
+                restoreVersions(request, preVersions, preVersionTypes, requestIndex);
             }
             throw e;
         }
         return location;
     }
 
+    /** Sets the primary response of a bulk item from its operation result */
+    private void setItemPrimaryResponse(BulkShardRequest request, int requestIndex, DocWriteRequest.OpType opType,
+                                        Engine.Result operationResult, DocWriteResponse response, BulkItemRequest replicaRequest) {
+        // update the bulk item request because update request execution can mutate the bulk item request
+        request.items()[requestIndex] = replicaRequest;
+        if (operationResult == null) { // in case of noop update operation
+            assert response.getResult() == DocWriteResponse.Result.NOOP
+                    : "only noop update can have null operation";
+            replicaRequest.setIgnoreOnReplica();
+            replicaRequest.setPrimaryResponse(new BulkItemResponse(replicaRequest.id(), opType, response));
+        } else if (operationResult.hasFailure() == false) {
+            //location = locationToSync(location, operationResult.getTranslogLocation());
+            BulkItemResponse primaryResponse = new BulkItemResponse(replicaRequest.id(), opType, response);
+            replicaRequest.setPrimaryResponse(primaryResponse);
+            // set an empty ShardInfo to indicate no shards participated in the request execution
+            // so we can safely send it to the replicas. We won't use it in the real response though.
+            primaryResponse.getResponse().setShardInfo(new ShardInfo());
+        } else {
+            DocWriteRequest docWriteRequest = replicaRequest.request();
+            Exception failure = operationResult.getFailure();
+            if (isConflictException(failure)) {
+                logger.trace((Supplier<?>) () -> new ParameterizedMessage("{} failed to execute bulk item ({}) {}",
+                        request.shardId(), docWriteRequest.opType().getLowercase(), request), failure);
+            } else {
+                logger.debug((Supplier<?>) () -> new ParameterizedMessage("{} failed to execute bulk item ({}) {}",
+                        request.shardId(), docWriteRequest.opType().getLowercase(), request), failure);
+            }
+            // if its a conflict failure, and we already executed the request on a primary (and we execute it
+            // again, due to primary relocation and only processing up to N bulk items when the shard gets closed)
+            // then just use the response we got from the successful execution
+            if (replicaRequest.getPrimaryResponse() == null || isConflictException(failure) == false) {
+                replicaRequest.setIgnoreOnReplica();
+                replicaRequest.setPrimaryResponse(new BulkItemResponse(replicaRequest.id(), docWriteRequest.opType(),
+                        new BulkItemResponse.Failure(request.index(), docWriteRequest.type(), docWriteRequest.id(), failure)));
+            }
+        }
+        assert replicaRequest.getPrimaryResponse() != null;
+    }
+
+    /** Restores the versions of the bulk items preceding requestIndex before retrying on primary */
+    private static void restoreVersions(BulkShardRequest request, long[] preVersions, VersionType[] preVersionTypes, int requestIndex) {
+        for (int j = 0; j < requestIndex; j++) {
+            DocWriteRequest docWriteRequest = request.items()[j].request();
+            docWriteRequest.version(preVersions[j]);
+            docWriteRequest.versionType(preVersionTypes[j]);
+        }
+    }
+
+    private static IndexResponse indexResponse(IndexShard primary, IndexRequest indexRequest, Engine.IndexResult indexResult) {
+        if (indexResult.hasFailure())
+            return null;
+        // update the version on request so it will happen on the replicas
+        final long version = indexResult.getVersion();
+        indexRequest.version(version);
+        indexRequest.versionType(indexRequest.versionType().versionTypeForReplicationAndRecovery());
+        assert indexRequest.versionType().validateVersionForWrites(indexRequest.version());
+        return new IndexResponse(primary.shardId(), indexRequest.type(), indexRequest.id(),
+                indexResult.getVersion(), indexResult.isCreated());
+    }
+
+    /**
+     * Prepares a non-conditional index request as a Cassandra write applied later with other writes of the same partition.
+     * Items failing during preparation are reported immediately.
+     * @return true if the item was deferred or failed, false if it must be executed by {@link #executeBulkItemRequest}.
+     */
+    private boolean deferIndexRequest(IndexMetaData metaData, IndexShard primary, BulkShardRequest request,
+                                      long[] preVersions, VersionType[] preVersionTypes, int requestIndex, ClusterService.DocumentWrite preparedWrite,
+                                      List<Integer> deferredItems, List<ClusterService.DocumentWrite> deferredWrites) throws Exception {
+        final DocWriteRequest itemRequest = request.items()[requestIndex].request();
+        if (itemRequest.opType() != DocWriteRequest.OpType.INDEX)
+            return false;
+        final IndexRequest indexRequest = (IndexRequest) itemRequest;
+        preVersions[requestIndex] = indexRequest.version();
+        preVersionTypes[requestIndex] = indexRequest.versionType();
+        try {
+            deferredWrites.add(preparedWrite != null ? preparedWrite :
+                    prepareDocumentWriteOnPrimary(indexRequest, primary, mappingUpdatedAction, clusterService, indicesService, metaData));
+            deferredItems.add(requestIndex);
+        } catch (Exception e) {
+            if (retryPrimaryException(e)) {
+                restoreVersions(request, preVersions, preVersionTypes, requestIndex);
+                throw e;
+            }
+            setItemPrimaryResponse(request, requestIndex, DocWriteRequest.OpType.INDEX, new Engine.IndexResult(e, indexRequest.version()),
+                    null, request.items()[requestIndex]);
+        }
+        return true;
+    }
+
+    /** Applies deferred writes grouped by partition, and reports each item result */
+    private void applyDeferredWrites(IndexShard primary, BulkShardRequest request,
+                                     List<Integer> deferredItems, List<ClusterService.DocumentWrite> deferredWrites) {
+        if (deferredWrites.isEmpty())
+            return;
+        final Exception[] failures = clusterService.executeDocumentWrites(deferredWrites);
+        for (int i = 0; i < failures.length; i++) {
+            final int requestIndex = deferredItems.get(i);
+            final IndexRequest indexRequest = (IndexRequest) request.items()[requestIndex].request();
+            final Engine.IndexResult indexResult = (failures[i] == null) ?
+                    new Engine.IndexResult(1L, true) : new Engine.IndexResult(failures[i], indexRequest.version());
+            setItemPrimaryResponse(request, requestIndex, DocWriteRequest.OpType.INDEX, indexResult,
+                    indexResponse(primary, indexRequest, indexResult), request.items()[requestIndex]);
+        }
+        deferredItems.clear();
+        deferredWrites.clear();
+    }
+
     private static boolean isConflictException(final Exception e) {
         return ExceptionsHelper.unwrapCause(e) instanceof VersionConflictEngineException;
     }
@@ -461,6 +591,53 @@ public class TransportShardBulkAction extends TransportWriteAction<BulkShardRequ
     public static Engine.IndexResult executeIndexRequestOnPrimary(IndexRequest request, IndexShard primary,
                                                                   MappingUpdatedAction mappingUpdatedAction, 
                                                                   ClusterService clusterService, IndicesService indicesService, IndexMetaData metaData) throws Exception {
+        final ClusterService.DocumentWrite write;
+        try {
+            write = prepareDocumentWriteOnPrimary(request, primary, mappingUpdatedAction, clusterService, indicesService, metaData);
+        } catch (MapperParsingException | IllegalArgumentException e) {
+            return new Engine.IndexResult(e, request.version());
+        }
+        clusterService.executeDocumentWrite(write);
+
+        assert request.versionType().validateVersionForWrites(request.version());
+
+        return new Engine.IndexResult(1L, true);
+        //return primary.index(operation);
+    }
+
+    /** Executes index operation on primary shard from its prepared Cassandra write, or prepares it if null */
+    static Engine.IndexResult executeIndexRequestOnPrimary(IndexRequest request, ClusterService.DocumentWrite preparedWrite, IndexShard primary,
+                                                           MappingUpdatedAction mappingUpdatedAction, 
+                                                           ClusterService clusterService, IndicesService indicesService, IndexMetaData metaData) throws Exception {
+        if (preparedWrite == null)
+            return executeIndexRequestOnPrimary(request, primary, mappingUpdatedAction, clusterService, indicesService, metaData);
+        clusterService.executeDocumentWrite(preparedWrite);
+
+        assert request.versionType().validateVersionForWrites(request.version());
+
+        return new Engine.IndexResult(1L, true);
+    }
+
+    /**
+     * Prepares the Cassandra write of an index request from a single parsing of the source. The document is parsed
+     * by the document mapper only when its source contains unmapped fields, to update mapping on master.
+     */
+    static ClusterService.DocumentWrite prepareDocumentWriteOnPrimary(IndexRequest request, IndexShard primary,
+                                                                      MappingUpdatedAction mappingUpdatedAction, ClusterService clusterService,
+                                                                      IndicesService indicesService, IndexMetaData metaData) throws Exception {
+        ClusterService.DocumentWrite write = clusterService.prepareDocumentWrite(indicesService, request, metaData, true);
+        if (write == null) {
+            Engine.IndexResult failure = updateMappingOnPrimary(request, primary, mappingUpdatedAction);
+            if (failure != null)
+                throw failure.getFailure();
+            write = clusterService.prepareDocumentWrite(indicesService, request, metaData, false);
+        }
+        return write;
+    }
+
+    /** Updates mapping on master if dynamic mappings are found, returns a failed result or null */
+    static Engine.IndexResult updateMappingOnPrimary(IndexRequest request, IndexShard primary,
+                                                     MappingUpdatedAction mappingUpdatedAction) throws Exception {
         Engine.Index operation;
         try {
             operation = prepareIndexOperationOnPrimary(request, primary);
@@ -489,14 +666,7 @@ public class TransportShardBulkAction extends TransportWriteAction<BulkShardRequ
                         "Dynamic mappings are not available on the node that holds the primary yet");
             }
         }
-        
-        Long writetime = new Long(1);
-        clusterService.insertDocument(indicesService, request, metaData);
-
-        assert request.versionType().validateVersionForWrites(request.version());
-
-        return new Engine.IndexResult(1L, true);
-        //return primary.index(operation);
+        return null;
     }
 
     public static Engine.DeleteResult executeDeleteRequestOnPrimary(DeleteRequest request, IndexShard primary,
@@ -19,6 +19,7 @@
 
 package org.elasticsearch.action.search;
 
+import org.elassandra.cluster.routing.SearchResponseStats;
 import org.elasticsearch.Version;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionListenerResponseHandler;
@@ -121,6 +122,8 @@ public class SearchTransportService extends AbstractComponent {
         // this used to be the QUERY_AND_FETCH which doesn't exists anymore.
         final boolean fetchDocuments = request.numberOfShards() == 1;
         Supplier<SearchPhaseResult> supplier = fetchDocuments ? QueryFetchSearchResult::new : QuerySearchResult::new;
+        // record the node response time and in-flight requests for the adaptive search strategy.
+        final ActionListener<SearchPhaseResult> statsListener = SearchResponseStats.instance.wrap(connection.getNode(), listener);
         if (connection.getVersion().before(Version.V_5_3_0) && fetchDocuments) {
             // this is a BWC layer for pre 5.3 indices
             if (request.scroll() != null) {
@@ -132,10 +135,10 @@ public class SearchTransportService extends AbstractComponent {
                 request.searchType(SearchType.QUERY_AND_FETCH);
             }
             transportService.sendChildRequest(connection, QUERY_FETCH_ACTION_NAME, request, task,
-                new ActionListenerResponseHandler<>(listener, supplier));
+                new ActionListenerResponseHandler<>(statsListener, supplier));
         } else {
             transportService.sendChildRequest(connection, QUERY_ACTION_NAME, request, task,
-                new ActionListenerResponseHandler<>(listener, supplier));
+                new ActionListenerResponseHandler<>(statsListener, supplier));
         }
     }
 
@@ -19,6 +19,11 @@
 
 package org.elasticsearch.action.search;
 
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.util.Supplier;
+import org.elassandra.cluster.routing.PartitionKeyRouting;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.OriginalIndices;
 import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsGroup;
@@ -31,6 +36,7 @@ import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.cluster.node.DiscoveryNodes;
 import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.OperationRouting;
 import org.elasticsearch.cluster.routing.ShardIterator;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.inject.Inject;
@@ -38,6 +44,8 @@ import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Setting.Property;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.search.SearchService;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
@@ -270,6 +278,8 @@ public class TransportSearchAction extends HandledTransportAction<SearchRequest,
         for (int i = 0; i < indices.length; i++) {
             concreteIndices[i] = indices[i].getName();
         }
+        if (routingMap == null && searchRequest.source() != null && searchRequest.source().query() != null)
+            routingMap = partitionKeyRouting(clusterState, indices, searchRequest.types(), searchRequest.source().query());
         GroupShardsIterator<ShardIterator> localShardsIterator = clusterService.operationRouting().searchShards(clusterState,
             concreteIndices, searchRequest.types(), routingMap, searchRequest.preference(), searchRequest.tokenRanges(), searchRequest.remoteAddress());
         GroupShardsIterator<SearchShardIterator> shardIterators = mergeShardsIterators(localShardsIterator, localIndices,
@@ -353,6 +363,40 @@ public class TransportSearchAction extends HandledTransportAction<SearchRequest,
         return searchAsyncAction;
     }
 
+    /**
+     * Route searches pinning a partition key with term equalities to the shard owning its token.
+     * @return the _routing value per index, or null if no index has a pinned partition key.
+     */
+    private Map<String, Set<String>> partitionKeyRouting(ClusterState clusterState, Index[] indices, String[] types, QueryBuilder query) {
+        Map<String, Set<String>> routingMap = null;
+        for (Index index : indices) {
+            try {
+                String type = null;
+                if (types != null && types.length == 1) {
+                    type = types[0];
+                } else if (types == null || types.length == 0) {
+                    type = OperationRouting.singleType(clusterState.metaData().index(index));
+                }
+                if (type == null)
+                    continue;
+                IndexService indexService = clusterService.indexServiceSafe(index);
+                CFMetaData cfm = ClusterService.getCFMetaData(indexService.keyspace(), ClusterService.typeToCfName(type));
+                List<String> partitionKeyColumns = new ArrayList<>(cfm.partitionKeyColumns().size());
+                for (ColumnDefinition cd : cfm.partitionKeyColumns())
+                    partitionKeyColumns.add(cd.name.toString());
+                String routing = PartitionKeyRouting.routing(query, indexService.mapperService(), partitionKeyColumns);
+                if (routing != null) {
+                    if (routingMap == null)
+                        routingMap = new HashMap<>();
+                    routingMap.put(index.getName(), Collections.singleton(routing));
+                }
+            } catch (Exception e) {
+                logger.debug((Supplier<?>) () -> new ParameterizedMessage("Cannot compute the partition key routing for index [{}]", index), e);
+            }
+        }
+        return routingMap;
+    }
+
     private static void failIfOverShardCountLimit(ClusterService clusterService, int shardCount) {
         final long shardCountLimit = clusterService.getClusterSettings().get(SHARD_COUNT_LIMIT_SETTING);
         if (shardCount > shardCountLimit) {
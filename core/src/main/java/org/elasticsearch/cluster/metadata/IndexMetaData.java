@@ -341,10 +341,28 @@ public class IndexMetaData implements Diffable<IndexMetaData>, ToXContent {
     public static final Setting<Boolean> INDEX_TOKEN_RANGES_BITSET_CACHE_SETTING =
             Setting.boolSetting(SETTING_TOKEN_RANGES_BITSET_CACHE, Boolean.getBoolean(ClusterService.SETTING_SYSTEM_TOKEN_RANGES_BITSET_CACHE), Property.Dynamic, Property.IndexScope);
     
+    public static final String SETTING_TOKEN_BITSET_WARMER_SIZE = "index."+ClusterService.TOKEN_BITSET_WARMER_SIZE; 
+    public static final Setting<Integer> INDEX_TOKEN_BITSET_WARMER_SIZE_SETTING =
+            Setting.intSetting(SETTING_TOKEN_BITSET_WARMER_SIZE, Integer.getInteger(ClusterService.SETTING_SYSTEM_TOKEN_BITSET_WARMER_SIZE, 4), 0, Property.Dynamic, Property.IndexScope);
+    
     public static final String SETTING_VERSION_LESS_ENGINE = "index."+ClusterService.VERSION_LESS_ENGINE; 
     public static final Setting<Boolean> INDEX_VERSION_LESS_ENGINE_SETTING =
             Setting.boolSetting(SETTING_VERSION_LESS_ENGINE, true, Property.Final, Property.IndexScope);
     
+    public static final String SETTING_TRANSLOG_LESS_ENGINE = "index."+ClusterService.TRANSLOG_LESS_ENGINE; 
+    public static final Setting<Boolean> INDEX_TRANSLOG_LESS_ENGINE_SETTING =
+            Setting.boolSetting(SETTING_TRANSLOG_LESS_ENGINE, 
+                    (s) -> s.get(ClusterService.SETTING_CLUSTER_TRANSLOG_LESS_ENGINE, Boolean.toString(Boolean.getBoolean(ClusterService.SETTING_SYSTEM_TRANSLOG_LESS_ENGINE))), 
+                    Property.Final, Property.IndexScope);
+    
+    public static final String SETTING_SKIP_NOOP_UPDATES = "index."+ClusterService.SKIP_NOOP_UPDATES; 
+    public static final Setting<Boolean> INDEX_SKIP_NOOP_UPDATES_SETTING =
+            Setting.boolSetting(SETTING_SKIP_NOOP_UPDATES, Boolean.getBoolean(ClusterService.SETTING_SYSTEM_SKIP_NOOP_UPDATES), Property.Final, Property.IndexScope);
+    
+    public static final String SETTING_SORT_BY_TOKEN = "index."+ClusterService.SORT_BY_TOKEN; 
+    public static final Setting<Boolean> INDEX_SORT_BY_TOKEN_SETTING =
+            Setting.boolSetting(SETTING_SORT_BY_TOKEN, Boolean.getBoolean(ClusterService.SETTING_SYSTEM_SORT_BY_TOKEN), Property.Final, Property.IndexScope);
+    
     public static final String SETTING_INDEX_STATIC_COLUMNS = "index."+ClusterService.INDEX_STATIC_COLUMNS; 
     public static final Setting<Boolean> INDEX_INDEX_STATIC_COLUMNS_SETTING =
             Setting.boolSetting(SETTING_INDEX_STATIC_COLUMNS, false, Property.Dynamic, Property.IndexScope);
@@ -353,6 +371,18 @@ public class IndexMetaData implements Diffable<IndexMetaData>, ToXContent {
     public static final Setting<Boolean> INDEX_INDEX_STATIC_ONLY_SETTING =
             Setting.boolSetting(SETTING_INDEX_STATIC_ONLY, false, Property.Dynamic, Property.IndexScope);
     
+    public static final String SETTING_FETCH_BATCH_SIZE = "index."+ClusterService.FETCH_BATCH_SIZE; 
+    public static final Setting<Integer> INDEX_FETCH_BATCH_SIZE_SETTING =
+            Setting.intSetting(SETTING_FETCH_BATCH_SIZE, Integer.getInteger(ClusterService.SETTING_SYSTEM_FETCH_BATCH_SIZE, 0), 0, Property.Dynamic, Property.IndexScope);
+    
+    public static final String SETTING_BULK_PARTITION_BATCH = "index."+ClusterService.BULK_PARTITION_BATCH; 
+    public static final Setting<Boolean> INDEX_BULK_PARTITION_BATCH_SETTING =
+            Setting.boolSetting(SETTING_BULK_PARTITION_BATCH, Boolean.getBoolean(ClusterService.SETTING_SYSTEM_BULK_PARTITION_BATCH), Property.Dynamic, Property.IndexScope);
+    
+    public static final String SETTING_ASYNC_INDEXING_QUEUE_SIZE = "index."+ClusterService.ASYNC_INDEXING_QUEUE_SIZE; 
+    public static final Setting<Integer> INDEX_ASYNC_INDEXING_QUEUE_SIZE_SETTING =
+            Setting.intSetting(SETTING_ASYNC_INDEXING_QUEUE_SIZE, Integer.getInteger(ClusterService.SETTING_SYSTEM_ASYNC_INDEXING_QUEUE_SIZE, 0), 0, Property.Final, Property.IndexScope);
+    
     // hard-coded hash function as of 2.0
     // older indices will read which hash function to use in their index settings
     //private static final HashFunction MURMUR3_HASH_FUNCTION = new Murmur3HashFunction();
@@ -1421,6 +1451,31 @@ public class IndexMetaData implements Diffable<IndexMetaData>, ToXContent {
         return settings.getAsBoolean(SETTING_VERSION_LESS_ENGINE, true);
     }
     
+    /**
+     * Returns <code>true</code> if the given settings indicate that the index associated with these settings uses a translog less engine
+     * (lucene commits driven by Cassandra memtable flushes only). Otherwise <code>false</code>. When not set at the index level, the
+     * default is the node setting cluster.translog_less_engine, or the system property es.translog_less_engine, or <code>false</code>.
+     */
+    public static boolean isIndexUsingTranslogLessEngine(Settings settings) {
+        return INDEX_TRANSLOG_LESS_ENGINE_SETTING.get(settings);
+    }
+    
+    /**
+     * Returns <code>true</code> if the given settings indicate that the index associated with these settings stores a digest
+     * of the indexed content and skips updates that do not change it. Otherwise <code>false</code>. The default setting for this is <code>false</code>.
+     */
+    public static boolean isIndexSkippingNoopUpdates(Settings settings) {
+        return INDEX_SKIP_NOOP_UPDATES_SETTING.get(settings);
+    }
+    
+    /**
+     * Returns <code>true</code> if the given settings indicate that the lucene segments of the index associated with these settings
+     * are sorted by _token. Otherwise <code>false</code>. The default setting for this is <code>false</code>.
+     */
+    public static boolean isIndexSortedByToken(Settings settings) {
+        return INDEX_SORT_BY_TOKEN_SETTING.get(settings);
+    }
+    
     /**
      * Adds human readable version and creation date settings.
      * This method is used to display the settings in a human readable format in REST API
@@ -19,6 +19,7 @@
 
 package org.elasticsearch.cluster.routing;
 
+import com.carrotsearch.hppc.cursors.ObjectCursor;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
 import org.elassandra.index.search.TokenRangesService;
@@ -36,6 +37,7 @@ import org.elasticsearch.common.transport.TransportAddress;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.IndexNotFoundException;
 import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.mapper.MapperService;
 import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.index.shard.ShardNotFoundException;
 
@@ -124,23 +126,13 @@ public class OperationRouting extends AbstractComponent {
             final IndexMetaData indexMetaData = indexMetaData(clusterState, index);
             final IndexRoutingTable indexRouting = new IndexRoutingTable.Builder(indexMetaData.getIndex(), this.clusterService, clusterState, preference, src).build();
             
-            // ignore routing if types is empty.
+            // ignore routing if types is empty and the index has more than one type.
             final Set<String> effectiveRouting = routing.get(index);
-            if (types != null && types.length > 0 && effectiveRouting != null) {
-                for (String r : effectiveRouting) {
-                    for (IndexShardRoutingTable indexShard : indexRouting) {
-                        for(String type :types) {
-                            try {
-                                Token token = this.clusterService.getToken(this.clusterService.indexServiceSafe(indexMetaData.getIndex()), type, r);
-                                if (TokenRangesService.tokenRangesContains(indexShard.activeShards().iterator().next().tokenRanges(), token)) {
-                                    set.add(indexShard);
-                                    break;
-                                }
-                            } catch (IOException e) {
-                            }
-                        }
-                    }
-                }
+            final String[] routingTypes = (types != null && types.length > 0) ? types : singleTypeArray(indexMetaData);
+            final Set<IndexShardRoutingTable> routedShards = (routingTypes != null && effectiveRouting != null) ? 
+                    routedShards(indexMetaData, indexRouting, routingTypes, effectiveRouting) : null;
+            if (routedShards != null) {
+                set.addAll(routedShards);
             } else {
                 for (IndexShardRoutingTable indexShard : indexRouting) {
                     if (indexShard.activeShards().iterator().hasNext()) {
@@ -154,6 +146,51 @@ public class OperationRouting extends AbstractComponent {
         return set;
     }
 
+    /**
+     * @return the shards whose token ranges contain the tokens of the routing values, or null to target all shards
+     * when a routing value cannot be converted to a token.
+     */
+    private Set<IndexShardRoutingTable> routedShards(IndexMetaData indexMetaData, IndexRoutingTable indexRouting, String[] types, Set<String> routing) {
+        final Set<IndexShardRoutingTable> set = new HashSet<>();
+        for (String r : routing) {
+            for (IndexShardRoutingTable indexShard : indexRouting) {
+                for(String type : types) {
+                    try {
+                        Token token = this.clusterService.getToken(this.clusterService.indexServiceSafe(indexMetaData.getIndex()), type, r);
+                        if (TokenRangesService.tokenRangesContains(indexShard.activeShards().iterator().next().tokenRanges(), token)) {
+                            set.add(indexShard);
+                            break;
+                        }
+                    } catch (IOException e) {
+                        logger.debug("Failed to compute the token of routing [{}] for index [{}] type [{}], searching all shards", r, indexMetaData.getIndex().getName(), type, e);
+                        return null;
+                    }
+                }
+            }
+        }
+        return set;
+    }
+
+    /**
+     * @return the mapping type of the index if it has only one, or null.
+     */
+    public static String singleType(IndexMetaData indexMetaData) {
+        String type = null;
+        for (ObjectCursor<String> cursor : indexMetaData.getMappings().keys()) {
+            if (MapperService.DEFAULT_MAPPING.equals(cursor.value))
+                continue;
+            if (type != null)
+                return null;
+            type = cursor.value;
+        }
+        return type;
+    }
+
+    private static String[] singleTypeArray(IndexMetaData indexMetaData) {
+        String type = singleType(indexMetaData);
+        return (type == null) ? null : new String[] { type };
+    }
+
     private ShardIterator preferenceActiveShardIterator(IndexShardRoutingTable indexShard, String localNodeId, DiscoveryNodes nodes, @Nullable String preference) {
         if (preference == null || preference.isEmpty()) {
             if (awarenessAttributes.length == 0) {
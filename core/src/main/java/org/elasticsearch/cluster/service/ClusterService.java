@@ -29,6 +29,8 @@ import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.cql3.Attributes;
+import org.apache.cassandra.cql3.BatchQueryOptions;
 import org.apache.cassandra.cql3.CQL3Type;
 import org.apache.cassandra.cql3.ColumnIdentifier;
 import org.apache.cassandra.cql3.ColumnSpecification;
@@ -36,7 +38,9 @@ import org.apache.cassandra.cql3.QueryOptions;
 import org.apache.cassandra.cql3.QueryProcessor;
 import org.apache.cassandra.cql3.UntypedResultSet;
 import org.apache.cassandra.cql3.UntypedResultSet.Row;
+import org.apache.cassandra.cql3.statements.BatchStatement;
 import org.apache.cassandra.cql3.statements.IndexTarget;
+import org.apache.cassandra.cql3.statements.ModificationStatement;
 import org.apache.cassandra.cql3.statements.ParsedStatement;
 import org.apache.cassandra.cql3.statements.TableAttributes;
 import org.apache.cassandra.db.CBuilder;
@@ -47,7 +51,9 @@ import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.BytesType;
 import org.apache.cassandra.db.marshal.CollectionType;
+import org.apache.cassandra.db.marshal.Int32Type;
 import org.apache.cassandra.db.marshal.ListType;
+import org.apache.cassandra.db.marshal.LongType;
 import org.apache.cassandra.db.marshal.MapType;
 import org.apache.cassandra.db.marshal.SetType;
 import org.apache.cassandra.db.marshal.TupleType;
@@ -131,14 +137,21 @@ import org.elasticsearch.common.Priority;
 import org.elasticsearch.common.SuppressForbidden;
 import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.compress.CompressorFactory;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.geo.GeoPoint;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.ClusterSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.discovery.Discovery;
 import org.elasticsearch.gateway.MetaStateService;
@@ -161,20 +174,18 @@ import org.elasticsearch.index.mapper.MappedFieldType;
 import org.elasticsearch.index.mapper.Mapper;
 import org.elasticsearch.index.mapper.Mapper.CqlCollection;
 import org.elasticsearch.index.mapper.Mapper.CqlStruct;
-import org.elasticsearch.index.mapper.MapperException;
 import org.elasticsearch.index.mapper.MapperParsingException;
 import org.elasticsearch.index.mapper.MapperService;
-import org.elasticsearch.index.mapper.Mapping;
 import org.elasticsearch.index.mapper.MetadataFieldMapper;
 import org.elasticsearch.index.mapper.ObjectMapper;
 import org.elasticsearch.index.mapper.ParentFieldMapper;
 import org.elasticsearch.index.mapper.RoutingFieldMapper;
 import org.elasticsearch.index.mapper.SourceFieldMapper;
-import org.elasticsearch.index.mapper.SourceToParse;
 import org.elasticsearch.index.mapper.TTLFieldMapper;
 import org.elasticsearch.index.mapper.TimestampFieldMapper;
 import org.elasticsearch.index.mapper.Uid;
 import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.slf4j.LoggerFactory;
@@ -197,8 +208,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
@@ -222,6 +233,10 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
     public static final String ELASTIC_ID_COLUMN_NAME = "_id";
     public static final String ELASTIC_ADMIN_KEYSPACE = "elastic_admin";
     public static final String ELASTIC_ADMIN_METADATA_TABLE = "metadata";
+    public static final String ELASTIC_ADMIN_METADATA_PARTS_TABLE = "metadata_parts";
+    
+    // part key of the global metadata (settings, templates, customs) in the metadata_parts table, other parts are keyed by index UUID.
+    public static final String GLOBAL_METADATA_PART = "_global";
 
     public static final String SETTING_CLUSTER_DATACENTER_GROUP = "datacenter.group";
     
@@ -277,6 +292,23 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
      */
     public static final String VERSION_LESS_ENGINE   = "version_less_engine";
     
+    /**
+     * When true, the engine does not account operations in the translog, lucene commits only occur on Cassandra memtable flushes
+     * because non-committed documents are re-indexed from the Cassandra commitlog on restart.
+     */
+    public static final String TRANSLOG_LESS_ENGINE  = "translog_less_engine";
+    
+    /**
+     * When true, a digest of the indexed content is stored with each document, and an update producing the same digest
+     * as the live document is not re-indexed.
+     */
+    public static final String SKIP_NOOP_UPDATES  = "skip_noop_updates";
+    
+    /**
+     * When true, lucene segments are sorted by _token, so that token range filters match contiguous document ids.
+     */
+    public static final String SORT_BY_TOKEN  = "sort_by_token";
+    
     /**
      * Lucene numeric precision to store _token , see http://blog-archive.griddynamics.com/2014/10/numeric-range-queries-in-lucenesolr.html
      */
@@ -292,6 +324,16 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
      */
     public static final String TOKEN_RANGES_QUERY_EXPIRE = "token_ranges_query_expire";
     
+    /**
+     * Node-wide memory budget of the token_ranges bitset cache, as a size or a percentage of the heap.
+     */
+    public static final String TOKEN_BITSET_CACHE_SIZE = "token_bitset_cache_size";
+    
+    /**
+     * Maximum number of recently used token_ranges queries having their bitsets built for new segments on refresh (0 disables the warmer).
+     */
+    public static final String TOKEN_BITSET_WARMER_SIZE = "token_bitset_warmer_size";
+    
     /**
      * Add static columns to indexed documents (default is false).
      */
@@ -302,6 +344,43 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
      */
     public static final String INDEX_STATIC_ONLY = "index_static_only";
     
+    /**
+     * Maximum number of primary keys fetched by a single grouped read in the fetch phase (0 disables grouped reads).
+     */
+    public static final String FETCH_BATCH_SIZE = "fetch_batch_size";
+    
+    /**
+     * Apply non-conditional index requests of a bulk shard request as per-partition UNLOGGED batches.
+     */
+    public static final String BULK_PARTITION_BATCH = "bulk_partition_batch";
+    
+    /**
+     * Capacity of the per-index queue of lucene operations asynchronously applied from the Cassandra write path (0 indexes synchronously).
+     */
+    public static final String ASYNC_INDEXING_QUEUE_SIZE = "async_indexing_queue_size";
+    
+    /**
+     * Publish shard states in gossip as JSON, readable by nodes running a previous version during a rolling upgrade (default is false).
+     */
+    public static final String GOSSIP_JSON_SHARD_STATES = "gossip_json_shard_states";
+    
+    /**
+     * Size in bytes above which a persisted metadata part is compressed, -1 to disable (default is 1024).
+     */
+    public static final String METADATA_COMPRESS_SIZE = "metadata_compress_size";
+    
+    /**
+     * Also write the metadata as a single row in elastic_admin.metadata, read and updated by nodes running a previous version (default is false).
+     * Enable it on all nodes while upgrading from a previous version, and disable it once they all run the current version.
+     */
+    public static final String METADATA_LEGACY_ROW = "metadata_legacy_row";
+    
+    /**
+     * Serialize the elassandra extensions of the indices stats between nodes (default is false). They are not negotiated by the
+     * transport version, so enable it on all nodes once they all run the current version.
+     */
+    public static final String STATS_EXTENSIONS = "stats_extensions";
+    
     // system property settings
     public static final String SETTING_SYSTEM_MAPPING_UPDATE_TIMEOUT = SYSTEM_PREFIX+MAPPING_UPDATE_TIMEOUT;
     public static final String SETTING_SYSTEM_SECONDARY_INDEX_CLASS = SYSTEM_PREFIX+SECONDARY_INDEX_CLASS;
@@ -312,9 +391,21 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
     public static final String SETTING_SYSTEM_DROP_ON_DELETE_INDEX = SYSTEM_PREFIX+DROP_ON_DELETE_INDEX;
     public static final String SETTING_SYSTEM_SNAPSHOT_WITH_SSTABLE = SYSTEM_PREFIX+SNAPSHOT_WITH_SSTABLE;
     public static final String SETTING_SYSTEM_VERSION_LESS_ENGINE = SYSTEM_PREFIX+VERSION_LESS_ENGINE; 
+    public static final String SETTING_SYSTEM_TRANSLOG_LESS_ENGINE = SYSTEM_PREFIX+TRANSLOG_LESS_ENGINE; 
+    public static final String SETTING_SYSTEM_SKIP_NOOP_UPDATES = SYSTEM_PREFIX+SKIP_NOOP_UPDATES;
+    public static final String SETTING_SYSTEM_SORT_BY_TOKEN = SYSTEM_PREFIX+SORT_BY_TOKEN;
     public static final String SETTING_SYSTEM_TOKEN_PRECISION_STEP = SYSTEM_PREFIX+TOKEN_PRECISION_STEP;
     public static final String SETTING_SYSTEM_TOKEN_RANGES_BITSET_CACHE = SYSTEM_PREFIX+TOKEN_RANGES_BITSET_CACHE;
     public static final String SETTING_SYSTEM_TOKEN_RANGES_QUERY_EXPIRE = SYSTEM_PREFIX+TOKEN_RANGES_QUERY_EXPIRE;
+    public static final String SETTING_SYSTEM_TOKEN_BITSET_CACHE_SIZE = SYSTEM_PREFIX+TOKEN_BITSET_CACHE_SIZE;
+    public static final String SETTING_SYSTEM_TOKEN_BITSET_WARMER_SIZE = SYSTEM_PREFIX+TOKEN_BITSET_WARMER_SIZE;
+    public static final String SETTING_SYSTEM_FETCH_BATCH_SIZE = SYSTEM_PREFIX+FETCH_BATCH_SIZE;
+    public static final String SETTING_SYSTEM_BULK_PARTITION_BATCH = SYSTEM_PREFIX+BULK_PARTITION_BATCH;
+    public static final String SETTING_SYSTEM_ASYNC_INDEXING_QUEUE_SIZE = SYSTEM_PREFIX+ASYNC_INDEXING_QUEUE_SIZE;
+    public static final String SETTING_SYSTEM_GOSSIP_JSON_SHARD_STATES = SYSTEM_PREFIX+GOSSIP_JSON_SHARD_STATES;
+    public static final String SETTING_SYSTEM_METADATA_COMPRESS_SIZE = SYSTEM_PREFIX+METADATA_COMPRESS_SIZE;
+    public static final String SETTING_SYSTEM_METADATA_LEGACY_ROW = SYSTEM_PREFIX+METADATA_LEGACY_ROW;
+    public static final String SETTING_SYSTEM_STATS_EXTENSIONS = SYSTEM_PREFIX+STATS_EXTENSIONS;
     
     // elassandra cluster settings
     public static final String SETTING_CLUSTER_MAPPING_UPDATE_TIMEOUT = CLUSTER_PREFIX+MAPPING_UPDATE_TIMEOUT;
@@ -326,8 +417,15 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
     public static final String SETTING_CLUSTER_DROP_ON_DELETE_INDEX = CLUSTER_PREFIX+DROP_ON_DELETE_INDEX;
     public static final String SETTING_CLUSTER_SNAPSHOT_WITH_SSTABLE = CLUSTER_PREFIX+SNAPSHOT_WITH_SSTABLE;
     public static final String SETTING_CLUSTER_VERSION_LESS_ENGINE = CLUSTER_PREFIX+VERSION_LESS_ENGINE; 
+    public static final String SETTING_CLUSTER_TRANSLOG_LESS_ENGINE = CLUSTER_PREFIX+TRANSLOG_LESS_ENGINE; 
+    public static final String SETTING_CLUSTER_SKIP_NOOP_UPDATES = CLUSTER_PREFIX+SKIP_NOOP_UPDATES;
+    public static final String SETTING_CLUSTER_SORT_BY_TOKEN = CLUSTER_PREFIX+SORT_BY_TOKEN;
     public static final String SETTING_CLUSTER_TOKEN_PRECISION_STEP = CLUSTER_PREFIX+TOKEN_PRECISION_STEP;
     public static final String SETTING_CLUSTER_TOKEN_RANGES_BITSET_CACHE = CLUSTER_PREFIX+TOKEN_RANGES_BITSET_CACHE;
+    public static final String SETTING_CLUSTER_TOKEN_BITSET_WARMER_SIZE = CLUSTER_PREFIX+TOKEN_BITSET_WARMER_SIZE;
+    public static final String SETTING_CLUSTER_FETCH_BATCH_SIZE = CLUSTER_PREFIX+FETCH_BATCH_SIZE;
+    public static final String SETTING_CLUSTER_BULK_PARTITION_BATCH = CLUSTER_PREFIX+BULK_PARTITION_BATCH;
+    public static final String SETTING_CLUSTER_ASYNC_INDEXING_QUEUE_SIZE = CLUSTER_PREFIX+ASYNC_INDEXING_QUEUE_SIZE;
     
     public static int defaultPrecisionStep = Integer.getInteger(SETTING_SYSTEM_TOKEN_PRECISION_STEP, 6);
     
@@ -357,6 +455,19 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
             }
             return boundValues;
         }
+        
+        /**
+         * Serialize primary key values with the column types of the underlying table.
+         */
+        public ByteBuffer[] serialize(CFMetaData metadata) {
+            ByteBuffer[] buffers = new ByteBuffer[values.length];
+            for (int i = 0; i < values.length; i++) {
+                Object v = values[i];
+                AbstractType type = metadata.getColumnDefinition(ColumnIdentifier.getInterned(names[i], true)).type;
+                buffers[i] = (v instanceof ByteBuffer || v == null) ? (ByteBuffer) v : type.decompose(v);
+            }
+            return buffers;
+        }
     }
     
     
@@ -400,11 +511,23 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
     private final ConsistencyLevel metadataReadCL = consistencyLevelFromString(System.getProperty("elassandra.metadata.read.cl","QUORUM"));
     private final ConsistencyLevel metadataSerialCL = consistencyLevelFromString(System.getProperty("elassandra.metadata.serial.cl","SERIAL"));
     
+    private final int metadataCompressionThreshold = Integer.getInteger(SETTING_SYSTEM_METADATA_COMPRESS_SIZE, 1024);
+    private final boolean metadataLegacyRow = Boolean.parseBoolean(System.getProperty(SETTING_SYSTEM_METADATA_LEGACY_ROW, "false"));
+    
     private final String elasticAdminKeyspaceName;
     private final String selectMetadataQuery;
     private final String selectVersionMetadataQuery;
+    private final String selectLegacyVersionMetadataQuery;
     private final String insertMetadataQuery;
     private final String updateMetaDataQuery;
+    private final String selectMetadataPartVersionsQuery;
+    private final String selectMetadataPartsQuery;
+    private final String insertMetadataPartQuery;
+    private final String updateMetadataPartQuery;
+    private final String deleteMetadataPartQuery;
+    
+    // last read or written index metadata parts, by index UUID, with the metadata version of their part.
+    private final Map<String, Tuple<Long, IndexMetaData>> metadataParts = new ConcurrentHashMap<String, Tuple<Long, IndexMetaData>>();
     
     private volatile CassandraShardStartedBarrier shardStartedBarrier;
     private final OperationRouting operationRouting;
@@ -425,9 +548,15 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
             elasticAdminKeyspaceName = ELASTIC_ADMIN_KEYSPACE;
         }
         selectMetadataQuery = String.format(Locale.ROOT, "SELECT metadata,version,owner FROM \"%s\".\"%s\" WHERE cluster_name = ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
-        selectVersionMetadataQuery = String.format(Locale.ROOT, "SELECT version FROM \"%s\".\"%s\" WHERE cluster_name = ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
+        selectVersionMetadataQuery = String.format(Locale.ROOT, "SELECT version FROM \"%s\".\"%s\" WHERE cluster_name = ? AND part = '%s'", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_PARTS_TABLE, GLOBAL_METADATA_PART);
+        selectLegacyVersionMetadataQuery = String.format(Locale.ROOT, "SELECT version FROM \"%s\".\"%s\" WHERE cluster_name = ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
         insertMetadataQuery = String.format(Locale.ROOT, "INSERT INTO \"%s\".\"%s\" (cluster_name,owner,version,metadata) VALUES (?,?,?,?) IF NOT EXISTS", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
         updateMetaDataQuery = String.format(Locale.ROOT, "UPDATE \"%s\".\"%s\" SET owner = ?, version = ?, metadata = ? WHERE cluster_name = ? IF version < ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
+        selectMetadataPartVersionsQuery = String.format(Locale.ROOT, "SELECT part,version FROM \"%s\".\"%s\" WHERE cluster_name = ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_PARTS_TABLE);
+        selectMetadataPartsQuery = String.format(Locale.ROOT, "SELECT part,version,metadata FROM \"%s\".\"%s\" WHERE cluster_name = ? AND part IN ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_PARTS_TABLE);
+        insertMetadataPartQuery = String.format(Locale.ROOT, "INSERT INTO \"%s\".\"%s\" (cluster_name,part,owner,version,metadata) VALUES (?,?,?,?,?)", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_PARTS_TABLE);
+        updateMetadataPartQuery = String.format(Locale.ROOT, "UPDATE \"%s\".\"%s\" SET owner = ?, version = ?, metadata = ? WHERE cluster_name = ? AND part = ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_PARTS_TABLE);
+        deleteMetadataPartQuery = String.format(Locale.ROOT, "DELETE FROM \"%s\".\"%s\" WHERE cluster_name = ? AND part = ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_PARTS_TABLE);
     }
     
     public OperationRouting operationRouting() {
@@ -508,7 +637,7 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
         
         // update the router cache with the effective router
         AbstractSearchStrategy effectiveSearchStrategy = searchStrategyInstance(searchStrategyClass(indexMetaData, state));
-        if (! effectiveSearchStrategy.equals(PrimaryFirstSearchStrategy.class) ) {
+        if (!(effectiveSearchStrategy instanceof PrimaryFirstSearchStrategy)) {
             AbstractSearchStrategy.Router router2 = effectiveSearchStrategy.newRouter(indexMetaData.getIndex(), indexMetaData.keyspace(), this::getShardRoutingStates, state);
             this.routers.put(indexMetaData.getIndex().getName(), router2);
         } else {
@@ -576,6 +705,43 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
         return (result instanceof ResultMessage.Rows) ? UntypedResultSet.create(((ResultMessage.Rows) result).result) : null;
     }
 
+    /**
+     * Execute an already prepared statement through the CQL query handler, without parsing a CQL string.
+     */
+    public UntypedResultSet process(final ConsistencyLevel cl, final ConsistencyLevel serialConsistencyLevel, final ParsedStatement.Prepared prepared, final List<ByteBuffer> boundValues)
+            throws RequestExecutionException, RequestValidationException, InvalidRequestException {
+        QueryState queryState = new QueryState(ClientState.forInternalCalls());
+        QueryOptions queryOptions = QueryOptions.forInternalCalls(cl, serialConsistencyLevel, boundValues);
+        ResultMessage result = ClientState.getCQLQueryHandler().processPrepared(prepared.statement, queryState, queryOptions, Collections.EMPTY_MAP, System.nanoTime());
+        return (result instanceof ResultMessage.Rows) ? UntypedResultSet.create(((ResultMessage.Rows) result).result) : null;
+    }
+    
+    public boolean processWriteConditional(final ConsistencyLevel cl, final ConsistencyLevel serialCl, final ParsedStatement.Prepared prepared, final List<ByteBuffer> boundValues) 
+            throws RequestExecutionException, RequestValidationException, InvalidRequestException {
+        try {
+            UntypedResultSet result = process(cl, serialCl, prepared, boundValues);
+            if (serialCl == null)
+                return true;
+            
+            if (result != null && !result.isEmpty()) {
+                Row row = result.one();
+                if (row.has("[applied]")) {
+                     return row.getBoolean("[applied]");
+                }
+            }
+            return false;
+        } catch (WriteTimeoutException e) {
+            logger.warn("PAXOS phase failed statement=" + prepared.rawCQLStatement, e);
+            return false;
+        } catch (UnavailableException e) {
+            logger.warn("PAXOS commit failed statement=" + prepared.rawCQLStatement, e);
+            return false;
+        } catch (Exception e) {
+            logger.error("Failed to process statement=" + prepared.rawCQLStatement, e);
+            throw e;
+        }
+    }
+    
     public boolean processWriteConditional(final ConsistencyLevel cl, final ConsistencyLevel serialCl, final String query, Object... values) {
         return processWriteConditional(cl, serialCl, ClientState.forInternalCalls(), query, values);
     }
@@ -694,7 +860,7 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
         return o;
     }
     
-    private static org.codehaus.jackson.map.ObjectMapper jsonMapper = new org.codehaus.jackson.map.ObjectMapper();
+    public static final org.codehaus.jackson.map.ObjectMapper jsonMapper = new org.codehaus.jackson.map.ObjectMapper();
 
     // wrap string values with quotes
     private static String stringify(Object o) throws IOException {
@@ -1900,8 +2066,63 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
         return null;
     }
     
+    public static final String BATCH_FETCH_KEY_PREFIX = "_pk";
+    
     public String buildFetchQuery(final IndexService indexService, final String type, final String[] requiredColumns, boolean forStaticDocument, Map<String, ColumnDefinition> columnDefs) 
             throws IndexNotFoundException, IOException 
+    {
+        DocumentMapper docMapper = indexService.mapperService().documentMapper(type);
+        StringBuilder query = buildSelectQuery(indexService, type, requiredColumns, forStaticDocument, columnDefs);
+        query.append(" FROM \"").append(indexService.keyspace()).append("\".\"").append(typeToCfName(type))
+             .append("\" WHERE ").append((forStaticDocument) ? docMapper.getCqlFragments().ptWhere : docMapper.getCqlFragments().pkWhere )
+             .append(" LIMIT 1");
+        return query.toString();
+    }
+    
+    /**
+     * Build a fetch query returning many rows in one read. When clusteringIn is false, the (single column) partition key 
+     * is bound with an IN marker. When clusteringIn is true, the partition key is bound by equality and the clustering key with an IN marker.
+     * Primary key columns are also selected as _pk0, _pk1... to match returned rows with requested documents.
+     */
+    public String buildBatchFetchQuery(final IndexService indexService, final String type, final String[] requiredColumns, boolean forStaticDocument, Map<String, ColumnDefinition> columnDefs, boolean clusteringIn) 
+            throws IndexNotFoundException, IOException 
+    {
+        DocumentMapper docMapper = indexService.mapperService().documentMapper(type);
+        String cfName = typeToCfName(type);
+        CFMetaData metadata = getCFMetaData(indexService.keyspace(), cfName);
+        StringBuilder query = buildSelectQuery(indexService, type, requiredColumns, forStaticDocument, columnDefs);
+        int i = 0;
+        for(ColumnDefinition cd : metadata.partitionKeyColumns())
+            query.append(",\"").append(cd.name.toString()).append("\" AS \"").append(BATCH_FETCH_KEY_PREFIX).append(i++).append('\"');
+        if (!forStaticDocument) {
+            for(ColumnDefinition cd : metadata.clusteringColumns())
+                query.append(",\"").append(cd.name.toString()).append("\" AS \"").append(BATCH_FETCH_KEY_PREFIX).append(i++).append('\"');
+        }
+        query.append(" FROM \"").append(indexService.keyspace()).append("\".\"").append(cfName).append("\" WHERE ");
+        if (clusteringIn) {
+            query.append(docMapper.getCqlFragments().ptWhere).append(" AND ");
+            if (metadata.clusteringColumns().size() == 1) {
+                query.append('\"').append(metadata.clusteringColumns().get(0).name.toString()).append("\" IN ?");
+            } else {
+                query.append('(');
+                for(ColumnDefinition cd : metadata.clusteringColumns()) {
+                    if (cd.position() > 0)
+                        query.append(',');
+                    query.append('\"').append(cd.name.toString()).append('\"');
+                }
+                query.append(") IN ?");
+            }
+        } else {
+            assert metadata.partitionKeyColumns().size() == 1 : "IN restriction requires a single column partition key";
+            query.append('\"').append(metadata.partitionKeyColumns().get(0).name.toString()).append("\" IN ?");
+            if (forStaticDocument)
+                query.append(" PER PARTITION LIMIT 1");
+        }
+        return query.toString();
+    }
+    
+    private StringBuilder buildSelectQuery(final IndexService indexService, final String type, final String[] requiredColumns, boolean forStaticDocument, Map<String, ColumnDefinition> columnDefs) 
+            throws IndexNotFoundException, IOException 
     {
         DocumentMapper docMapper = indexService.mapperService().documentMapper(type);
         String cfName = typeToCfName(type);
@@ -1966,10 +2187,7 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
             // no column match or requiredColumn is empty, add _id to avoid CQL syntax error...
             query.append("\"_id\"");
         }
-        query.append(" FROM \"").append(indexService.keyspace()).append("\".\"").append(cfName)
-             .append("\" WHERE ").append((forStaticDocument) ? cqlFragment.ptWhere : cqlFragment.pkWhere )
-             .append(" LIMIT 1");
-        return query.toString();
+        return query;
     }
     
     public static String buildDeleteQuery(final DocumentMapper docMapper, final String ksName, final String cfName, final String id) {
@@ -2238,48 +2456,172 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
     }
     
     
-    public void updateDocument(final IndicesService indicesService, final IndexRequest request, final IndexMetaData indexMetaData) throws Exception {
-        upsertDocument(indicesService, request, indexMetaData, true);
+    /**
+     * A prepared CQL INSERT of a document with its bound values, not yet executed.
+     */
+    public static class DocumentWrite {
+        public final ShardId shardId;
+        public final String cfName;
+        public final String id;
+        public final ParsedStatement.Prepared prepared;
+        public final List<ByteBuffer> values;
+        public final ConsistencyLevel cl;
+        public final boolean ifNotExists;
+        public final List<ByteBuffer> partitionKey;
+        
+        public DocumentWrite(ShardId shardId, String cfName, String id, ParsedStatement.Prepared prepared, List<ByteBuffer> values, 
+                ConsistencyLevel cl, boolean ifNotExists, List<ByteBuffer> partitionKey) {
+            this.shardId = shardId;
+            this.cfName = cfName;
+            this.id = id;
+            this.prepared = prepared;
+            this.values = values;
+            this.cl = cl;
+            this.ifNotExists = ifNotExists;
+            this.partitionKey = partitionKey;
+        }
+    }
+    
+    public void executeDocumentWrite(final DocumentWrite write) throws Exception {
+        if (write.ifNotExists) {
+            final boolean applied = processWriteConditional(write.cl, ConsistencyLevel.LOCAL_SERIAL, write.prepared, write.values);
+            if (!applied)
+                throw new VersionConflictEngineException(write.shardId, write.cfName, write.id, "PAXOS insert failed, document already exists");
+        } else {
+            process(write.cl, null, write.prepared, write.values);
+        }
+    }
+    
+    /**
+     * Apply non-conditional document writes, grouped by table, partition key and consistency level. 
+     * Writes sharing a partition are applied as a single UNLOGGED batch, so that Cassandra merges them into one mutation.
+     * As all statements of a batch have the same timestamp, a write of an already batched document, or a write of a static column
+     * already written in the batch (possibly as null for unset fields), starts a new batch applied after the previous one,
+     * so that the last write wins as in the bulk order.
+     * @return per-write failures, null for successful writes.
+     */
+    public Exception[] executeDocumentWrites(final List<DocumentWrite> writes) {
+        final Exception[] failures = new Exception[writes.size()];
+        final Map<List<Object>, List<List<Integer>>> partitions = new LinkedHashMap<>();
+        final Map<List<Object>, Set<String>> batchedIds = new HashMap<>();
+        final Map<List<Object>, Set<ColumnDefinition>> batchedStatics = new HashMap<>();
+        for (int i = 0; i < writes.size(); i++) {
+            DocumentWrite write = writes.get(i);
+            assert !write.ifNotExists : "conditional writes cannot be batched";
+            List<Object> key = Arrays.asList(write.cfName, write.cl, write.partitionKey);
+            List<List<Integer>> batches = partitions.computeIfAbsent(key, k -> new ArrayList<List<Integer>>());
+            Set<String> ids = batchedIds.computeIfAbsent(key, k -> new HashSet<String>());
+            Set<ColumnDefinition> statics = batchedStatics.computeIfAbsent(key, k -> new HashSet<ColumnDefinition>());
+            List<ColumnDefinition> writeStatics = staticColumns(write);
+            if (batches.isEmpty() || ids.contains(write.id) || !Collections.disjoint(statics, writeStatics)) {
+                batches.add(new ArrayList<Integer>());
+                ids.clear();
+                statics.clear();
+            }
+            ids.add(write.id);
+            statics.addAll(writeStatics);
+            batches.get(batches.size() - 1).add(i);
+        }
+        final List<List<Integer>> groups = new ArrayList<>();
+        for (List<List<Integer>> batches : partitions.values())
+            groups.addAll(batches);
+        for (List<Integer> group : groups) {
+            try {
+                if (group.size() == 1) {
+                    DocumentWrite write = writes.get(group.get(0));
+                    process(write.cl, null, write.prepared, write.values);
+                } else {
+                    processPartitionBatch(writes, group);
+                }
+            } catch (Exception e) {
+                if (logger.isDebugEnabled())
+                    logger.debug("failed to apply {} document writes", group.size(), e);
+                for (Integer i : group)
+                    failures[i] = e;
+            }
+        }
+        return failures;
     }
     
-    public void insertDocument(final IndicesService indicesService, final IndexRequest request, final IndexMetaData indexMetaData) throws Exception {
-        upsertDocument(indicesService, request, indexMetaData, false);
+    private static List<ColumnDefinition> staticColumns(final DocumentWrite write) {
+        List<ColumnDefinition> statics = new ArrayList<>();
+        for (ColumnDefinition cd : ((ModificationStatement) write.prepared.statement).updatedColumns().statics)
+            statics.add(cd);
+        return statics;
     }
     
-    private void upsertDocument(final IndicesService indicesService, final IndexRequest request, final IndexMetaData indexMetaData, boolean updateOperation) throws Exception {
+    private void processPartitionBatch(final List<DocumentWrite> writes, final List<Integer> group) 
+            throws RequestExecutionException, RequestValidationException {
+        final List<ModificationStatement> statements = new ArrayList<>(group.size());
+        final List<List<ByteBuffer>> values = new ArrayList<>(group.size());
+        final List<Object> queries = new ArrayList<>(group.size());
+        int boundTerms = 0;
+        for (Integer i : group) {
+            DocumentWrite write = writes.get(i);
+            statements.add((ModificationStatement) write.prepared.statement);
+            values.add(write.values);
+            queries.add(write.prepared.rawCQLStatement);
+            boundTerms += write.prepared.statement.getBoundTerms();
+        }
+        final ConsistencyLevel cl = writes.get(group.get(0)).cl;
+        final BatchStatement batch = new BatchStatement(boundTerms, BatchStatement.Type.UNLOGGED, statements, Attributes.none());
+        final BatchQueryOptions options = BatchQueryOptions.withPerStatementVariables(QueryOptions.forInternalCalls(cl, null, Collections.emptyList()), values, queries);
+        if (logger.isTraceEnabled())
+            logger.trace("processing UNLOGGED batch of {} statements CL={}", statements.size(), cl);
+        ClientState.getCQLQueryHandler().processBatch(batch, new QueryState(ClientState.forInternalCalls()), options, Collections.EMPTY_MAP, System.nanoTime());
+    }
+    
+    /**
+     * Parse the document source and build its prepared INSERT and bound values.
+     * The source is parsed once, only values of fields backed by a CQL column are materialized.
+     * @param checkUnmapped if true, return null when the source contains unmapped fields or metadata fields, 
+     *        so that the caller can parse the document with the {@link DocumentMapper} and update the mapping before retrying.
+     */
+    public DocumentWrite prepareDocumentWrite(final IndicesService indicesService, final IndexRequest request, final IndexMetaData indexMetaData, boolean checkUnmapped) throws Exception {
         final IndexService indexService = indicesService.indexService(indexMetaData.getIndex());
         final IndexShard indexShard = indexService.getShard(0);
         
-        final SourceToParse sourceToParse = SourceToParse.source(SourceToParse.Origin.PRIMARY, request.index(), request.type(), request.id(), request.source(), XContentType.JSON);
-        if (request.routing() != null)
-            sourceToParse.routing(request.routing());
-        if (request.parent() != null)
-            sourceToParse.parent(request.parent());
-        if (request.timestamp() != null)
-            sourceToParse.timestamp(request.timestamp());
-        if (request.ttl() != null)
-            sourceToParse.ttl(request.ttl());
-
         final String keyspaceName = indexMetaData.keyspace();
         final String cfName = typeToCfName(request.type());
-
-        final Engine.Index operation = indexShard.prepareIndexOnPrimary(sourceToParse, request.version(), request.versionType(), request.getAutoGeneratedTimestamp(), false);
-        final Mapping update = operation.parsedDoc().dynamicMappingsUpdate();
+        final CFMetaData metadata = getCFMetaData(keyspaceName, cfName);
         final boolean dynamicMappingEnable = indexService.mapperService().dynamic();
-        if (update != null && dynamicMappingEnable) {
-            if (logger.isDebugEnabled()) 
-                logger.debug("Document source={} require a blocking mapping update of [{}]", request.sourceAsMap(), indexService.index().getName());
-            // blocking Elasticsearch mapping update (required to update cassandra schema before inserting a row, this is the cost of dynamic mapping)
-            blockingMappingUpdate(indexService, request.type(), update.toString());
-        }
 
-        // get the docMapper after a potential mapping update
         final DocumentMapper docMapper = indexShard.mapperService().documentMapperWithAutoCreate(request.type()).getDocumentMapper();
-        
-        // insert document into cassandra keyspace=index, table = type
-        final Map<String, Object> sourceMap = request.sourceAsMap();
         final Map<String, ObjectMapper> objectMappers = docMapper.objectMappers();
         final DocumentFieldMappers fieldMappers = docMapper.mappers();
+        
+        // insert document into cassandra keyspace=index, table = type
+        final Map<String, Object> sourceMap = new HashMap<String, Object>();
+        try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY, request.source(), request.getContentType())) {
+            XContentParser.Token token = parser.nextToken();
+            if (token != XContentParser.Token.START_OBJECT)
+                throw new MapperParsingException("Malformed content, must start with an object");
+            while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+                final String field = parser.currentName();
+                token = parser.nextToken();
+                if (checkUnmapped && MapperService.isMetadataField(field))
+                    return null;
+                Mapper mapper = fieldMappers.getMapper(field);
+                if (mapper == null)
+                    mapper = objectMappers.get(field);
+                if (mapper == null && checkUnmapped && dynamicMappingEnable) {
+                    if (logger.isDebugEnabled()) 
+                        logger.debug("Document id=[{}] has unmapped field [{}] in index [{}]", request.id(), field, indexService.index().getName());
+                    return null;
+                }
+                if (metadata.getColumnDefinition( (mapper == null) ? ByteBufferUtil.bytes(field) : mapper.cqlName() ) == null) {
+                    parser.skipChildren();
+                    continue;
+                }
+                final Object value = readValue(parser, token);
+                if (checkUnmapped && dynamicMappingEnable && hasUnmappedFields(mapper, value)) {
+                    if (logger.isDebugEnabled()) 
+                        logger.debug("Document id=[{}] has unmapped sub-fields of [{}] in index [{}]", request.id(), field, indexService.index().getName());
+                    return null;
+                }
+                sourceMap.put(field, value);
+            }
+        }
 
         Long timestamp = null;
         if (docMapper.timestampFieldMapper().enabled() && request.timestamp() != null) {
@@ -2292,10 +2634,8 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
                 indexService.index().getName(), cfName, request.id(), sourceMap, 
                 request.waitForActiveShards().toCassandraConsistencyLevel(), request.ttl());
 
-        final CFMetaData metadata = getCFMetaData(keyspaceName, cfName);
-        
-        String id = request.id();
-        Map<String, ByteBuffer> map = new HashMap<String, ByteBuffer>();
+        // sorted column names, so that documents with the same columns share the same prepared statement.
+        Map<String, ByteBuffer> map = new TreeMap<String, ByteBuffer>();
         if (request.parent() != null) 
             sourceMap.put(ParentFieldMapper.NAME, request.parent());
         
@@ -2319,7 +2659,7 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
             ByteBuffer colName;
             if (mapper == null) {
                 if (dynamicMappingEnable)
-                    throw new MapperException("Unmapped field ["+field+"]");
+                    throw new MapperParsingException("Unmapped field ["+field+"]");
                 colName = ByteBufferUtil.bytes(field);
             } else {
                 colName = mapper.cqlName();    // cached ByteBuffer column name.
@@ -2375,25 +2715,25 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
                     }
                     
                     map.put(field, serialize(request.index(), cfName, cd.type, field, fieldValue, mapper));
+                } catch (MapperParsingException e) {
+                    throw e;
                 } catch (Exception e) {
                     logger.error("[{}].[{}] failed to parse field {}={}", e, request.index(), cfName, field, fieldValue );
-                    throw e;
+                    throw new MapperParsingException("failed to parse [" + field + "]", e);
                 }
             }
         }
         
-        String query;
-        ByteBuffer[] values;
+        map.remove(TokenFieldMapper.NAME);
+        final Long ttl = (request.ttl() != null && request.ttl().getSeconds() > 0) ? request.ttl().getSeconds() : null;
+        final ConsistencyLevel cl = request.waitForActiveShards().toCassandraConsistencyLevel();
+        final List<ByteBuffer> partitionKey = new ArrayList<>(metadata.partitionKeyColumns().size());
+        for (ColumnDefinition cd : metadata.partitionKeyColumns())
+            partitionKey.add(map.get(cd.name.toString()));
         if (request.opType() == DocWriteRequest.OpType.CREATE) {
-            values = new ByteBuffer[map.size()];
-            query = buildInsertQuery(keyspaceName, cfName, map, id, 
-                    true,                
-                    (request.ttl() != null) ? request.ttl().getSeconds() : null, // ttl
-                    timestamp,
-                    values, 0);
-            final boolean applied = processWriteConditional(request.waitForActiveShards().toCassandraConsistencyLevel(), ConsistencyLevel.LOCAL_SERIAL, query, (Object[])values);
-            if (!applied)
-                throw new VersionConflictEngineException(indexShard.shardId(), cfName, request.id(), "PAXOS insert failed, document already exists");
+            final ParsedStatement.Prepared prepared = indexService.insertStatementCache().getOrPrepare(cfName, map.keySet(), true, 
+                    () -> buildInsertQuery(keyspaceName, cfName, map.keySet(), true));
+            return new DocumentWrite(indexShard.shardId(), cfName, request.id(), prepared, insertValues(map, true, ttl, timestamp), cl, true, partitionKey);
         } else {
             // set empty top-level fields to null to overwrite existing columns.
             for(FieldMapper m : fieldMappers) {
@@ -2405,48 +2745,95 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
                 if (map.get(m) == null && m.indexOf('.') == -1 && metadata.getColumnDefinition(objectMappers.get(m).cqlName()) != null)
                     map.put(m, null);
             }
-            values = new ByteBuffer[map.size()];
-            query = buildInsertQuery(keyspaceName, cfName, map, id, 
-                    false,      
-                    (request.ttl() != null) ? request.ttl().getSeconds() : null,
-                    timestamp,
-                    values, 0);
-            process(request.waitForActiveShards().toCassandraConsistencyLevel(), query, (Object[])values);
+            final ParsedStatement.Prepared prepared = indexService.insertStatementCache().getOrPrepare(cfName, map.keySet(), false, 
+                    () -> buildInsertQuery(keyspaceName, cfName, map.keySet(), false));
+            return new DocumentWrite(indexShard.shardId(), cfName, request.id(), prepared, insertValues(map, false, ttl, timestamp), cl, false, partitionKey);
         }
     }
 
-    public String buildInsertQuery(final String ksName, final String cfName, Map<String, ByteBuffer> map, String id, final boolean ifNotExists, final Long ttl, 
-            final Long writetime, ByteBuffer[] values, int valuesOffset) throws Exception {
+    /**
+     * Read the current value of the parser, as {@link XContentParser#map()} does.
+     */
+    private static Object readValue(final XContentParser parser, final XContentParser.Token token) throws IOException {
+        switch (token) {
+        case START_OBJECT:
+            return parser.map();
+        case START_ARRAY:
+            return parser.list();
+        case VALUE_STRING:
+            return parser.text();
+        case VALUE_NUMBER:
+            return parser.numberValue();
+        case VALUE_BOOLEAN:
+            return parser.booleanValue();
+        case VALUE_EMBEDDED_OBJECT:
+            return parser.binaryValue();
+        default:
+            return null;
+        }
+    }
+    
+    /**
+     * Return true if an object value contains a sub-field not yet mapped by the object mapper.
+     */
+    private static boolean hasUnmappedFields(final Mapper mapper, final Object value) {
+        if (value instanceof Map) {
+            if (!(mapper instanceof ObjectMapper))
+                return false;
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                Mapper subMapper = ((ObjectMapper) mapper).getMapper(entry.getKey());
+                if (subMapper == null || hasUnmappedFields(subMapper, entry.getValue()))
+                    return true;
+            }
+        } else if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                if (hasUnmappedFields(mapper, element))
+                    return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Build an INSERT query with bind markers for column values, TTL and TIMESTAMP (TIMESTAMP is not allowed for conditional updates).
+     */
+    public String buildInsertQuery(final String ksName, final String cfName, final Collection<String> columns, final boolean ifNotExists) {
         final StringBuilder questionsMarks = new StringBuilder();
         final StringBuilder columnNames = new StringBuilder();
         
-        int i=0;
-        for (Entry<String,ByteBuffer> entry : map.entrySet()) {
-            if (entry.getKey().equals(TokenFieldMapper.NAME)) 
-                continue;
-            
+        for (String column : columns) {
             if (columnNames.length() > 0) {
                 columnNames.append(',');
                 questionsMarks.append(',');
             }
-            columnNames.append("\"").append(entry.getKey()).append("\"");
+            columnNames.append("\"").append(column).append("\"");
             questionsMarks.append('?');
-            values[valuesOffset + i] = entry.getValue();
-            i++;
         }
         
         final StringBuilder query = new StringBuilder();
         query.append("INSERT INTO \"").append(ksName).append("\".\"").append(cfName)
              .append("\" (").append(columnNames.toString()).append(") VALUES (").append(questionsMarks.toString()).append(") ");
-        if (ifNotExists) query.append("IF NOT EXISTS ");
-        if (ttl != null && ttl > 0 || writetime != null) query.append("USING ");
-        if (ttl != null && ttl > 0) query.append("TTL ").append(Long.toString(ttl));
-        if (ttl != null &&ttl > 0 && writetime != null) query.append(" AND ");
-        if (writetime != null) query.append("TIMESTAMP ").append(Long.toString(writetime*1000));
-        
+        if (ifNotExists) 
+            query.append("IF NOT EXISTS USING TTL ?");
+        else
+            query.append("USING TTL ? AND TIMESTAMP ?");
         return query.toString();
     }
     
+    /**
+     * Bound values of an INSERT built by {@link #buildInsertQuery(String, String, Collection, boolean)}, unset TTL or TIMESTAMP fallback to the table defaults.
+     */
+    public static List<ByteBuffer> insertValues(final Map<String, ByteBuffer> map, final boolean ifNotExists, final Long ttl, final Long writetime) {
+        if (ifNotExists && writetime != null)
+            throw new InvalidRequestException("Cannot provide custom timestamp for conditional updates");
+        List<ByteBuffer> values = new ArrayList<ByteBuffer>(map.size() + 2);
+        values.addAll(map.values());
+        values.add( (ttl != null) ? Int32Type.instance.decompose(ttl.intValue()) : ByteBufferUtil.UNSET_BYTE_BUFFER );
+        if (!ifNotExists)
+            values.add( (writetime != null) ? LongType.instance.decompose(writetime*1000) : ByteBufferUtil.UNSET_BYTE_BUFFER );
+        return values;
+    }
+    
     
     public BytesReference source(IndexService indexService, DocumentMapper docMapper, Map sourceAsMap, Uid uid) throws JsonParseException, JsonMappingException, IOException {
         if (docMapper.sourceMapper().enabled()) {
@@ -2485,7 +2872,6 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
         
         if (id.startsWith("[") && id.endsWith("]")) {
             // _id is JSON array of values.
-            org.codehaus.jackson.map.ObjectMapper jsonMapper = new org.codehaus.jackson.map.ObjectMapper();
             Object[] elements = jsonMapper.readValue(id, Object[].class);
             Object[] values = (map != null) ? null : new Object[elements.length];
             String[] names = (map != null) ? null : new String[elements.length];
@@ -2523,7 +2909,6 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
         int ptLen = partitionColumns.size();
         if (routing.startsWith("[") && routing.endsWith("]")) {
             // _routing is JSON array of values.
-            org.codehaus.jackson.map.ObjectMapper jsonMapper = new org.codehaus.jackson.map.ObjectMapper();
             Object[] elements = jsonMapper.readValue(routing, Object[].class);
             Object[] values = new Object[elements.length];
             String[] names = new String[elements.length];
@@ -2535,7 +2920,6 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
                 AbstractType<?> atype = cd.type;
                 names[i] = cd.name.toString();
                 values[i] = atype.compose( fromString(atype, elements[i].toString()) );
-                i++;
             }
             return new DocPrimaryKey(names, values) ;
         } else {
@@ -2567,7 +2951,6 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
         CFMetaData metadata = getCFMetaData(indexService.keyspace(), typeToCfName(uid.type()));
         String id = uid.id();
         if (id.startsWith("[") && id.endsWith("]")) {
-            org.codehaus.jackson.map.ObjectMapper jsonMapper = new org.codehaus.jackson.map.ObjectMapper();
             Object[] elements = jsonMapper.readValue(id, Object[].class);
             return metadata.clusteringColumns().size() > 0 && elements.length == metadata.partitionKeyColumns().size();
         } else {
@@ -2688,12 +3071,7 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
     
     public MetaData readInternalMetaDataAsRow() throws NoPersistedMetaDataException {
         try {
-            UntypedResultSet rs = QueryProcessor.executeInternal(selectMetadataQuery, DatabaseDescriptor.getClusterName());
-            if (rs != null && !rs.isEmpty()) {
-                Row row = rs.one();
-                if (row.has("metadata"))
-                    return parseMetaDataString(row.getString("metadata"));
-            }
+            return readMetaData(null);
         } catch (Exception e) {
             logger.warn("Cannot read metadata locally",e);
         }
@@ -2702,12 +3080,9 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
     
     public MetaData readMetaDataAsRow(ConsistencyLevel cl) throws NoPersistedMetaDataException {
         try {
-            UntypedResultSet rs = process(cl, ClientState.forInternalCalls(), selectMetadataQuery, DatabaseDescriptor.getClusterName());
-            if (rs != null && !rs.isEmpty()) {
-                Row row = rs.one();
-                if (row.has("metadata"))
-                    return parseMetaDataString(row.getString("metadata"));
-            }
+            MetaData metaData = readMetaData(cl);
+            if (metaData != null)
+                return metaData;
         } catch (UnavailableException e) {
             logger.warn("Cannot read metadata with consistency="+cl,e);
             return null;
@@ -2720,7 +3095,120 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
         throw new NoPersistedMetaDataException("Unexpected error");
     }
     
+    /**
+     * Read the metadata parts, or the legacy metadata row when parts are not yet written or when the legacy row 
+     * has been updated by a node running a previous version.
+     * @param cl consistency level, or null to read locally.
+     * @return the persisted metadata, or null.
+     */
+    private MetaData readMetaData(ConsistencyLevel cl) throws IOException {
+        MetaData metaData = readMetaDataParts(cl);
+        if (metaData == null || (metadataLegacyRow && readLegacyMetaDataVersion(cl) > metaData.version())) {
+            UntypedResultSet rs = selectMetaData(cl, selectMetadataQuery, DatabaseDescriptor.getClusterName());
+            if (rs != null && !rs.isEmpty()) {
+                Row row = rs.one();
+                if (row.has("metadata")) {
+                    MetaData legacyMetaData = parseMetaDataString(row.getString("metadata"));
+                    if (metaData == null || legacyMetaData.version() > metaData.version())
+                        return legacyMetaData;
+                }
+            }
+        }
+        return metaData;
+    }
+    
+    /**
+     * @return true if the metadata is also written in the legacy metadata row.
+     */
+    public boolean metadataLegacyRow() {
+        return metadataLegacyRow;
+    }
+    
+    private long readLegacyMetaDataVersion(ConsistencyLevel cl) {
+        UntypedResultSet rs = selectMetaData(cl, selectLegacyVersionMetadataQuery, DatabaseDescriptor.getClusterName());
+        if (rs != null && !rs.isEmpty()) {
+            Row row = rs.one();
+            if (row.has("version"))
+                return row.getLong("version");
+        }
+        return -1L;
+    }
+    
+    /**
+     * Read the metadata parts, only fetching the global part and the index parts updated since the last read or write.
+     * @param cl consistency level, or null to read locally.
+     * @return the persisted metadata, or null when not yet persisted as parts.
+     */
+    private MetaData readMetaDataParts(ConsistencyLevel cl) throws IOException {
+        if (Schema.instance.getCFMetaData(elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_PARTS_TABLE) == null)
+            return null;
+        for(int attempt = 0; attempt < 3; attempt++) {
+            final Map<String, Long> versions = new HashMap<String, Long>();
+            for(Row row : selectMetaData(cl, selectMetadataPartVersionsQuery, DatabaseDescriptor.getClusterName()))
+                versions.put(row.getString("part"), row.getLong("version"));
+            final Long version = versions.get(GLOBAL_METADATA_PART);
+            if (version == null)
+                return null;
+            
+            final List<String> partsToRead = new ArrayList<String>();
+            for(Map.Entry<String, Long> entry : versions.entrySet()) {
+                Tuple<Long, IndexMetaData> part = metadataParts.get(entry.getKey());
+                if (part == null || part.v1().longValue() != entry.getValue().longValue())
+                    partsToRead.add(entry.getKey());
+            }
+            
+            MetaData globalMetaData = null;
+            final Map<String, Tuple<Long, IndexMetaData>> readParts = new HashMap<String, Tuple<Long, IndexMetaData>>();
+            for(Row row : selectMetaData(cl, selectMetadataPartsQuery, DatabaseDescriptor.getClusterName(), partsToRead)) {
+                BytesReference bytes = new BytesArray(ByteBufferUtil.getArray(row.getBytes("metadata")));
+                if (GLOBAL_METADATA_PART.equals(row.getString("part"))) {
+                    globalMetaData = (row.getLong("version") == version) ? metaStateService.loadGlobalState(bytes) : null;
+                } else {
+                    readParts.put(row.getString("part"), new Tuple<Long, IndexMetaData>(row.getLong("version"), metaStateService.loadIndexState(bytes)));
+                }
+            }
+            if (globalMetaData == null) {
+                // metadata updated between our two reads.
+                logger.debug("metadata updated while reading parts, version={}", version);
+                continue;
+            }
+            
+            MetaData.Builder builder = MetaData.builder(globalMetaData);
+            for(String part : versions.keySet()) {
+                if (GLOBAL_METADATA_PART.equals(part))
+                    continue;
+                Tuple<Long, IndexMetaData> indexPart = readParts.containsKey(part) ? readParts.get(part) : metadataParts.get(part);
+                if (indexPart != null)
+                    builder.put(indexPart.v2(), false);
+            }
+            metadataParts.keySet().retainAll(versions.keySet());
+            metadataParts.putAll(readParts);
+            logger.debug("Read metadata version={} with {}/{} parts", version, partsToRead.size(), versions.size());
+            return builder.build();
+        }
+        throw new NoPersistedMetaDataException("Concurrent updates while reading "+elasticAdminKeyspaceName+"."+ELASTIC_ADMIN_METADATA_PARTS_TABLE);
+    }
+    
+    private UntypedResultSet selectMetaData(ConsistencyLevel cl, String query, Object... values) {
+        return (cl == null) ? QueryProcessor.executeInternal(query, values) : process(cl, ClientState.forInternalCalls(), query, values);
+    }
+    
+    /**
+     * @return the persisted metadata version, including updates of the legacy metadata row by nodes running a previous version.
+     */
     public Long readMetaDataVersion(ConsistencyLevel cl) throws NoPersistedMetaDataException {
+        long version = readMetaDataPartsVersion(cl);
+        if (metadataLegacyRow) {
+            try {
+                version = Math.max(version, readLegacyMetaDataVersion(cl));
+            } catch (Exception e) {
+                logger.warn("unexpected error", e);
+            }
+        }
+        return version;
+    }
+    
+    private long readMetaDataPartsVersion(ConsistencyLevel cl) {
         try {
             UntypedResultSet rs = process(cl, ClientState.forInternalCalls(), selectVersionMetadataQuery, DatabaseDescriptor.getClusterName());
             if (rs != null && !rs.isEmpty()) {
@@ -2811,19 +3299,34 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
         return null;
     }
 
-    // initialize a first row if needed
-    Void insertFirstMetaRow(final MetaData metadata, final String metaDataString) {
+    // Create the metadata parts table if needed, one row per index plus the global metadata row.
+    Void createElasticAdminMetaPartsTable() {
         try {
-            logger.info(insertMetadataQuery);
-            process(ConsistencyLevel.LOCAL_ONE, ClientState.forInternalCalls(), insertMetadataQuery,
-                DatabaseDescriptor.getClusterName(), UUID.fromString(StorageService.instance.getLocalHostId()), metadata.version(), metaDataString);
+            String createTable = String.format(Locale.ROOT, "CREATE TABLE IF NOT EXISTS \"%s\".%s ( cluster_name text, part text, owner uuid, version bigint, metadata blob, PRIMARY KEY (cluster_name, part));",
+                elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_PARTS_TABLE);
+            logger.info(createTable);
+            process(ConsistencyLevel.LOCAL_ONE, ClientState.forInternalCalls(), createTable);
         } catch (Exception e) {
-            logger.error((Supplier<?>) () -> new ParameterizedMessage("Failed insert first row into table {}.{}", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE), e);
+            logger.error((Supplier<?>) () -> new ParameterizedMessage("Failed to initialize table {}.{}", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_PARTS_TABLE), e);
             throw e;
         }
         return null;
     }
 
+    // initialize the first metadata parts, and the legacy metadata row, if needed
+    Void insertFirstMetaRow(final MetaData metadata, final String metaDataString) {
+        try {
+            if (metadataLegacyRow)
+                process(ConsistencyLevel.LOCAL_ONE, ClientState.forInternalCalls(), insertMetadataQuery,
+                    DatabaseDescriptor.getClusterName(), UUID.fromString(StorageService.instance.getLocalHostId()), metadata.version(), metaDataString);
+            writeMetaDataParts(ConsistencyLevel.LOCAL_ONE, UUID.fromString(StorageService.instance.getLocalHostId()), metadata, metadata, Collections.emptyList(), "IF NOT EXISTS", null);
+        } catch (Exception e) {
+            logger.error((Supplier<?>) () -> new ParameterizedMessage("Failed insert first rows into table {}.{}", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_PARTS_TABLE), e);
+            throw new NoPersistedMetaDataException("Failed to insert first metadata rows", e);
+        }
+        return null;
+    }
+
     void retry (final Supplier<Void> function, final String label) {
         for (int i = 0; ; ++i) {
             try {
@@ -2858,7 +3361,8 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
                 // create elastic_admin if not exists after joining the ring and before allowing metadata update.
                 retry(() -> createElasticAdminKeyspace(), "create elastic admin keyspace");
                 retry(() -> createElasticAdminMetaTable(metaDataString), "create elastic admin metadata table");
-                retry(() -> insertFirstMetaRow(metadata, metaDataString), "write first row to metadata table");
+                retry(() -> createElasticAdminMetaPartsTable(), "create elastic admin metadata parts table");
+                retry(() -> insertFirstMetaRow(metadata, metaDataString), "write first rows to metadata tables");
                 logger.info("Succefully initialize {}.{} = {}", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE, metaDataString);
                 try {
                     writeMetaDataAsComment(metaDataString, metadata.version());
@@ -2894,6 +3398,10 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
             } else {
                 logger.info("Keep unchanged keyspace={} datacenter={} RF={}", elasticAdminKeyspaceName, DatabaseDescriptor.getLocalDataCenter(), targetRF);
             }
+            
+            // upgrade from the single row metadata table, parts are written by the next metadata update.
+            if (Schema.instance.getCFMetaData(elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_PARTS_TABLE) == null)
+                retry(() -> createElasticAdminMetaPartsTable(), "create elastic admin metadata parts table");
         }
     }
     
@@ -2918,16 +3426,42 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
             return;
         }
 
-        String metaDataString = MetaData.Builder.toXContent(newMetaData, MetaData.CASSANDRA_FORMAT_PARAMS);
+        // only write the global part and the updated index parts, conditionally to the previous version.
+        final Map<String, IndexMetaData> removedIndices = new HashMap<String, IndexMetaData>();
+        for(IndexMetaData indexMetaData : oldMetaData)
+            removedIndices.put(indexMetaData.getIndexUUID(), indexMetaData);
+        final List<IndexMetaData> updatedIndices = new ArrayList<IndexMetaData>();
+        for(IndexMetaData indexMetaData : newMetaData) {
+            IndexMetaData previous = removedIndices.remove(indexMetaData.getIndexUUID());
+            if (previous == null || (previous != indexMetaData && !previous.equals(indexMetaData)))
+                updatedIndices.add(indexMetaData);
+        }
+        
         UUID owner = UUID.fromString(localNode().getId());
-        boolean applied = processWriteConditional(
-                this.metadataWriteCL,
-                this.metadataSerialCL,
-                ClientState.forInternalCalls(),
-                updateMetaDataQuery,
-                new Object[] { owner, newMetaData.version(), metaDataString, DatabaseDescriptor.getClusterName(), newMetaData.version() });
+        String metaDataString = MetaData.Builder.toXContent(newMetaData, MetaData.CASSANDRA_FORMAT_PARAMS);
+        // the parts are the source of truth, the legacy row is only rebuilt from the new metadata once they are written.
+        boolean applied = writeMetaDataParts(this.metadataWriteCL, owner, newMetaData, updatedIndices, removedIndices.keySet(), "IF version = ?", oldMetaData.version());
+        if (!applied) {
+            // stored parts may not match the previous metadata (updated by a node running a previous version),
+            // rewrite all parts if they are not from a newer version.
+            long storedVersion = readMetaDataPartsVersion(this.metadataReadCL);
+            if (storedVersion < 0) {
+                applied = writeMetaDataParts(this.metadataWriteCL, owner, newMetaData, newMetaData, Collections.emptyList(), "IF NOT EXISTS", null);
+            } else if (storedVersion < oldMetaData.version()) {
+                Set<String> staleParts = new HashSet<String>();
+                for(Row row : process(this.metadataReadCL, ClientState.forInternalCalls(), selectMetadataPartVersionsQuery, DatabaseDescriptor.getClusterName()))
+                    staleParts.add(row.getString("part"));
+                staleParts.remove(GLOBAL_METADATA_PART);
+                for(IndexMetaData indexMetaData : newMetaData)
+                    staleParts.remove(indexMetaData.getIndexUUID());
+                applied = writeMetaDataParts(this.metadataWriteCL, owner, newMetaData, newMetaData, staleParts, "IF version < ?", newMetaData.version());
+            }
+        }
         if (applied) {
-            logger.debug("PAXOS Succefully update metadata source={} newMetaData={} in cluster {}", source, metaDataString, DatabaseDescriptor.getClusterName());
+            logger.debug("PAXOS Succefully update metadata source={} version={} updatedIndices={} removedIndices={} in cluster {}", 
+                    source, newMetaData.version(), updatedIndices.size(), removedIndices.size(), DatabaseDescriptor.getClusterName());
+            if (metadataLegacyRow)
+                writeLegacyMetaDataRow(owner, newMetaData, metaDataString);
             writeMetaDataAsComment(metaDataString, newMetaData.version());
             return;
         } else {
@@ -2936,6 +3470,87 @@ public class ClusterService extends org.elasticsearch.cluster.service.BaseCluste
             throw new ConcurrentMetaDataUpdateException(owner, newMetaData.version());
         }
     }
+    
+    /**
+     * Copy the metadata persisted in the parts to the legacy metadata row, unless a node running a previous version has written a newer one.
+     * The parts are the source of truth, so a failure is only logged and the legacy row is rewritten on the next metadata update.
+     */
+    private void writeLegacyMetaDataRow(UUID owner, MetaData metaData, String metaDataString) {
+        try {
+            if (!processWriteConditional(this.metadataWriteCL, this.metadataSerialCL, ClientState.forInternalCalls(),
+                    updateMetaDataQuery, new Object[] { owner, metaData.version(), metaDataString, DatabaseDescriptor.getClusterName(), metaData.version() }))
+                logger.warn("legacy metadata row not updated to version {}, updated by a node running a previous version", metaData.version());
+        } catch (Exception e) {
+            logger.warn("Failed to update the legacy metadata row to version {}", metaData.version(), e);
+        }
+    }
+    
+    /**
+     * Write the global metadata part and some index parts in a conditional batch on the cluster partition of the metadata_parts table.
+     * @param condition condition on the global part, IF NOT EXISTS or a version condition with a single bind marker.
+     * @return true if the batch was applied.
+     */
+    private boolean writeMetaDataParts(ConsistencyLevel cl, UUID owner, MetaData metaData, Iterable<IndexMetaData> updatedIndices, Collection<String> removedIndices,
+            String condition, Long conditionVersion) throws IOException {
+        final String clusterName = DatabaseDescriptor.getClusterName();
+        final long version = metaData.version();
+        final List<Object> values = new ArrayList<Object>();
+        final StringBuilder batch = new StringBuilder("BEGIN BATCH ");
+        final Map<String, Tuple<Long, IndexMetaData>> writtenParts = new HashMap<String, Tuple<Long, IndexMetaData>>();
+        
+        final ByteBuffer globalPart = metaDataPart(MetaData.builder(metaData).removeAllIndices().build());
+        if (conditionVersion == null) {
+            batch.append(insertMetadataPartQuery).append(' ').append(condition).append("; ");
+            values.addAll(Arrays.asList(clusterName, GLOBAL_METADATA_PART, owner, version, globalPart));
+        } else {
+            batch.append(updateMetadataPartQuery).append(' ').append(condition).append("; ");
+            values.addAll(Arrays.asList(owner, version, globalPart, clusterName, GLOBAL_METADATA_PART, conditionVersion));
+        }
+        for(IndexMetaData indexMetaData : updatedIndices) {
+            batch.append(updateMetadataPartQuery).append("; ");
+            values.addAll(Arrays.asList(owner, version, metaDataPart(indexMetaData), clusterName, indexMetaData.getIndexUUID()));
+            writtenParts.put(indexMetaData.getIndexUUID(), new Tuple<Long, IndexMetaData>(version, indexMetaData));
+        }
+        for(String indexUuid : removedIndices) {
+            batch.append(deleteMetadataPartQuery).append("; ");
+            values.addAll(Arrays.asList(clusterName, indexUuid));
+        }
+        batch.append("APPLY BATCH;");
+        
+        boolean applied = processWriteConditional(cl, this.metadataSerialCL, ClientState.forInternalCalls(), batch.toString(), values.toArray());
+        if (applied) {
+            metadataParts.keySet().removeAll(removedIndices);
+            metadataParts.putAll(writtenParts);
+        }
+        return applied;
+    }
+    
+    private ByteBuffer metaDataPart(MetaData globalMetaData) throws IOException {
+        XContentBuilder builder = XContentFactory.contentBuilder(XContentType.JSON);
+        builder.startObject();
+        MetaData.Builder.toXContent(globalMetaData, builder, MetaData.CASSANDRA_FORMAT_PARAMS);
+        builder.endObject();
+        return compressMetaDataPart(builder.bytes());
+    }
+    
+    private ByteBuffer metaDataPart(IndexMetaData indexMetaData) throws IOException {
+        XContentBuilder builder = XContentFactory.contentBuilder(XContentType.JSON);
+        builder.startObject();
+        IndexMetaData.Builder.toXContent(indexMetaData, builder, MetaData.CASSANDRA_FORMAT_PARAMS);
+        builder.endObject();
+        return compressMetaDataPart(builder.bytes());
+    }
+    
+    private ByteBuffer compressMetaDataPart(BytesReference bytes) throws IOException {
+        if (metadataCompressionThreshold >= 0 && bytes.length() > metadataCompressionThreshold) {
+            BytesStreamOutput out = new BytesStreamOutput();
+            try (StreamOutput compressed = CompressorFactory.COMPRESSOR.streamOutput(out)) {
+                bytes.writeTo(compressed);
+            }
+            bytes = out.bytes();
+        }
+        return ByteBuffer.wrap(BytesReference.toBytes(bytes));
+    }
 
     public static Collection flattenCollection(Collection c) {
         List l = new ArrayList(c.size());
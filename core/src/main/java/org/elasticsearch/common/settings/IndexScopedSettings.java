@@ -94,9 +94,16 @@ public final class IndexScopedSettings extends AbstractScopedSettings {
         IndexMetaData.INDEX_SYNCHRONOUS_REFRESH_SETTING,
         IndexMetaData.INDEX_SNAPSHOT_WITH_SSTABLE_SETTING,
         IndexMetaData.INDEX_TOKEN_RANGES_BITSET_CACHE_SETTING,
+        IndexMetaData.INDEX_TOKEN_BITSET_WARMER_SIZE_SETTING,
         IndexMetaData.INDEX_SETTING_KEYSPACE_SETTING,
         IndexMetaData.INDEX_INDEX_STATIC_COLUMNS_SETTING,
         IndexMetaData.INDEX_INDEX_STATIC_ONLY_SETTING,
+        IndexMetaData.INDEX_FETCH_BATCH_SIZE_SETTING,
+        IndexMetaData.INDEX_BULK_PARTITION_BATCH_SETTING,
+        IndexMetaData.INDEX_TRANSLOG_LESS_ENGINE_SETTING,
+        IndexMetaData.INDEX_SKIP_NOOP_UPDATES_SETTING,
+        IndexMetaData.INDEX_SORT_BY_TOKEN_SETTING,
+        IndexMetaData.INDEX_ASYNC_INDEXING_QUEUE_SIZE_SETTING,
         
         SearchSlowLog.INDEX_SEARCH_SLOWLOG_THRESHOLD_FETCH_DEBUG_SETTING,
         SearchSlowLog.INDEX_SEARCH_SLOWLOG_THRESHOLD_FETCH_WARN_SETTING,
@@ -24,9 +24,12 @@ import org.apache.logging.log4j.util.Supplier;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.component.AbstractComponent;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.env.NodeEnvironment;
 import org.elasticsearch.index.Index;
 
@@ -138,6 +141,24 @@ public class MetaStateService extends AbstractComponent {
         }
     }
 
+    /**
+     * Decode the global state, without index state, from possibly compressed XContent bytes.
+     */
+    public MetaData loadGlobalState(BytesReference bytes) throws IOException {
+        try (XContentParser parser = XContentHelper.createParser(namedXContentRegistry, bytes)) {
+            return MetaData.addDefaultUnitsIfNeeded(logger, MetaData.Builder.fromXContent(parser));
+        }
+    }
+
+    /**
+     * Decode an index state from possibly compressed XContent bytes.
+     */
+    public IndexMetaData loadIndexState(BytesReference bytes) throws IOException {
+        try (XContentParser parser = XContentHelper.createParser(namedXContentRegistry, bytes)) {
+            return IndexMetaData.Builder.fromXContent(parser);
+        }
+    }
+
     /**
      * Writes the index state.
      *
@@ -25,6 +25,9 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.IOUtils;
+import org.elassandra.index.AsyncIndexingQueue;
+import org.elassandra.index.InsertStatementCache;
+import org.elassandra.index.search.FetchStatementCache;
 import org.elassandra.index.search.TokenRangesBitsetFilterCache;
 import org.elassandra.search.SearchProcessorFactory;
 import org.elasticsearch.client.Client;
@@ -32,6 +35,8 @@ import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.routing.ShardRouting;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.metrics.CounterMetric;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.BigArrays;
@@ -97,6 +102,13 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
     private final IndexFieldDataService indexFieldData;
     private final BitsetFilterCache bitsetFilterCache;
     protected final TokenRangesBitsetFilterCache tokenRangesBitsetFilterCache;
+    protected final FetchStatementCache fetchStatementCache;
+    protected final InsertStatementCache insertStatementCache;
+    protected final AsyncIndexingQueue asyncIndexingQueue;
+    
+    // secondary index read-before-write counters
+    private final CounterMetric readBeforeWriteCount = new CounterMetric();
+    private final CounterMetric readBeforeWriteAvoidedCount = new CounterMetric();
     private final NodeEnvironment nodeEnv;
     private final ShardStoreDeleter shardStoreDeleter;
     private final IndexStore indexStore;
@@ -165,10 +177,15 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
         this.bitsetFilterCache = new BitsetFilterCache(indexSettings, new BitsetCacheListener(this));
         
         this.tokenRangesBitsetFilterCache = new TokenRangesBitsetFilterCache(indexSettings, clusterService.tokenRangesService());
-        this.tokenRangesBitsetFilterCache.setListener(new TokenRangeBitsetCacheListener(this));
+        this.tokenRangesBitsetFilterCache.setListener(new TokenRangeBitsetCacheListener(this, circuitBreakerService.getBreaker(CircuitBreaker.FIELDDATA)));
+        this.fetchStatementCache = new FetchStatementCache(indexSettings);
+        this.insertStatementCache = new InsertStatementCache(indexSettings);
+        int asyncIndexingQueueSize = asyncIndexingQueueSize();
+        this.asyncIndexingQueue = (asyncIndexingQueueSize > 0) ? new AsyncIndexingQueue(indexSettings, asyncIndexingQueueSize) : null;
         this.searchProcessorFactory = searchProcessorFactory;
         
-        this.warmer = new IndexWarmer(indexSettings.getSettings(), threadPool, bitsetFilterCache.createListener(threadPool));
+        this.warmer = new IndexWarmer(indexSettings.getSettings(), threadPool, bitsetFilterCache.createListener(threadPool), 
+                tokenRangesBitsetFilterCache.createListener(threadPool, this::tokenBitsetWarmerSize));
         this.indexCache = new IndexCache(indexSettings, queryCache, bitsetFilterCache);
         this.indexCache.tokenRangeBitsetFilterCache(this.tokenRangesBitsetFilterCache);
         
@@ -251,6 +268,8 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
         if (closed.compareAndSet(false, true)) {
             deleted.compareAndSet(false, delete);
             try {
+                // apply pending lucene operations before closing shards.
+                IOUtils.close(asyncIndexingQueue);
                 final Set<Integer> shardIds = shardIds();
                 for (final int shardId : shardIds) {
                     try {
@@ -260,7 +279,7 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
                     }
                 }
             } finally {
-                IOUtils.close(bitsetFilterCache, tokenRangesBitsetFilterCache, indexCache, indexFieldData, mapperService, refreshTask, fsyncTask);
+                IOUtils.close(bitsetFilterCache, tokenRangesBitsetFilterCache, fetchStatementCache, insertStatementCache, indexCache, indexFieldData, mapperService, refreshTask, fsyncTask);
             }
         }
     }
@@ -273,6 +292,56 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
         return this.indexSettings.getSettings().getAsBoolean(IndexMetaData.SETTING_TOKEN_RANGES_BITSET_CACHE, this.clusterService.settings().getAsBoolean(ClusterService.SETTING_CLUSTER_TOKEN_RANGES_BITSET_CACHE, Boolean.getBoolean(ClusterService.SETTING_SYSTEM_TOKEN_RANGES_BITSET_CACHE)));
     }
     
+    public int tokenBitsetWarmerSize() {
+        return this.indexSettings.getSettings().getAsInt(IndexMetaData.SETTING_TOKEN_BITSET_WARMER_SIZE, this.clusterService.settings().getAsInt(ClusterService.SETTING_CLUSTER_TOKEN_BITSET_WARMER_SIZE, Integer.getInteger(ClusterService.SETTING_SYSTEM_TOKEN_BITSET_WARMER_SIZE, 4)));
+    }
+    
+    public FetchStatementCache fetchStatementCache() {
+        return this.fetchStatementCache;
+    }
+    
+    public InsertStatementCache insertStatementCache() {
+        return this.insertStatementCache;
+    }
+    
+    public int fetchBatchSize() {
+        return this.indexSettings.getSettings().getAsInt(IndexMetaData.SETTING_FETCH_BATCH_SIZE, this.clusterService.settings().getAsInt(ClusterService.SETTING_CLUSTER_FETCH_BATCH_SIZE, Integer.getInteger(ClusterService.SETTING_SYSTEM_FETCH_BATCH_SIZE, 0)));
+    }
+    
+    /**
+     * @return the asynchronous indexing queue, or null when lucene operations are synchronously applied.
+     */
+    @Nullable
+    public AsyncIndexingQueue asyncIndexingQueue() {
+        return this.asyncIndexingQueue;
+    }
+    
+    /**
+     * Account rows read before indexing, and rows indexed from the Cassandra update only.
+     */
+    public void onReadBeforeWrite(long readRows, long avoidedReadRows) {
+        if (readRows > 0)
+            readBeforeWriteCount.inc(readRows);
+        if (avoidedReadRows > 0)
+            readBeforeWriteAvoidedCount.inc(avoidedReadRows);
+    }
+    
+    public long readBeforeWriteCount() {
+        return readBeforeWriteCount.count();
+    }
+    
+    public long readBeforeWriteAvoidedCount() {
+        return readBeforeWriteAvoidedCount.count();
+    }
+    
+    public int asyncIndexingQueueSize() {
+        return this.indexSettings.getSettings().getAsInt(IndexMetaData.SETTING_ASYNC_INDEXING_QUEUE_SIZE, this.clusterService.settings().getAsInt(ClusterService.SETTING_CLUSTER_ASYNC_INDEXING_QUEUE_SIZE, Integer.getInteger(ClusterService.SETTING_SYSTEM_ASYNC_INDEXING_QUEUE_SIZE, 0)));
+    }
+    
+    public boolean isBulkPartitionBatchEnabled() {
+        return this.indexSettings.getSettings().getAsBoolean(IndexMetaData.SETTING_BULK_PARTITION_BATCH, this.clusterService.settings().getAsBoolean(ClusterService.SETTING_CLUSTER_BULK_PARTITION_BATCH, Boolean.getBoolean(ClusterService.SETTING_SYSTEM_BULK_PARTITION_BATCH)));
+    }
+    
     public ClusterService clusterService() {
         return this.clusterService;
     }
@@ -526,7 +595,12 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
 
     @Override
     public boolean updateMapping(IndexMetaData indexMetaData) throws IOException {
-        return mapperService().updateMapping(indexMetaData);
+        try {
+            return mapperService().updateMapping(indexMetaData);
+        } finally {
+            fetchStatementCache.clear("mapping update");
+            insertStatementCache.clear("mapping update");
+        }
     }
 
     private class StoreCloseListener implements Store.OnClose {
@@ -565,6 +639,8 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
 
         @Override
         public void onCache(ShardId shardId, Accountable accountable) {
+            // bitsets are evicted by the TokenRangesService, so never trip the breaker here.
+            breaker.addWithoutBreaking(accountable != null ? accountable.ramBytesUsed() : 0l);
             if (shardId != null) {
                 final IndexShard shard = indexService.getShardOrNull(shardId.id());
                 if (shard != null) {
@@ -576,6 +652,7 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
 
         @Override
         public void onRemoval(ShardId shardId, Accountable accountable) {
+            breaker.addWithoutBreaking(accountable != null ? -accountable.ramBytesUsed() : 0l);
             if (shardId != null) {
                 final IndexShard shard = indexService.getShardOrNull(shardId.id());
                 if (shard != null) {
@@ -588,9 +665,11 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
 
     private static final class TokenRangeBitsetCacheListener implements TokenRangesBitsetFilterCache.Listener {
         final IndexService indexService;
+        final CircuitBreaker breaker;
 
-        private TokenRangeBitsetCacheListener(IndexService indexService) {
+        private TokenRangeBitsetCacheListener(IndexService indexService, CircuitBreaker breaker) {
             this.indexService = indexService;
+            this.breaker = breaker;
         }
 
         @Override
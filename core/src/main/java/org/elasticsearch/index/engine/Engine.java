@@ -77,6 +77,7 @@ import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Comparator;
@@ -98,6 +99,9 @@ public abstract class Engine implements Closeable {
 
     public static final String SYNC_COMMIT_ID = "sync_id";
 
+    /** Numeric doc values field holding the digest of the indexed content of a document when index.skip_noop_updates is enabled. */
+    public static final String DIGEST_FIELD = "_digest";
+
     protected final ShardId shardId;
     protected final Logger logger;
     protected final EngineConfig engineConfig;
@@ -300,6 +304,22 @@ public abstract class Engine implements Closeable {
      */
     public abstract DeleteResult delete(Delete delete) throws IOException;
 
+    /**
+     * Perform a batch of index and delete operations on distinct documents, typically the rows of a Cassandra partition update.
+     * The default implementation performs operations one by one.
+     * @param operations {@link Index} or {@link Delete} operations
+     * @return one {@link Result} per operation, in the operations order
+     *
+     * Note: engine level failures (i.e. persistent engine failures) are thrown
+     */
+    public List<Result> batch(List<? extends Operation> operations) throws IOException {
+        final List<Result> results = new ArrayList<>(operations.size());
+        for (Operation operation : operations) {
+            results.add((operation instanceof Index) ? index((Index) operation) : delete((Delete) operation));
+        }
+        return results;
+    }
+
     /** @deprecated This was removed, but we keep this API so translog can replay any DBQs on upgrade. */
     @Deprecated
     public  void delete(DeleteByQuery delete) throws EngineException {
@@ -456,20 +476,34 @@ public abstract class Engine implements Closeable {
 
     public static class IndexResult extends Result {
         private final boolean created;
+        private final boolean noop;
 
         public IndexResult(long version, boolean created) {
+            this(version, created, false);
+        }
+
+        IndexResult(long version, boolean created, boolean noop) {
             super(Operation.TYPE.INDEX, version);
             this.created = created;
+            this.noop = noop;
         }
 
         public IndexResult(Exception failure, long version) {
             super(Operation.TYPE.INDEX, failure, version);
             this.created = false;
+            this.noop = false;
         }
 
         public boolean isCreated() {
             return created;
         }
+
+        /**
+         * @return true if the document was not re-indexed because its content digest did not change.
+         */
+        public boolean isNoop() {
+            return noop;
+        }
     }
 
     public static class DeleteResult extends Result {
@@ -0,0 +1,141 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.engine;
+
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.index.mapper.ParseContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps _uid value to the digest of the indexed content of documents written since the last refresh, so that an index
+ * operation carrying the same digest as the live document can be skipped. Documents without digest and deleted documents
+ * are recorded as unknown, and never match. Once refreshed, digests are loaded from the {@link Engine#DIGEST_FIELD} doc values.
+ */
+class LiveDigestMap implements ReferenceManager.RefreshListener {
+
+    private static final Object UNKNOWN = new Object();
+
+    private static class Maps {
+
+        // All writes (adds and deletes) go into here:
+        final Map<BytesRef,Object> current;
+
+        // Used while refresh is running, and to hold adds/deletes until refresh finishes.  We read from both current and old on lookup:
+        final Map<BytesRef,Object> old;
+
+        Maps(Map<BytesRef,Object> current, Map<BytesRef,Object> old) {
+           this.current = current;
+           this.old = old;
+        }
+
+        Maps() {
+            this(ConcurrentCollections.<BytesRef,Object>newConcurrentMapWithAggressiveConcurrency(),
+                 ConcurrentCollections.<BytesRef,Object>newConcurrentMapWithAggressiveConcurrency());
+        }
+    }
+
+    private volatile Maps maps = new Maps();
+
+    @Override
+    public void beforeRefresh() throws IOException {
+        maps = new Maps(ConcurrentCollections.<BytesRef,Object>newConcurrentMapWithAggressiveConcurrency(), maps.current);
+    }
+
+    @Override
+    public void afterRefresh(boolean didRefresh) throws IOException {
+        maps = new Maps(maps.current, ConcurrentCollections.<BytesRef,Object>newConcurrentMapWithAggressiveConcurrency());
+    }
+
+    /**
+     * @return the digest carried by the root document of the index operation, or null.
+     */
+    static Long digest(Engine.Index index) {
+        final List<ParseContext.Document> docs = index.docs();
+        final IndexableField field = docs.get(docs.size() - 1).getField(Engine.DIGEST_FIELD);
+        return (field == null) ? null : field.numericValue().longValue();
+    }
+
+    /** Record the digest of an indexed document, or null when the document has no digest. Must be called under the uid lock. */
+    void putUnderLock(BytesRef uid, Long digest) {
+        maps.current.put(uid, (digest == null) ? UNKNOWN : digest);
+    }
+
+    /** Record a deleted document. Must be called under the uid lock. */
+    void removeUnderLock(BytesRef uid) {
+        maps.current.put(uid, UNKNOWN);
+    }
+
+    /**
+     * @return true if the live document has the same digest. Must be called under the uid lock.
+     */
+    boolean isUnchangedUnderLock(Term uid, long digest, Engine engine) throws IOException {
+        final Maps currentMaps = maps;
+        Object value = currentMaps.current.get(uid.bytes());
+        if (value == null)
+            value = currentMaps.old.get(uid.bytes());
+        if (value != null)
+            return value != UNKNOWN && ((Long) value).longValue() == digest;
+
+        try (Engine.Searcher searcher = engine.acquireSearcher("digest")) {
+            Long current = loadDigest(searcher.searcher(), uid);
+            return current != null && current.longValue() == digest;
+        }
+    }
+
+    private static Long loadDigest(IndexSearcher searcher, Term uid) throws IOException {
+        for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+            final LeafReader reader = context.reader();
+            final Terms terms = reader.terms(uid.field());
+            if (terms == null)
+                continue;
+            final TermsEnum termsEnum = terms.iterator();
+            if (termsEnum.seekExact(uid.bytes()) == false)
+                continue;
+            final NumericDocValues digests = reader.getNumericDocValues(Engine.DIGEST_FIELD);
+            final Bits docsWithDigest = reader.getDocsWithField(Engine.DIGEST_FIELD);
+            if (digests == null || docsWithDigest == null)
+                return null;
+            final Bits liveDocs = reader.getLiveDocs();
+            final PostingsEnum docs = termsEnum.postings(null, PostingsEnum.NONE);
+            for (int docId = docs.nextDoc(); docId != DocIdSetIterator.NO_MORE_DOCS; docId = docs.nextDoc()) {
+                // nested documents share the _uid of their root document, which holds the digest.
+                if ((liveDocs == null || liveDocs.get(docId)) && docsWithDigest.get(docId))
+                    return digests.get(docId);
+            }
+        }
+        return null;
+    }
+}
@@ -21,6 +21,7 @@ package org.elasticsearch.index.engine;
 
 import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
 
+import org.elassandra.util.StatsExtensions;
 import org.elasticsearch.common.collect.ImmutableOpenMap;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
@@ -48,6 +49,10 @@ public class SegmentsStats implements Streamable, ToXContent {
     private long bitsetMemoryInBytes;
     private ImmutableOpenMap<String, Long> fileSizes = ImmutableOpenMap.of();
     private long tokenRangesBitsetMemoryInBytes;
+    private long tokenRangesBitsetCount;
+    private long tokenRangesBitsetHitCount;
+    private long tokenRangesBitsetMissCount;
+    private long tokenRangesBitsetEvictions;
     
     /*
      * A map to provide a best-effort approach describing Lucene index files.
@@ -129,6 +134,13 @@ public class SegmentsStats implements Streamable, ToXContent {
         this.tokenRangesBitsetMemoryInBytes += bitsetMemoryInBytes;
     }
 
+    public void addTokenRangesBitsetCacheStats(long count, long hitCount, long missCount, long evictions) {
+        this.tokenRangesBitsetCount += count;
+        this.tokenRangesBitsetHitCount += hitCount;
+        this.tokenRangesBitsetMissCount += missCount;
+        this.tokenRangesBitsetEvictions += evictions;
+    }
+
     public void addFileSizes(ImmutableOpenMap<String, Long> fileSizes) {
         ImmutableOpenMap.Builder<String, Long> map = ImmutableOpenMap.builder(this.fileSizes);
 
@@ -161,6 +173,8 @@ public class SegmentsStats implements Streamable, ToXContent {
         addVersionMapMemoryInBytes(mergeStats.versionMapMemoryInBytes);
         addBitsetMemoryInBytes(mergeStats.bitsetMemoryInBytes);
         addTokenRangesBitsetMemoryInBytes(mergeStats.tokenRangesBitsetMemoryInBytes);
+        addTokenRangesBitsetCacheStats(mergeStats.tokenRangesBitsetCount, mergeStats.tokenRangesBitsetHitCount,
+                mergeStats.tokenRangesBitsetMissCount, mergeStats.tokenRangesBitsetEvictions);
         addFileSizes(mergeStats.fileSizes);
     }
 
@@ -281,6 +295,32 @@ public class SegmentsStats implements Streamable, ToXContent {
         return new ByteSizeValue(bitsetMemoryInBytes);
     }
 
+    /**
+     * Estimation of the memory usage by the token_ranges bitset cache.
+     */
+    public ByteSizeValue getTokenRangesBitsetMemory() {
+        return new ByteSizeValue(tokenRangesBitsetMemoryInBytes);
+    }
+
+    /**
+     * The number of cached token_ranges segment bitsets.
+     */
+    public long getTokenRangesBitsetCount() {
+        return tokenRangesBitsetCount;
+    }
+
+    public long getTokenRangesBitsetHitCount() {
+        return tokenRangesBitsetHitCount;
+    }
+
+    public long getTokenRangesBitsetMissCount() {
+        return tokenRangesBitsetMissCount;
+    }
+
+    public long getTokenRangesBitsetEvictions() {
+        return tokenRangesBitsetEvictions;
+    }
+
     public ImmutableOpenMap<String, Long> getFileSizes() {
         return fileSizes;
     }
@@ -308,6 +348,10 @@ public class SegmentsStats implements Streamable, ToXContent {
         builder.byteSizeField(Fields.VERSION_MAP_MEMORY_IN_BYTES, Fields.VERSION_MAP_MEMORY, versionMapMemoryInBytes);
         builder.byteSizeField(Fields.FIXED_BIT_SET_MEMORY_IN_BYTES, Fields.FIXED_BIT_SET, bitsetMemoryInBytes);
         builder.byteSizeField(Fields.TOKEN_RANGES_BIT_SET_MEMORY_IN_BYTES, Fields.TOKEN_RANGES_BIT_SET, tokenRangesBitsetMemoryInBytes);
+        builder.field(Fields.TOKEN_RANGES_BIT_SET_COUNT, tokenRangesBitsetCount);
+        builder.field(Fields.TOKEN_RANGES_BIT_SET_HIT_COUNT, tokenRangesBitsetHitCount);
+        builder.field(Fields.TOKEN_RANGES_BIT_SET_MISS_COUNT, tokenRangesBitsetMissCount);
+        builder.field(Fields.TOKEN_RANGES_BIT_SET_EVICTIONS, tokenRangesBitsetEvictions);
         
         builder.field(Fields.MAX_UNSAFE_AUTO_ID_TIMESTAMP, maxUnsafeAutoIdTimestamp);
         builder.startObject(Fields.FILE_SIZES);
@@ -349,6 +393,10 @@ public class SegmentsStats implements Streamable, ToXContent {
         static final String FIXED_BIT_SET_MEMORY_IN_BYTES = "fixed_bit_set_memory_in_bytes";
         static final String TOKEN_RANGES_BIT_SET = "token_ranges_bit_set";
         static final String TOKEN_RANGES_BIT_SET_MEMORY_IN_BYTES = "token_ranges_bit_set_memory_in_bytes";
+        static final String TOKEN_RANGES_BIT_SET_COUNT = "token_ranges_bit_set_count";
+        static final String TOKEN_RANGES_BIT_SET_HIT_COUNT = "token_ranges_bit_set_hit_count";
+        static final String TOKEN_RANGES_BIT_SET_MISS_COUNT = "token_ranges_bit_set_miss_count";
+        static final String TOKEN_RANGES_BIT_SET_EVICTIONS = "token_ranges_bit_set_evictions";
         static final String FILE_SIZES = "file_sizes";
         static final String SIZE = "size";
         static final String SIZE_IN_BYTES = "size_in_bytes";
@@ -369,6 +417,12 @@ public class SegmentsStats implements Streamable, ToXContent {
         versionMapMemoryInBytes = in.readLong();
         bitsetMemoryInBytes = in.readLong();
         tokenRangesBitsetMemoryInBytes = in.readLong();
+        if (StatsExtensions.ENABLED) {
+            tokenRangesBitsetCount = in.readVLong();
+            tokenRangesBitsetHitCount = in.readVLong();
+            tokenRangesBitsetMissCount = in.readVLong();
+            tokenRangesBitsetEvictions = in.readVLong();
+        }
         maxUnsafeAutoIdTimestamp = in.readLong();
 
         int size = in.readVInt();
@@ -395,6 +449,12 @@ public class SegmentsStats implements Streamable, ToXContent {
         out.writeLong(versionMapMemoryInBytes);
         out.writeLong(bitsetMemoryInBytes);
         out.writeLong(tokenRangesBitsetMemoryInBytes);
+        if (StatsExtensions.ENABLED) {
+            out.writeVLong(tokenRangesBitsetCount);
+            out.writeVLong(tokenRangesBitsetHitCount);
+            out.writeVLong(tokenRangesBitsetMissCount);
+            out.writeVLong(tokenRangesBitsetEvictions);
+        }
         out.writeLong(maxUnsafeAutoIdTimestamp);
 
         out.writeVInt(fileSizes.size());
@@ -45,11 +45,14 @@ import org.apache.lucene.store.LockObtainFailedException;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.InfoStream;
+import org.elassandra.index.mapper.internal.TokenFieldMapper;
 import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.Version;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.common.lease.Releasables;
 import org.elasticsearch.common.lucene.LoggerInfoStream;
 import org.elasticsearch.common.lucene.Lucene;
 import org.elasticsearch.common.lucene.index.ElasticsearchDirectoryReader;
@@ -80,6 +83,7 @@ import org.elasticsearch.index.translog.TranslogCorruptedException;
 import org.elasticsearch.threadpool.ThreadPool;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -92,6 +96,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 import java.util.function.LongConsumer;
 
@@ -102,6 +107,8 @@ public class VersionLessInternalEngine extends Engine {
     private volatile long lastDeleteVersionPruneTimeMSec;
 
     private final Translog translog;
+    // when true, operations are not accounted in the translog, lucene commits are driven by Cassandra memtable flushes.
+    private final boolean translogLess;
     private final ElasticsearchConcurrentMergeScheduler mergeScheduler;
 
     private final IndexWriter indexWriter;
@@ -118,6 +125,14 @@ public class VersionLessInternalEngine extends Engine {
 
     private final KeyedLock<BytesRef> keyedLock = new KeyedLock<>();
 
+    // batches of deletes and adds are not visible until fully applied.
+    private final ReentrantReadWriteLock batchRefreshRWLock = new ReentrantReadWriteLock();
+    private final ReleasableLock batchRefreshLock = new ReleasableLock(batchRefreshRWLock.readLock());
+    private final ReleasableLock batchRefreshWriteLock = new ReleasableLock(batchRefreshRWLock.writeLock());
+
+    // digests of documents indexed since the last refresh, null when noop updates are not skipped.
+    private final LiveDigestMap digestMap;
+
     //private final AtomicBoolean versionMapRefreshPending = new AtomicBoolean();
 
     private volatile SegmentInfos lastCommittedSegmentInfos;
@@ -147,6 +162,8 @@ public class VersionLessInternalEngine extends Engine {
             maxUnsafeAutoIdTimestamp.set(engineConfig.getMaxUnsafeAutoIdTimestamp());
         }
         this.uidField = engineConfig.getIndexSettings().isSingleType() ? IdFieldMapper.NAME : UidFieldMapper.NAME;
+        this.translogLess = IndexMetaData.isIndexUsingTranslogLessEngine(engineConfig.getIndexSettings().getSettings());
+        this.digestMap = IndexMetaData.isIndexSkippingNoopUpdates(engineConfig.getIndexSettings().getSettings()) ? new LiveDigestMap() : null;
         //this.versionMap = new LiveVersionMap();
         store.incRef();
         IndexWriter writer = null;
@@ -187,6 +204,9 @@ public class VersionLessInternalEngine extends Engine {
             if (engineConfig.getRefreshListeners() != null) {
                 searcherManager.addListener(engineConfig.getRefreshListeners());
             }
+            if (digestMap != null) {
+                searcherManager.addListener(digestMap);
+            }
             success = true;
         } catch(Throwable t) {
             logger.error("unexpected error",  t);
@@ -509,29 +529,42 @@ public class VersionLessInternalEngine extends Engine {
                  *  if A arrives on the shard first we use addDocument since maxUnsafeAutoIdTimestamp is < 10. A` will then just be skipped or calls
                  *  updateDocument.
                  */
-                final IndexingStrategy plan;
+                final Long digest = (digestMap != null && index.origin() == Operation.Origin.PRIMARY) ? LiveDigestMap.digest(index) : null;
+                final IndexResult indexResult;
+                // the digest check and the write must not interleave with a delete by query and its refresh.
+                try (Releasable digestLock = digest == null ? () -> {} : batchRefreshLock.acquire()) {
+                    if (digest != null && digestMap.isUnchangedUnderLock(index.uid(), digest, this)) {
+                        final IndexResult noopResult = new IndexResult(1L, false, true);
+                        noopResult.setTranslogLocation(Translog.DUMMY_LOCATION);
+                        noopResult.setTook(System.nanoTime() - index.startTime());
+                        noopResult.freeze();
+                        return noopResult;
+                    }
 
-                if (index.origin() == Operation.Origin.PRIMARY) {
-                    plan = planIndexingAsPrimary(index);
-                } else {
-                    // non-primary mode (i.e., replica or recovery)
-                    plan = planIndexingAsNonPrimary(index);
-                }
+                    final IndexingStrategy plan;
+                    if (index.origin() == Operation.Origin.PRIMARY) {
+                        plan = planIndexingAsPrimary(index);
+                    } else {
+                        // non-primary mode (i.e., replica or recovery)
+                        plan = planIndexingAsNonPrimary(index);
+                    }
 
-                final IndexResult indexResult;
-                if (plan.earlyResultOnPreFlightError.isPresent()) {
-                    indexResult = plan.earlyResultOnPreFlightError.get();
-                    assert indexResult.hasFailure();
-                } else if (plan.indexIntoLucene) {
-                    indexResult = indexIntoLucene(index, plan);
-                } else {
-                    indexResult = new IndexResult(plan.versionForIndexing, plan.currentNotFoundOrDeleted);
+                    if (plan.earlyResultOnPreFlightError.isPresent()) {
+                        indexResult = plan.earlyResultOnPreFlightError.get();
+                        assert indexResult.hasFailure();
+                    } else if (plan.indexIntoLucene) {
+                        indexResult = indexIntoLucene(index, plan);
+                        if (digestMap != null && indexResult.hasFailure() == false)
+                            digestMap.putUnderLock(index.uid().bytes(), digest);
+                    } else {
+                        indexResult = new IndexResult(plan.versionForIndexing, plan.currentNotFoundOrDeleted);
+                    }
                 }
                 if (indexResult.hasFailure() == false &&
                     index.origin() != Operation.Origin.LOCAL_TRANSLOG_RECOVERY) {
                     //Translog.Location location = translog.add(new Translog.Index(index, indexResult));
                     // increment pseudo-translog size to trigger later flush
-                    indexResult.setTranslogLocation( translog.add(index.estimatedSizeInBytes()) );
+                    indexResult.setTranslogLocation( translogLess ? Translog.DUMMY_LOCATION : translog.add(index.estimatedSizeInBytes()) );
                 }
                 indexResult.setTook(System.nanoTime() - index.startTime());
                 indexResult.freeze();
@@ -789,7 +822,7 @@ public class VersionLessInternalEngine extends Engine {
             if (!deleteResult.hasFailure() &&
                 delete.origin() != Operation.Origin.LOCAL_TRANSLOG_RECOVERY) {
                 //Translog.Location location = translog.add(new Translog.Delete(delete, deleteResult));
-                deleteResult.setTranslogLocation( translog.add( delete.estimatedSizeInBytes() ));
+                deleteResult.setTranslogLocation( translogLess ? Translog.DUMMY_LOCATION : translog.add( delete.estimatedSizeInBytes() ));
             }
             deleteResult.setTook(System.nanoTime() - delete.startTime());
             deleteResult.freeze();
@@ -805,6 +838,116 @@ public class VersionLessInternalEngine extends Engine {
         return deleteResult;
     }
 
+    /**
+     * Apply primary index and delete operations of distinct documents with a single deleteDocuments and addDocuments call,
+     * holding the uid locks of all documents. Refreshes wait for the batch to be fully applied, so that searchers never see
+     * a document deleted before its new version is added.
+     */
+    @Override
+    public List<Result> batch(List<? extends Operation> operations) throws IOException {
+        if (operations.size() < 2 || operations.stream().anyMatch(op -> op.origin() != Operation.Origin.PRIMARY))
+            return super.batch(operations);
+
+        final long startTime = System.nanoTime();
+        final Term[] uids = new Term[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            assert Objects.equals(operations.get(i).uid().field(), uidField) : operations.get(i).uid().field();
+            uids[i] = operations.get(i).uid();
+        }
+        // acquire uid locks in a consistent order to avoid deadlocks with concurrent batches.
+        final BytesRef[] sortedUids = Arrays.stream(uids).map(Term::bytes).sorted().distinct().toArray(BytesRef[]::new);
+        if (sortedUids.length != uids.length)
+            return super.batch(operations); // the same document is updated more than once
+        final Releasable[] uidLocks = new Releasable[sortedUids.length];
+        try (ReleasableLock releasableLock = readLock.acquire()) {
+            ensureOpen();
+            for (int i = 0; i < sortedUids.length; i++)
+                uidLocks[i] = acquireLock(sortedUids[i]);
+            lastWriteNanos = startTime;
+            final Exception[] failures = new Exception[operations.size()];
+            final boolean[] noops = new boolean[operations.size()];
+            long sizeInBytes = 0;
+            try (ReleasableLock batchLock = batchRefreshLock.acquire()) {
+                final List<Term> updatedUids = new ArrayList<>(operations.size());
+                final List<ParseContext.Document> docs = new ArrayList<>();
+                final Long[] digests = new Long[operations.size()];
+                for (int i = 0; i < operations.size(); i++) {
+                    final Operation operation = operations.get(i);
+                    if (operation instanceof Index) {
+                        if (digestMap != null) {
+                            digests[i] = LiveDigestMap.digest((Index) operation);
+                            noops[i] = digests[i] != null && digestMap.isUnchangedUnderLock(operation.uid(), digests[i], this);
+                            if (noops[i])
+                                continue;
+                        }
+                        docs.addAll(((Index) operation).docs());
+                    }
+                    updatedUids.add(operation.uid());
+                    sizeInBytes += operation.estimatedSizeInBytes();
+                }
+                if (!updatedUids.isEmpty())
+                    indexWriter.deleteDocuments(updatedUids.toArray(new Term[updatedUids.size()]));
+                if (!docs.isEmpty()) {
+                    try {
+                        indexWriter.addDocuments(docs);
+                    } catch (Exception ex) {
+                        if (indexWriter.getTragicException() != null)
+                            throw ex;
+                        // document level failure, index documents one by one to isolate the failing ones.
+                        for (int i = 0; i < operations.size(); i++) {
+                            if (operations.get(i) instanceof Index && !noops[i]) {
+                                try {
+                                    index(((Index) operations.get(i)).docs(), indexWriter);
+                                } catch (Exception e) {
+                                    if (indexWriter.getTragicException() != null)
+                                        throw e;
+                                    failures[i] = e;
+                                }
+                            }
+                        }
+                    }
+                }
+                if (digestMap != null) {
+                    for (int i = 0; i < operations.size(); i++) {
+                        if (noops[i])
+                            continue;
+                        if (operations.get(i) instanceof Index && failures[i] == null)
+                            digestMap.putUnderLock(uids[i].bytes(), digests[i]);
+                        else
+                            digestMap.removeUnderLock(uids[i].bytes());
+                    }
+                }
+            }
+            final Translog.Location location = (translogLess || sizeInBytes == 0) ? Translog.DUMMY_LOCATION : translog.add(sizeInBytes);
+            final List<Result> results = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                final Result result;
+                if (failures[i] != null) {
+                    result = new IndexResult(failures[i], Versions.MATCH_ANY);
+                } else if (noops[i]) {
+                    result = new IndexResult(1L, false, true);
+                    result.setTranslogLocation(Translog.DUMMY_LOCATION);
+                } else {
+                    result = (operations.get(i) instanceof Index) ? new IndexResult(1L, true) : new DeleteResult(1L, true);
+                    result.setTranslogLocation(location);
+                }
+                result.setTook(System.nanoTime() - startTime);
+                result.freeze();
+                results.add(result);
+            }
+            return results;
+        } catch (RuntimeException | IOException e) {
+            try {
+                maybeFailEngine("batch", e);
+            } catch (Exception inner) {
+                e.addSuppressed(inner);
+            }
+            throw e;
+        } finally {
+            Releasables.close(uidLocks);
+        }
+    }
+
     private DeletionStrategy planDeletionAsNonPrimary(Delete delete) throws IOException {
         assert delete.origin() != Operation.Origin.PRIMARY : "planing as primary but got "
             + delete.origin();
@@ -864,6 +1007,9 @@ public class VersionLessInternalEngine extends Engine {
                 // can't be any document failures  coming from this
                 indexWriter.deleteDocuments(delete.uid());
             }
+            if (digestMap != null) {
+                digestMap.removeUnderLock(delete.uid().bytes());
+            }
             /*
             versionMap.putUnderLock(delete.uid().bytes(),
                 new DeleteVersionValue(plan.versionOfDeletion,
@@ -931,7 +1077,12 @@ public class VersionLessInternalEngine extends Engine {
         // since it flushes the index as well (though, in terms of concurrency, we are allowed to do it)
         try (ReleasableLock lock = readLock.acquire()) {
             ensureOpen();
-            searcherManager.maybeRefreshBlocking();
+            // flushed segments are not visible until the reader is reopened, so write the indexing buffer without blocking batches,
+            // and only block them while reopening the reader (and swapping live digests), when few documents remain to be flushed.
+            indexWriter.flush();
+            try (ReleasableLock batchLock = batchRefreshWriteLock.acquire()) {
+                searcherManager.maybeRefreshBlocking();
+            }
         } catch (AlreadyClosedException e) {
             failOnTragicEvent(e);
             throw e;
@@ -1426,6 +1577,9 @@ public class VersionLessInternalEngine extends Engine {
             iwc.setRAMBufferSizeMB(engineConfig.getIndexingBufferSize().getMbFrac());
             iwc.setCodec(engineConfig.getCodec());
             iwc.setUseCompoundFile(true); // always use compound on flush - reduces # of file-handles on refresh
+            if (IndexMetaData.isIndexSortedByToken(engineConfig.getIndexSettings().getSettings())) {
+                iwc.setIndexSort(TokenFieldMapper.INDEX_SORT);
+            }
             return new IndexWriter(store.directory(), iwc);
         } catch (LockObtainFailedException ex) {
             logger.warn("could not lock IndexWriter", ex);
@@ -1745,27 +1899,31 @@ public class VersionLessInternalEngine extends Engine {
     }
 
     private void innerDelete(DeleteByQuery delete) throws EngineException {
-        try {
-            Query query = delete.query();
-            if (delete.aliasFilter() != null) {
-                query = new BooleanQuery.Builder()
-                        .add(query, Occur.MUST)
-                        .add(delete.aliasFilter(), Occur.FILTER)
-                        .build();
-            }
-            if (delete.nested()) {
-                query = new IncludeNestedDocsQuery(query, delete.parentFilter());
+        // live digests of deleted documents must not be used, so block digest checks until the deletion is visible.
+        try (Releasable digestLock = digestMap == null ? () -> {} : batchRefreshWriteLock.acquire()) {
+            try {
+                Query query = delete.query();
+                if (delete.aliasFilter() != null) {
+                    query = new BooleanQuery.Builder()
+                            .add(query, Occur.MUST)
+                            .add(delete.aliasFilter(), Occur.FILTER)
+                            .build();
+                }
+                if (delete.nested()) {
+                    query = new IncludeNestedDocsQuery(query, delete.parentFilter());
+                }
+
+                indexWriter.deleteDocuments(query);
+                if (!translogLess)
+                    translog.add(20L);  // arbitrary delete sizeInBytes=20 
+            } catch (Exception t) {
+                maybeFailEngine("delete_by_query", t);
+                throw new DeleteByQueryFailedEngineException(shardId, delete, t);
             }
 
-            indexWriter.deleteDocuments(query);
-            translog.add(20L);  // arbitrary delete sizeInBytes=20 
-        } catch (Exception t) {
-            maybeFailEngine("delete_by_query", t);
-            throw new DeleteByQueryFailedEngineException(shardId, delete, t);
+            // TODO: This is heavy, since we refresh, but we must do this because we don't know which documents were in fact deleted (i.e., our
+            // versionMap isn't updated), so we must force a cutover to a new reader to "see" the deletions:
+            refresh("delete_by_query");
         }
-
-        // TODO: This is heavy, since we refresh, but we must do this because we don't know which documents were in fact deleted (i.e., our
-        // versionMap isn't updated), so we must force a cutover to a new reader to "see" the deletions:
-        refresh("delete_by_query");
     }
 }
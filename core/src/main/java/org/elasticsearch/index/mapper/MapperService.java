@@ -592,6 +592,11 @@ public class MapperService extends AbstractIndexComponent implements Closeable {
             checkDepthLimit(fullPathObjectMappers.keySet());
         }
 
+        if (hasNested && IndexMetaData.isIndexSortedByToken(indexSettings.getSettings())) {
+            // lucene index sorting does not preserve nested document blocks.
+            throw new IllegalArgumentException("cannot have nested fields when index [" + index().getName() + "] is sorted by token");
+        }
+
         for (Map.Entry<String, DocumentMapper> entry : mappers.entrySet()) {
             if (entry.getKey().equals(DEFAULT_MAPPING)) {
                 continue;
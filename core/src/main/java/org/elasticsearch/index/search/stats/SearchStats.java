@@ -19,6 +19,7 @@
 
 package org.elasticsearch.index.search.stats;
 
+import org.elassandra.util.StatsExtensions;
 import org.elasticsearch.action.support.ToXContentToBytes;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.io.stream.StreamInput;
@@ -240,6 +241,10 @@ public class SearchStats extends ToXContentToBytes implements Streamable {
 
     Stats totalStats;
     long openContexts;
+    
+    // elassandra node-wide fetch statement cache
+    long fetchStatementCacheHitCount;
+    long fetchStatementCacheMissCount;
 
     @Nullable
     Map<String, Stats> groupStats;
@@ -264,6 +269,8 @@ public class SearchStats extends ToXContentToBytes implements Streamable {
         }
         addTotals(searchStats);
         openContexts += searchStats.openContexts;
+        fetchStatementCacheHitCount += searchStats.fetchStatementCacheHitCount;
+        fetchStatementCacheMissCount += searchStats.fetchStatementCacheMissCount;
         if (includeTypes && searchStats.groupStats != null && !searchStats.groupStats.isEmpty()) {
             if (groupStats == null) {
                 groupStats = new HashMap<>(searchStats.groupStats.size());
@@ -294,6 +301,19 @@ public class SearchStats extends ToXContentToBytes implements Streamable {
         return this.openContexts;
     }
 
+    public void addFetchStatementCacheStats(long hitCount, long missCount) {
+        this.fetchStatementCacheHitCount += hitCount;
+        this.fetchStatementCacheMissCount += missCount;
+    }
+
+    public long getFetchStatementCacheHitCount() {
+        return this.fetchStatementCacheHitCount;
+    }
+
+    public long getFetchStatementCacheMissCount() {
+        return this.fetchStatementCacheMissCount;
+    }
+
     @Nullable
     public Map<String, Stats> getGroupStats() {
         return this.groupStats;
@@ -304,6 +324,12 @@ public class SearchStats extends ToXContentToBytes implements Streamable {
         builder.startObject(Fields.SEARCH);
         builder.field(Fields.OPEN_CONTEXTS, openContexts);
         totalStats.toXContent(builder, params);
+        if (fetchStatementCacheHitCount > 0 || fetchStatementCacheMissCount > 0) {
+            builder.startObject(Fields.FETCH_STATEMENT_CACHE);
+            builder.field(Fields.HIT_COUNT, fetchStatementCacheHitCount);
+            builder.field(Fields.MISS_COUNT, fetchStatementCacheMissCount);
+            builder.endObject();
+        }
         if (groupStats != null && !groupStats.isEmpty()) {
             builder.startObject(Fields.GROUPS);
             for (Map.Entry<String, Stats> entry : groupStats.entrySet()) {
@@ -337,12 +363,19 @@ public class SearchStats extends ToXContentToBytes implements Streamable {
         static final String SUGGEST_TIME = "suggest_time";
         static final String SUGGEST_TIME_IN_MILLIS = "suggest_time_in_millis";
         static final String SUGGEST_CURRENT = "suggest_current";
+        static final String FETCH_STATEMENT_CACHE = "fetch_statement_cache";
+        static final String HIT_COUNT = "hit_count";
+        static final String MISS_COUNT = "miss_count";
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         totalStats = Stats.readStats(in);
         openContexts = in.readVLong();
+        if (StatsExtensions.ENABLED) {
+            fetchStatementCacheHitCount = in.readVLong();
+            fetchStatementCacheMissCount = in.readVLong();
+        }
         if (in.readBoolean()) {
             groupStats = in.readMap(StreamInput::readString, Stats::readStats);
         }
@@ -352,6 +385,10 @@ public class SearchStats extends ToXContentToBytes implements Streamable {
     public void writeTo(StreamOutput out) throws IOException {
         totalStats.writeTo(out);
         out.writeVLong(openContexts);
+        if (StatsExtensions.ENABLED) {
+            out.writeVLong(fetchStatementCacheHitCount);
+            out.writeVLong(fetchStatementCacheMissCount);
+        }
         if (groupStats == null || groupStats.isEmpty()) {
             out.writeBoolean(false);
         } else {
@@ -37,6 +37,7 @@ import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.ThreadInterruptedException;
 import org.elassandra.cluster.routing.AbstractSearchStrategy;
+import org.elassandra.index.search.TokenRangesBitsetFilterCache;
 import org.elassandra.util.ConcurrentReferenceHashMap;
 import org.elassandra.util.ConcurrentReferenceHashMap.ReferenceType;
 import org.elasticsearch.ElasticsearchException;
@@ -636,6 +637,8 @@ public class IndexShard extends AbstractIndexShardComponent implements IndicesCl
             throw e;
         }
         indexingOperationListeners.postIndex(shardId, index, result);
+        if (result.isNoop())
+            noopUpdate(index.type());
         return result;
     }
 
@@ -690,6 +693,44 @@ public class IndexShard extends AbstractIndexShardComponent implements IndicesCl
     
     
     
+    /**
+     * Perform a batch of index and delete operations on distinct documents, see {@link Engine#batch(List)}.
+     */
+    public List<Engine.Result> batch(Engine engine, List<? extends Engine.Operation> operations) throws IOException {
+        active.set(true);
+        final List<Engine.Operation> preparedOperations = new ArrayList<>(operations.size());
+        for (Engine.Operation operation : operations) {
+            preparedOperations.add((operation instanceof Engine.Index) ?
+                indexingOperationListeners.preIndex(shardId, (Engine.Index) operation) :
+                indexingOperationListeners.preDelete(shardId, (Engine.Delete) operation));
+        }
+        if (logger.isTraceEnabled()) {
+            logger.trace("batch of [{}] operations", preparedOperations.size());
+        }
+        final List<Engine.Result> results;
+        try {
+            results = engine.batch(preparedOperations);
+        } catch (Exception e) {
+            for (Engine.Operation operation : preparedOperations) {
+                if (operation instanceof Engine.Index)
+                    indexingOperationListeners.postIndex(shardId, (Engine.Index) operation, e);
+                else
+                    indexingOperationListeners.postDelete(shardId, (Engine.Delete) operation, e);
+            }
+            throw e;
+        }
+        for (int i = 0; i < preparedOperations.size(); i++) {
+            Engine.Operation operation = preparedOperations.get(i);
+            if (operation instanceof Engine.Index) {
+                indexingOperationListeners.postIndex(shardId, (Engine.Index) operation, (Engine.IndexResult) results.get(i));
+                if (((Engine.IndexResult) results.get(i)).isNoop())
+                    noopUpdate(operation.type());
+            } else
+                indexingOperationListeners.postDelete(shardId, (Engine.Delete) operation, (Engine.DeleteResult) results.get(i));
+        }
+        return results;
+    }
+    
     public Engine.GetResult get(String type, String id) throws IOException {
         readAllowed();
         return clusterService.fetchSourceInternal(this.indexService, type, id, this.mapperService.documentMapper(type).getColumnDefinitions(), (timeElapsed) -> refreshMetric.inc(timeElapsed));
@@ -781,11 +822,20 @@ public class IndexShard extends AbstractIndexShardComponent implements IndicesCl
             throttled = engine.isThrottled();
             throttleTimeInMillis = engine.getIndexThrottleTimeInMillis();
         }
-        return internalIndexingStats.stats(throttled, throttleTimeInMillis, types);
+        IndexingStats stats = internalIndexingStats.stats(throttled, throttleTimeInMillis, types);
+        if (indexService != null) {
+            if (indexService.asyncIndexingQueue() != null)
+                stats.addAsyncIndexingStats(indexService.asyncIndexingQueue().pending(), indexService.asyncIndexingQueue().maxVisibilityLagInMillis(), indexService.asyncIndexingQueue().failed());
+            stats.addReadBeforeWriteStats(indexService.readBeforeWriteCount(), indexService.readBeforeWriteAvoidedCount());
+        }
+        return stats;
     }
 
     public SearchStats searchStats(String... groups) {
-        return searchStats.stats(groups);
+        SearchStats stats = searchStats.stats(groups);
+        if (indexService != null)
+            stats.addFetchStatementCacheStats(indexService.fetchStatementCache().hitCount(), indexService.fetchStatementCache().missCount());
+        return stats;
     }
 
     public ShardSearchStats shardShearchStats() {
@@ -818,6 +868,10 @@ public class IndexShard extends AbstractIndexShardComponent implements IndicesCl
         SegmentsStats segmentsStats = getEngine().segmentsStats(includeSegmentFileSizes);
         segmentsStats.addBitsetMemoryInBytes(shardBitsetFilterCache.getMemorySizeInBytes());
         segmentsStats.addTokenRangesBitsetMemoryInBytes(tokenRangesBitsetFilterCache.getMemorySizeInBytes());
+        TokenRangesBitsetFilterCache tokenRangesBitsetCache = indexCache.tokenRangeBitsetFilterCache();
+        if (tokenRangesBitsetCache != null)
+            segmentsStats.addTokenRangesBitsetCacheStats(tokenRangesBitsetCache.cacheCount(), tokenRangesBitsetCache.hitCount(),
+                    tokenRangesBitsetCache.missCount(), tokenRangesBitsetCache.evictionCount());
         return segmentsStats;
     }
 
@@ -19,6 +19,7 @@
 
 package org.elasticsearch.index.shard;
 
+import org.elassandra.util.StatsExtensions;
 import org.elasticsearch.Version;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.io.stream.StreamInput;
@@ -189,6 +190,15 @@ public class IndexingStats implements Streamable, ToXContent {
     }
 
     private Stats totalStats;
+    
+    // elassandra asynchronous indexing queue
+    private long asyncIndexingPending;
+    private long asyncIndexingMaxVisibilityLagInMillis;
+    private long asyncIndexingFailed;
+    
+    // elassandra secondary index read-before-write
+    private long readBeforeWriteCount;
+    private long readBeforeWriteAvoidedCount;
 
     @Nullable
     private Map<String, Stats> typeStats;
@@ -211,6 +221,11 @@ public class IndexingStats implements Streamable, ToXContent {
             return;
         }
         addTotals(indexingStats);
+        asyncIndexingPending += indexingStats.asyncIndexingPending;
+        asyncIndexingMaxVisibilityLagInMillis = Math.max(asyncIndexingMaxVisibilityLagInMillis, indexingStats.asyncIndexingMaxVisibilityLagInMillis);
+        asyncIndexingFailed += indexingStats.asyncIndexingFailed;
+        readBeforeWriteCount += indexingStats.readBeforeWriteCount;
+        readBeforeWriteAvoidedCount += indexingStats.readBeforeWriteAvoidedCount;
         if (includeTypes && indexingStats.typeStats != null && !indexingStats.typeStats.isEmpty()) {
             if (typeStats == null) {
                 typeStats = new HashMap<>(indexingStats.typeStats.size());
@@ -237,6 +252,52 @@ public class IndexingStats implements Streamable, ToXContent {
         return this.totalStats;
     }
 
+    public void addAsyncIndexingStats(long pending, long maxVisibilityLagInMillis, long failed) {
+        this.asyncIndexingPending += pending;
+        this.asyncIndexingMaxVisibilityLagInMillis = Math.max(this.asyncIndexingMaxVisibilityLagInMillis, maxVisibilityLagInMillis);
+        this.asyncIndexingFailed += failed;
+    }
+
+    /**
+     * Returns the number of lucene operations waiting in asynchronous indexing queues.
+     */
+    public long getAsyncIndexingPending() {
+        return this.asyncIndexingPending;
+    }
+
+    /**
+     * Returns the maximum delay between a Cassandra write and its visibility to the lucene indexer.
+     */
+    public TimeValue getAsyncIndexingMaxVisibilityLag() {
+        return new TimeValue(this.asyncIndexingMaxVisibilityLagInMillis);
+    }
+
+    /**
+     * Returns the number of lucene operations of asynchronous indexing queues that failed.
+     */
+    public long getAsyncIndexingFailed() {
+        return this.asyncIndexingFailed;
+    }
+
+    public void addReadBeforeWriteStats(long readCount, long avoidedCount) {
+        this.readBeforeWriteCount += readCount;
+        this.readBeforeWriteAvoidedCount += avoidedCount;
+    }
+
+    /**
+     * Returns the number of rows read from Cassandra before indexing an incomplete row update.
+     */
+    public long getReadBeforeWriteCount() {
+        return this.readBeforeWriteCount;
+    }
+
+    /**
+     * Returns the number of updated rows indexed without reading Cassandra.
+     */
+    public long getReadBeforeWriteAvoidedCount() {
+        return this.readBeforeWriteAvoidedCount;
+    }
+
     @Nullable
     public Map<String, Stats> getTypeStats() {
         return this.typeStats;
@@ -246,6 +307,15 @@ public class IndexingStats implements Streamable, ToXContent {
     public XContentBuilder toXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
         builder.startObject(Fields.INDEXING);
         totalStats.toXContent(builder, params);
+        builder.startObject(Fields.ASYNC_INDEXING);
+        builder.field(Fields.PENDING, asyncIndexingPending);
+        builder.timeValueField(Fields.MAX_VISIBILITY_LAG_IN_MILLIS, Fields.MAX_VISIBILITY_LAG, asyncIndexingMaxVisibilityLagInMillis);
+        builder.field(Fields.FAILED, asyncIndexingFailed);
+        builder.endObject();
+        builder.startObject(Fields.READ_BEFORE_WRITE);
+        builder.field(Fields.READ_TOTAL, readBeforeWriteCount);
+        builder.field(Fields.AVOIDED_TOTAL, readBeforeWriteAvoidedCount);
+        builder.endObject();
         if (typeStats != null && !typeStats.isEmpty()) {
             builder.startObject(Fields.TYPES);
             for (Map.Entry<String, Stats> entry : typeStats.entrySet()) {
@@ -275,11 +345,28 @@ public class IndexingStats implements Streamable, ToXContent {
         static final String IS_THROTTLED = "is_throttled";
         static final String THROTTLED_TIME_IN_MILLIS = "throttle_time_in_millis";
         static final String THROTTLED_TIME = "throttle_time";
+        static final String ASYNC_INDEXING = "async_indexing";
+        static final String PENDING = "pending";
+        static final String MAX_VISIBILITY_LAG = "max_visibility_lag";
+        static final String MAX_VISIBILITY_LAG_IN_MILLIS = "max_visibility_lag_in_millis";
+        static final String FAILED = "failed";
+        static final String READ_BEFORE_WRITE = "read_before_write";
+        static final String READ_TOTAL = "read_total";
+        static final String AVOIDED_TOTAL = "avoided_total";
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         totalStats = Stats.readStats(in);
+        if (StatsExtensions.ENABLED) {
+            asyncIndexingPending = in.readVLong();
+            asyncIndexingMaxVisibilityLagInMillis = in.readVLong();
+            asyncIndexingFailed = in.readVLong();
+        }
+        if (StatsExtensions.ENABLED) {
+            readBeforeWriteCount = in.readVLong();
+            readBeforeWriteAvoidedCount = in.readVLong();
+        }
         if (in.readBoolean()) {
             typeStats = in.readMap(StreamInput::readString, Stats::readStats);
         }
@@ -288,6 +375,15 @@ public class IndexingStats implements Streamable, ToXContent {
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         totalStats.writeTo(out);
+        if (StatsExtensions.ENABLED) {
+            out.writeVLong(asyncIndexingPending);
+            out.writeVLong(asyncIndexingMaxVisibilityLagInMillis);
+            out.writeVLong(asyncIndexingFailed);
+        }
+        if (StatsExtensions.ENABLED) {
+            out.writeVLong(readBeforeWriteCount);
+            out.writeVLong(readBeforeWriteAvoidedCount);
+        }
         if (typeStats == null || typeStats.isEmpty()) {
             out.writeBoolean(false);
         } else {
@@ -59,6 +59,8 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
@@ -108,8 +110,14 @@ public class Translog extends AbstractIndexShardComponent implements IndexShardC
 
     static final Pattern PARSE_STRICT_ID_PATTERN = Pattern.compile("^" + TRANSLOG_FILE_PREFIX + "(\\d+)(\\.tlog)$");
 
-    int totalOperationCount = 0;
-    long totalSizeInBytes = 0;
+    /*
+     * Elassandra does not write translog files, operations are made durable by the Cassandra commitlog and
+     * replayed through the secondary index on restart. Only the number and size of operations not yet committed
+     * to lucene are counted to trigger flushes, and reset on sync or commit. With the translog-less engine,
+     * no operation is counted, so sync is never needed.
+     */
+    final AtomicInteger totalOperationCount = new AtomicInteger();
+    final AtomicLong totalSizeInBytes = new AtomicLong();
     
     /**
      * Creates a new Translog instance. This method will create a new transaction log unless the given {@link TranslogConfig} has
@@ -189,28 +197,28 @@ public class Translog extends AbstractIndexShardComponent implements IndexShardC
      * Returns the number of operations in the transaction files that aren't committed to lucene..
      */
     public int totalOperations() {
-        return this.totalOperationCount;
+        return this.totalOperationCount.get();
     }
 
     /**
      * Returns the size in bytes of the translog files that aren't committed to lucene.
      */
     public long sizeInBytes() {
-        return this.totalSizeInBytes;
+        return this.totalSizeInBytes.get();
     }
 
     /**
      * Returns the number of operations in the transaction files that aren't committed to lucene..
      */
     private int totalOperations(long minGeneration) {
-        return this.totalOperationCount;
+        return this.totalOperationCount.get();
     }
 
     /**
      * Returns the size in bytes of the translog files that aren't committed to lucene.
      */
     private long sizeInBytes(long minGeneration) {
-        return this.totalSizeInBytes;
+        return this.totalSizeInBytes.get();
     }
 
 
@@ -234,8 +242,8 @@ public class Translog extends AbstractIndexShardComponent implements IndexShardC
      }
     
     public Location add(long sizeInBytes, int operationCount) throws IOException {
-        this.totalSizeInBytes += sizeInBytes;
-        this.totalOperationCount += operationCount;
+        this.totalSizeInBytes.addAndGet(sizeInBytes);
+        this.totalOperationCount.addAndGet(operationCount);
         return DUMMY_LOCATION;
     }
     
@@ -271,12 +279,12 @@ public class Translog extends AbstractIndexShardComponent implements IndexShardC
      * Sync's the translog.
      */
     public void sync() throws IOException {
-        this.totalOperationCount = 0;
-        this.totalSizeInBytes = 0;
+        this.totalOperationCount.set(0);
+        this.totalSizeInBytes.set(0);
     }
 
     public boolean syncNeeded() {
-        return totalOperationCount > 0;
+        return totalOperationCount.get() > 0;
     }
 
     /** package private for testing */
@@ -966,6 +974,9 @@ public class Translog extends AbstractIndexShardComponent implements IndexShardC
 
     @Override
     public long commit() throws IOException {
+        // operations are now committed to lucene.
+        this.totalOperationCount.set(0);
+        this.totalSizeInBytes.set(0);
         return 0;
     }
 
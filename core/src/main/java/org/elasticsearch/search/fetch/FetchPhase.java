@@ -20,16 +20,18 @@
 package org.elasticsearch.search.fetch;
 
 import org.apache.cassandra.cql3.QueryOptions;
-import org.apache.cassandra.cql3.QueryProcessor;
 import org.apache.cassandra.cql3.ResultSet;
 import org.apache.cassandra.cql3.UntypedResultSet;
 import org.apache.cassandra.cql3.UntypedResultSet.Row;
 import org.apache.cassandra.cql3.statements.ParsedStatement;
+import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.marshal.TupleType;
+import org.apache.cassandra.serializers.CollectionSerializer;
 import org.apache.cassandra.service.ClientState;
 import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.transport.ProtocolVersion;
 import org.apache.cassandra.transport.messages.ResultMessage;
-import org.apache.logging.log4j.Logger;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.search.DocIdSetIterator;
@@ -70,10 +72,13 @@ import org.elasticsearch.search.lookup.SourceLookup;
 import org.elasticsearch.tasks.TaskCancelledException;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
@@ -157,6 +162,8 @@ public class FetchPhase implements SearchPhase {
             }
         }
 
+        final BatchFetch batchFetch = (fieldsVisitor != null && !context.mapperService().hasNested()) ? batchFetch(context, fieldsVisitor) : null;
+        
         SearchHit[] hits = new SearchHit[context.docIdsToLoadSize()];
         FetchSubPhase.HitContext hitContext = new FetchSubPhase.HitContext();
         for (int index = 0; index < context.docIdsToLoadSize(); index++) {
@@ -174,7 +181,7 @@ public class FetchPhase implements SearchPhase {
                 if (rootDocId != -1) {
                     searchHit = createNestedSearchHit(context, docId, subDocId, rootDocId, fieldNames, fieldNamePatterns, subReaderContext);
                 } else {
-                    searchHit = createSearchHit(context, fieldsVisitor, docId, subDocId, subReaderContext);
+                    searchHit = createSearchHit(context, fieldsVisitor, docId, subDocId, subReaderContext, batchFetch);
                 }
             } catch (IOException e) {
                 throw ExceptionsHelper.convertToElastic(e);
@@ -205,10 +212,14 @@ public class FetchPhase implements SearchPhase {
     }
 
     protected SearchHit createSearchHit(SearchContext context, FieldsVisitor fieldsVisitor, int docId, int subDocId, LeafReaderContext subReaderContext) {
+        return createSearchHit(context, fieldsVisitor, docId, subDocId, subReaderContext, null);
+    }
+    
+    protected SearchHit createSearchHit(SearchContext context, FieldsVisitor fieldsVisitor, int docId, int subDocId, LeafReaderContext subReaderContext, BatchFetch batchFetch) {
         if (fieldsVisitor == null) {
             return new SearchHit(docId);
         }
-        loadStoredFields(context, subReaderContext, fieldsVisitor, subDocId);
+        loadStoredFields(context, subReaderContext, fieldsVisitor, subDocId, batchFetch);
         fieldsVisitor.postProcess(context.mapperService());
 
         Map<String, SearchHitField> searchFields = null;
@@ -371,31 +382,36 @@ public class FetchPhase implements SearchPhase {
         return fieldVisitor.requiredColumns(searchContext);
     }
 
+    /**
+     * Cassandra columns to fetch for the current document of the fieldVisitor, empty when nothing should be read from cassandra.
+     */
+    protected NavigableSet<String> fetchColumns(SearchContext searchContext, FieldsVisitor fieldVisitor) throws IOException {
+        // fetch from requested stored_fields.
+        NavigableSet<String> requiredColumns = requiredColumns(searchContext, fieldVisitor);
+        if (requiredColumns.size() > 0) {
+            IndexMetaData indexMetaData = clusterService.state().metaData().index(searchContext.request().shardId().getIndexName());
+            if (requiredColumns.contains(NodeFieldMapper.NAME)) {
+                searchContext.includeNode(indexMetaData.getSettings().getAsBoolean(IndexMetaData.SETTING_INCLUDE_NODE_ID, clusterService.settings().getAsBoolean(ClusterService.SETTING_CLUSTER_INCLUDE_NODE_ID, false)));
+                requiredColumns.remove(NodeFieldMapper.NAME);
+            }
+            DocumentMapper docMapper = searchContext.mapperService().documentMapper(fieldVisitor.uid().type());
+            if (fieldVisitor.loadSource() && docMapper.sourceMapper().enabled()) {
+                requiredColumns.add(SourceFieldMapper.NAME);
+            }
+        }
+        return requiredColumns;
+    }
+    
     protected ParsedStatement.Prepared getCqlPreparedStatement(SearchContext searchContext, IndexService indexService, FieldsVisitor fieldVisitor, String typeKey, boolean staticDocument) throws IOException {
         ParsedStatement.Prepared cqlStatement = searchContext.getCqlPreparedStatement( typeKey );
         if (cqlStatement == null) {
-            // fetch from requested stored_fields.
-            NavigableSet<String> requiredColumns = requiredColumns(searchContext, fieldVisitor);
+            NavigableSet<String> requiredColumns = fetchColumns(searchContext, fieldVisitor);
             if (requiredColumns.size() > 0) {
-                IndexMetaData indexMetaData = clusterService.state().metaData().index(searchContext.request().shardId().getIndexName());
-                if (requiredColumns.contains(NodeFieldMapper.NAME)) {
-                    searchContext.includeNode(indexMetaData.getSettings().getAsBoolean(IndexMetaData.SETTING_INCLUDE_NODE_ID, clusterService.settings().getAsBoolean(ClusterService.SETTING_CLUSTER_INCLUDE_NODE_ID, false)));
-                    requiredColumns.remove(NodeFieldMapper.NAME);
-                }
                 DocumentMapper docMapper = searchContext.mapperService().documentMapper(fieldVisitor.uid().type());
-                if (fieldVisitor.loadSource() && docMapper.sourceMapper().enabled()) {
-                    requiredColumns.add(SourceFieldMapper.NAME);
-                }
-                if (requiredColumns.size() > 0) {
-                    String query = clusterService.buildFetchQuery(
-                            indexService, fieldVisitor.uid().type(),
-                            requiredColumns.toArray(new String[requiredColumns.size()]), staticDocument, docMapper.getColumnDefinitions());
-                    Logger logger = Loggers.getLogger(FetchPhase.class);
-                    if (logger.isTraceEnabled())
-                        logger.trace("new statement={}",query);
-                    cqlStatement = QueryProcessor.prepareInternal(query);
-                    searchContext.putCqlPreparedStatement(typeKey, cqlStatement);
-                }
+                cqlStatement = indexService.fetchStatementCache().getOrPrepare(docMapper, staticDocument, false, requiredColumns, 
+                        () -> clusterService.buildFetchQuery(indexService, docMapper.type(),
+                            requiredColumns.toArray(new String[requiredColumns.size()]), staticDocument, docMapper.getColumnDefinitions()));
+                searchContext.putCqlPreparedStatement(typeKey, cqlStatement);
             }
         }
         return cqlStatement;
@@ -404,26 +420,38 @@ public class FetchPhase implements SearchPhase {
     protected void processCqlResultSet(SearchContext searchContext, IndexService indexService, FieldsVisitor fieldVisitor, ResultSet resultSet) throws IOException {
         UntypedResultSet rs = UntypedResultSet.create(resultSet);
         if (!rs.isEmpty()) {
-            Row row = rs.one();
-            Map<String, Object> mapObject = clusterService.rowAsMap(indexService, fieldVisitor.uid().type(), row);
-            if (searchContext.includeNode()) {
-                mapObject.put(NodeFieldMapper.NAME, clusterService.state().nodes().getLocalNodeId());
-            }
-            if (fieldVisitor.requestedFields() != null && fieldVisitor.requestedFields().size() > 0) {
-                Map<String, List<Object>> flatMap = new HashMap<String, List<Object>>();
-                clusterService.flattenTree(fieldVisitor.requestedFields(), "", mapObject, flatMap);
-                for (String field :  fieldVisitor.requestedFields()) {
-                    if (flatMap.get(field) != null && field != IdFieldMapper.NAME) 
-                        fieldVisitor.setValues(field, flatMap.get(field));
-                }
-            }
-            if (fieldVisitor.loadSource()) {
-                fieldVisitor.source( clusterService.source(indexService, searchContext.mapperService().documentMapper(fieldVisitor.uid().type()), mapObject, fieldVisitor.uid()) );
+            processCqlRow(searchContext, indexService, fieldVisitor, rs.one(), 0);
+        }
+    }
+    
+    /**
+     * Set requested fields and _source from a cassandra row, ignoring the keyColumns primary key columns added by grouped reads.
+     */
+    protected void processCqlRow(SearchContext searchContext, IndexService indexService, FieldsVisitor fieldVisitor, Row row, int keyColumns) throws IOException {
+        Map<String, Object> mapObject = clusterService.rowAsMap(indexService, fieldVisitor.uid().type(), row);
+        for (int i = 0; i < keyColumns; i++)
+            mapObject.remove(ClusterService.BATCH_FETCH_KEY_PREFIX + i);
+        if (searchContext.includeNode()) {
+            mapObject.put(NodeFieldMapper.NAME, clusterService.state().nodes().getLocalNodeId());
+        }
+        if (fieldVisitor.requestedFields() != null && fieldVisitor.requestedFields().size() > 0) {
+            Map<String, List<Object>> flatMap = new HashMap<String, List<Object>>();
+            clusterService.flattenTree(fieldVisitor.requestedFields(), "", mapObject, flatMap);
+            for (String field :  fieldVisitor.requestedFields()) {
+                if (flatMap.get(field) != null && field != IdFieldMapper.NAME) 
+                    fieldVisitor.setValues(field, flatMap.get(field));
             }
         }
+        if (fieldVisitor.loadSource()) {
+            fieldVisitor.source( clusterService.source(indexService, searchContext.mapperService().documentMapper(fieldVisitor.uid().type()), mapObject, fieldVisitor.uid()) );
+        }
     }
     
     private void loadStoredFields(SearchContext searchContext, LeafReaderContext readerContext, FieldsVisitor fieldVisitor, int docId) {
+        loadStoredFields(searchContext, readerContext, fieldVisitor, docId, null);
+    }
+    
+    private void loadStoredFields(SearchContext searchContext, LeafReaderContext readerContext, FieldsVisitor fieldVisitor, int docId, BatchFetch batchFetch) {
         fieldVisitor.reset();
         try {
             readerContext.reader().document(docId, fieldVisitor);
@@ -434,6 +462,13 @@ public class FetchPhase implements SearchPhase {
         // load field from cassandra
         IndexService indexService = searchContext.indexShard().indexService();
         try {
+            if (batchFetch != null && batchFetch.contains(readerContext.docBase + docId)) {
+                Row row = batchFetch.row(readerContext.docBase + docId);
+                if (row != null)
+                    processCqlRow(searchContext, indexService, fieldVisitor, row, batchFetch.keyColumns(readerContext.docBase + docId));
+                return;
+            }
+            
             DocPrimaryKey docPk = clusterService.parseElasticId(indexService, fieldVisitor.uid().type(), fieldVisitor.uid().id());
             String typeKey = fieldVisitor.uid().type();
             if (docPk.isStaticDocument) 
@@ -458,4 +493,161 @@ public class FetchPhase implements SearchPhase {
             throw new FetchPhaseExecutionException(searchContext, "Failed to fetch doc id [" + fieldVisitor.uid().id() + "] from cassandra", e);
         }
     }
+    
+    /**
+     * Cassandra rows loaded by grouped reads for a page of hits, indexed by top level lucene doc id.
+     * A doc id fetched without a matching row means the row does not exist anymore.
+     */
+    protected static class BatchFetch {
+        private final Map<Integer, Row> rows = new HashMap<>();
+        private final Map<Integer, Integer> keyColumns = new HashMap<>();
+        
+        void put(int docId, Row row, int keyColumnCount) {
+            rows.put(docId, row);
+            keyColumns.put(docId, keyColumnCount);
+        }
+        
+        public boolean contains(int docId) {
+            return rows.containsKey(docId);
+        }
+        
+        public Row row(int docId) {
+            return rows.get(docId);
+        }
+        
+        public int keyColumns(int docId) {
+            return keyColumns.get(docId);
+        }
+    }
+    
+    /**
+     * Documents of the same type and static flag, fetched with the same columns.
+     */
+    private static class BatchFetchGroup {
+        final String type;
+        final boolean staticDocument;
+        final NavigableSet<String> columns;
+        final List<Tuple<Integer, DocPrimaryKey>> hits = new ArrayList<>();
+        
+        BatchFetchGroup(String type, boolean staticDocument, NavigableSet<String> columns) {
+            this.type = type;
+            this.staticDocument = staticDocument;
+            this.columns = columns;
+        }
+    }
+    
+    /**
+     * When index.fetch_batch_size > 0, load cassandra rows of the page of hits with grouped reads, 
+     * one IN query per chunk of partitions (single column partition key) or one IN query per partition (clustering key). 
+     * Hits that cannot be grouped are left to the per-document fetch.
+     */
+    protected BatchFetch batchFetch(SearchContext context, FieldsVisitor fieldsVisitor) {
+        if (clusterService == null || context.indexShard() == null || context.docIdsToLoadSize() < 2)
+            return null;
+        IndexService indexService = context.indexShard().indexService();
+        int batchSize = indexService.fetchBatchSize();
+        if (batchSize <= 0)
+            return null;
+        
+        List<LeafReaderContext> leaves = context.searcher().getIndexReader().leaves();
+        Map<String, BatchFetchGroup> groups = new HashMap<>();
+        try {
+            for (int index = 0; index < context.docIdsToLoadSize(); index++) {
+                if(context.isCancelled()) {
+                    throw new TaskCancelledException("cancelled");
+                }
+                int docId = context.docIdsToLoad()[context.docIdsToLoadFrom() + index];
+                LeafReaderContext subReaderContext = leaves.get(ReaderUtil.subIndex(docId, leaves));
+                fieldsVisitor.reset();
+                subReaderContext.reader().document(docId - subReaderContext.docBase, fieldsVisitor);
+                if (fieldsVisitor.uid() == null)
+                    continue;
+                
+                String type = fieldsVisitor.uid().type();
+                DocPrimaryKey docPk = clusterService.parseElasticId(indexService, type, fieldsVisitor.uid().id());
+                String typeKey = (docPk.isStaticDocument) ? type + "_static" : type;
+                BatchFetchGroup group = groups.get(typeKey);
+                if (group == null) {
+                    group = new BatchFetchGroup(type, docPk.isStaticDocument, fetchColumns(context, fieldsVisitor));
+                    groups.put(typeKey, group);
+                }
+                group.hits.add(new Tuple<>(docId, docPk));
+            }
+            
+            BatchFetch batchFetch = new BatchFetch();
+            for(BatchFetchGroup group : groups.values()) {
+                if (group.columns.size() > 0 && group.hits.size() > 1)
+                    batchFetch(context, indexService, group, batchSize, batchFetch);
+            }
+            return batchFetch;
+        } catch (IOException e) {
+            throw new FetchPhaseExecutionException(context, "Failed to batch fetch documents from cassandra", e);
+        }
+    }
+    
+    private void batchFetch(SearchContext context, IndexService indexService, BatchFetchGroup group, int batchSize, BatchFetch batchFetch) throws IOException {
+        CFMetaData metadata = ClusterService.getCFMetaData(indexService.keyspace(), ClusterService.typeToCfName(group.type));
+        boolean clusteringIn = !group.staticDocument && metadata.clusteringColumns().size() > 0;
+        if (!clusteringIn && metadata.partitionKeyColumns().size() > 1)
+            return; // IN restriction is not allowed on a composite partition key, fallback to per-document fetch.
+        
+        int partitionKeyColumns = metadata.partitionKeyColumns().size();
+        int keyColumns = (group.staticDocument) ? partitionKeyColumns : partitionKeyColumns + metadata.clusteringColumns().size();
+        
+        // group requested primary keys by partition key (clusteringIn) or in a single group.
+        Map<List<ByteBuffer>, Map<List<ByteBuffer>, List<Integer>>> partitions = new LinkedHashMap<>();
+        for(Tuple<Integer, DocPrimaryKey> hit : group.hits) {
+            List<ByteBuffer> pk = Arrays.asList(hit.v2().serialize(metadata));
+            List<ByteBuffer> partitionKey = (clusteringIn) ? pk.subList(0, partitionKeyColumns) : Collections.emptyList();
+            partitions.computeIfAbsent(partitionKey, k -> new LinkedHashMap<>()).computeIfAbsent(pk, k -> new ArrayList<>(1)).add(hit.v1());
+        }
+        
+        String typeKey = group.staticDocument ? group.type + "_static_batch" : group.type + "_batch";
+        ParsedStatement.Prepared cqlStatement = context.getCqlPreparedStatement(typeKey);
+        if (cqlStatement == null) {
+            DocumentMapper docMapper = context.mapperService().documentMapper(group.type);
+            cqlStatement = indexService.fetchStatementCache().getOrPrepare(docMapper, group.staticDocument, true, group.columns, 
+                    () -> clusterService.buildBatchFetchQuery(indexService, group.type, group.columns.toArray(new String[group.columns.size()]), 
+                        group.staticDocument, docMapper.getColumnDefinitions(), clusteringIn));
+            context.putCqlPreparedStatement(typeKey, cqlStatement);
+        }
+        
+        for(Map.Entry<List<ByteBuffer>, Map<List<ByteBuffer>, List<Integer>>> partition : partitions.entrySet()) {
+            List<List<ByteBuffer>> keys = new ArrayList<>(partition.getValue().keySet());
+            for(int from = 0; from < keys.size(); from += batchSize) {
+                List<List<ByteBuffer>> chunk = keys.subList(from, Math.min(from + batchSize, keys.size()));
+                List<ByteBuffer> inValues = new ArrayList<>(chunk.size());
+                for(List<ByteBuffer> pk : chunk) {
+                    if (clusteringIn) {
+                        List<ByteBuffer> clusteringKey = pk.subList(partitionKeyColumns, pk.size());
+                        inValues.add( (clusteringKey.size() == 1) ? clusteringKey.get(0) : TupleType.buildValue(clusteringKey.toArray(new ByteBuffer[clusteringKey.size()])) );
+                    } else {
+                        inValues.add(pk.get(0));
+                    }
+                }
+                List<ByteBuffer> boundValues = new ArrayList<>(partition.getKey());
+                boundValues.add(CollectionSerializer.pack(inValues, inValues.size(), ProtocolVersion.CURRENT));
+                
+                ResultMessage result = cqlStatement.statement.executeInternal(new QueryState(ClientState.forInternalCalls()), QueryOptions.forInternalCalls(ConsistencyLevel.ONE, boundValues));
+                
+                // demultiplex rows to requested documents, missing rows are fetched with no row.
+                for(List<ByteBuffer> pk : chunk) {
+                    for(Integer docId : partition.getValue().get(pk))
+                        batchFetch.put(docId, null, keyColumns);
+                }
+                if (result instanceof ResultMessage.Rows) {
+                    for(Row row : UntypedResultSet.create(((ResultMessage.Rows)result).result)) {
+                        ByteBuffer[] rowKey = new ByteBuffer[keyColumns];
+                        for(int i = 0; i < keyColumns; i++)
+                            rowKey[i] = row.getBytes(ClusterService.BATCH_FETCH_KEY_PREFIX + i);
+                        List<Integer> docIds = partition.getValue().get(Arrays.asList(rowKey));
+                        if (docIds != null) {
+                            for(Integer docId : docIds)
+                                batchFetch.put(docId, row, keyColumns);
+                        }
+                    }
+                }
+            }
+        }
+    }
 }
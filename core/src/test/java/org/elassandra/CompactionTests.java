@@ -261,4 +261,25 @@ public class CompactionTests extends ESSingleNodeTestCase {
         assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.wildcardQuery("c","*")).get().getHits().getTotalHits(), equalTo(2*N));
         assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.wildcardQuery("b","*")).get().getHits().getTotalHits(), equalTo(N));
     }
+    
+    @Test
+    public void translogLessEngineTest() throws Exception {
+        createIndex("test", Settings.builder().put(IndexMetaData.SETTING_TRANSLOG_LESS_ENGINE, true).build());
+        ensureGreen("test");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t1 ( a int,b text, primary key (a) )");
+        assertAcked(client().admin().indices().preparePutMapping("test").setType("t1").setSource("{ \"t1\" : { \"discover\" : \".*\" }}").get());
+        
+        for(int j=1 ; j <= 100; j++)
+            process(ConsistencyLevel.ONE,"insert into test.t1 (a,b) VALUES (?,?)", j, "x"+j);
+        for(int j=1 ; j <= 10; j++)
+            process(ConsistencyLevel.ONE,"delete from test.t1 WHERE a = ?", j);
+        assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(90L));
+        
+        // indexing operations are not accounted in the translog, lucene commits are driven by memtable flushes.
+        assertThat(client().admin().indices().prepareStats("test").setTranslog(true).get().getTotal().getTranslog().estimatedNumberOfOperations(), equalTo(0L));
+        StorageService.instance.forceKeyspaceFlush("test","t1");
+        assertThat(client().admin().indices().prepareStats("test").setTranslog(true).get().getTotal().getTranslog().estimatedNumberOfOperations(), equalTo(0L));
+        assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(90L));
+    }
 }
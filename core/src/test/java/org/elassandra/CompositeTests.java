@@ -15,13 +15,21 @@
  */
 package org.elassandra;
 
+import org.apache.cassandra.cql3.UntypedResultSet;
 import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.exceptions.InvalidRequestException;
 import org.apache.cassandra.service.StorageService;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.search.stats.SearchStats;
+import org.elasticsearch.index.shard.IndexingStats;
+import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.test.ESSingleNodeTestCase;
 import org.junit.Test;
@@ -29,7 +37,9 @@ import org.junit.Test;
 import java.util.Map;
 
 import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 
 /**
  * Elassandra composite key tests.
@@ -338,4 +348,264 @@ curl -XGET "http://$NODE:9200/test/timeseries/_search?pretty=true&q=meta.region:
         assertThat(source.get("m"), equalTo("server1-cpu"));
         assertThat(((Map)source.get("meta")).get("region"), equalTo("west"));
     }
+    
+    @Test
+    public void testBatchFetchTest() throws Exception {
+        createIndex("batch", Settings.builder().put("index.fetch_batch_size", 2).build());
+        ensureGreen("batch");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS batch.t1 ( a text, c text, primary key (a) )");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS batch.t2 ( a text, b bigint, c text, primary key ((a),b) )");
+        assertAcked(client().admin().indices().preparePutMapping("batch").setType("t1").setSource("{ \"t1\" : { \"discover\" : \".*\" }}").get());
+        assertAcked(client().admin().indices().preparePutMapping("batch").setType("t2").setSource("{ \"t2\" : { \"discover\" : \".*\" }}").get());
+        
+        for(int i=0; i < 5; i++) {
+            process(ConsistencyLevel.ONE,"insert into batch.t1 (a,c) VALUES (?,?)", "a"+i, "c"+i);
+            process(ConsistencyLevel.ONE,"insert into batch.t2 (a,b,c) VALUES (?,?,?)", "a"+(i % 2), (long)i, "c"+i);
+        }
+        
+        for(String type : new String[] { "t1", "t2" }) {
+            SearchResponse rsp = client().prepareSearch().setIndices("batch").setTypes(type).setQuery(QueryBuilders.matchAllQuery()).setSize(10).get();
+            assertThat(rsp.getHits().getTotalHits(), equalTo(5L));
+            for(SearchHit hit : rsp.getHits().hits()) {
+                Map<String, Object> source = hit.getSource();
+                assertThat(source.containsKey("_pk0"), equalTo(false));
+                assertThat(source.get("c"), equalTo("c" + (type.equals("t1") ? ((String)source.get("a")).substring(1) : source.get("b"))));
+            }
+        }
+        
+        // fetch statements are now prepared and shared across search requests.
+        client().prepareSearch().setIndices("batch").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).setSize(10).get();
+        SearchStats searchStats = client().admin().indices().prepareStats("batch").setSearch(true).get().getTotal().getSearch();
+        assertThat(searchStats.getFetchStatementCacheMissCount(), equalTo(2L));
+        assertThat(searchStats.getFetchStatementCacheHitCount(), equalTo(1L));
+    }
+    
+    @Test
+    public void testBulkPartitionBatchTest() throws Exception {
+        createIndex("bulk", Settings.builder().put("index.bulk_partition_batch", true).build());
+        ensureGreen("bulk");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS bulk.ts ( a text, b bigint, c text, primary key ((a),b) )");
+        assertAcked(client().admin().indices().preparePutMapping("bulk").setType("ts").setSource("{ \"ts\" : { \"discover\" : \".*\" }}").get());
+        
+        BulkRequestBuilder bulk = client().prepareBulk();
+        for(int i=0; i < 10; i++)
+            bulk.add(client().prepareIndex("bulk", "ts", "[\"p"+(i % 2)+"\","+i+"]").setSource("{ \"c\":\"c"+i+"\" }", XContentType.JSON));
+        // delete an item of the bulk, deferred writes must be applied before.
+        bulk.add(client().prepareDelete("bulk", "ts", "[\"p0\",0]"));
+        // failing item
+        bulk.add(client().prepareIndex("bulk", "ts", "[\"p1\",11]").setSource("{ \"c\":\"c11\", \"b\":\"x\" }", XContentType.JSON));
+        BulkResponse bulkResponse = bulk.get();
+        
+        assertThat(bulkResponse.getItems().length, equalTo(12));
+        for(int i=0; i < 11; i++)
+            assertThat(bulkResponse.getItems()[i].isFailed(), equalTo(false));
+        assertThat(bulkResponse.getItems()[11].isFailed(), equalTo(true));
+        
+        assertThat(client().prepareSearch().setIndices("bulk").setTypes("ts").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(9L));
+        assertThat(process(ConsistencyLevel.ONE,"SELECT * FROM bulk.ts WHERE a = 'p1'").size(), equalTo(5));
+        assertThat(process(ConsistencyLevel.ONE,"SELECT c FROM bulk.ts WHERE a = 'p1' AND b = 9").one().getString("c"), equalTo("c9"));
+        
+        // the last write of a document in the bulk wins.
+        bulk = client().prepareBulk();
+        bulk.add(client().prepareIndex("bulk", "ts", "[\"p2\",1]").setSource("{ \"c\":\"first\" }", XContentType.JSON));
+        bulk.add(client().prepareIndex("bulk", "ts", "[\"p2\",2]").setSource("{ \"c\":\"other\" }", XContentType.JSON));
+        bulk.add(client().prepareIndex("bulk", "ts", "[\"p2\",1]").setSource("{ \"c\":\"last\" }", XContentType.JSON));
+        assertThat(bulk.get().hasFailures(), equalTo(false));
+        assertThat(process(ConsistencyLevel.ONE,"SELECT c FROM bulk.ts WHERE a = 'p2' AND b = 1").one().getString("c"), equalTo("last"));
+        
+        // an unset static column is written as null, and a later write of the static column in the bulk wins.
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS bulk.st ( a text, b bigint, c text, s text static, primary key ((a),b) )");
+        assertAcked(client().admin().indices().preparePutMapping("bulk").setType("st").setSource("{ \"st\" : { \"discover\" : \".*\" }}").get());
+        bulk = client().prepareBulk();
+        bulk.add(client().prepareIndex("bulk", "st", "[\"p3\",1]").setSource("{ \"c\":\"c1\" }", XContentType.JSON));
+        bulk.add(client().prepareIndex("bulk", "st", "[\"p3\",2]").setSource("{ \"c\":\"c2\", \"s\":\"static\" }", XContentType.JSON));
+        assertThat(bulk.get().hasFailures(), equalTo(false));
+        assertThat(process(ConsistencyLevel.ONE,"SELECT s FROM bulk.st WHERE a = 'p3' AND b = 1").one().getString("s"), equalTo("static"));
+        assertThat(process(ConsistencyLevel.ONE,"SELECT c FROM bulk.st WHERE a = 'p3' AND b = 1").one().getString("c"), equalTo("c1"));
+    }
+    
+    @Test
+    public void testBulkDynamicMappingTest() throws Exception {
+        createIndex("dyn");
+        ensureGreen("dyn");
+        
+        // new fields of all items are added by a single mapping update.
+        final long version = clusterService().state().metaData().version();
+        BulkRequestBuilder bulk = client().prepareBulk();
+        for(int i=0; i < 10; i++)
+            bulk.add(client().prepareIndex("dyn", "docs", Integer.toString(i)).setSource("{ \"name\":\"n"+i+"\", \"f"+i+"\":"+i+" }", XContentType.JSON));
+        BulkResponse bulkResponse = bulk.get();
+        assertThat(bulkResponse.hasFailures(), equalTo(false));
+        assertThat(clusterService().state().metaData().version(), equalTo(version + 1));
+        
+        Map<String, Object> properties = (Map<String, Object>) client().admin().indices().prepareGetMappings("dyn").get().getMappings().get("dyn").get("docs").sourceAsMap().get("properties");
+        for(int i=0; i < 10; i++)
+            assertThat(properties.containsKey("f"+i), equalTo(true));
+        assertThat(client().prepareSearch().setIndices("dyn").setTypes("docs").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(10L));
+        assertThat(process(ConsistencyLevel.ONE,"SELECT f9 FROM dyn.docs WHERE \"_id\" = '9'").size(), equalTo(1));
+    }
+    
+    @Test
+    public void testAsyncIndexingTest() throws Exception {
+        createIndex("async", Settings.builder().put("index.async_indexing_queue_size", 8).build());
+        ensureGreen("async");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS async.t1 ( a text, b bigint, c text, primary key ((a),b) )");
+        assertAcked(client().admin().indices().preparePutMapping("async").setType("t1").setSource("{ \"t1\" : { \"discover\" : \".*\" }}").get());
+        
+        for(int i=0; i < 100; i++)
+            process(ConsistencyLevel.ONE,"insert into async.t1 (a,b,c) VALUES (?,?,?)", "p"+(i % 10), (long)i, "c"+i);
+        process(ConsistencyLevel.ONE,"delete from async.t1 where a = 'p0'");
+        
+        // the memtable flush waits for all queued lucene operations before committing.
+        StorageService.instance.forceKeyspaceFlush("async","t1");
+        client().admin().indices().prepareRefresh("async").get();
+        assertThat(client().prepareSearch().setIndices("async").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(90L));
+        
+        // queued operations index their own row.
+        for(int i=1; i < 100; i+=11) {
+            SearchHits hits = client().prepareSearch().setIndices("async").setTypes("t1").setQuery(QueryBuilders.termQuery("c", "c"+i)).get().getHits();
+            assertThat(hits.getTotalHits(), equalTo(1L));
+            assertThat(hits.getHits()[0].getId(), equalTo("[\"p"+(i % 10)+"\","+i+"]"));
+        }
+        
+        IndexingStats indexingStats = client().admin().indices().prepareStats("async").setIndexing(true).get().getTotal().getIndexing();
+        assertThat(indexingStats.getAsyncIndexingPending(), equalTo(0L));
+        assertThat(indexingStats.getAsyncIndexingFailed(), equalTo(0L));
+    }
+    
+    @Test
+    public void testWideRowBatchTest() throws Exception {
+        createIndex("wide");
+        ensureGreen("wide");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS wide.t1 ( a text, b bigint, c text, primary key ((a),b) )");
+        assertAcked(client().admin().indices().preparePutMapping("wide").setType("t1").setSource("{ \"t1\" : { \"discover\" : \".*\" }}").get());
+        
+        // a single partition update indexes all rows in one engine batch.
+        StringBuilder batch = new StringBuilder("BEGIN UNLOGGED BATCH ");
+        for(int i=0; i < 10; i++)
+            batch.append("INSERT INTO wide.t1 (a,b,c) VALUES ('p1',").append(i).append(",'c").append(i).append("'); ");
+        process(ConsistencyLevel.ONE, batch.append("APPLY BATCH").toString());
+        assertThat(client().prepareSearch().setIndices("wide").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(10L));
+        
+        // each row of the batch is indexed with its own _id and fields.
+        for(int i=0; i < 10; i++) {
+            SearchHits hits = client().prepareSearch().setIndices("wide").setTypes("t1").setQuery(QueryBuilders.termQuery("c", "c"+i)).get().getHits();
+            assertThat(hits.getTotalHits(), equalTo(1L));
+            assertThat(hits.getHits()[0].getId(), equalTo("[\"p1\","+i+"]"));
+        }
+        
+        // update and delete rows of the same partition.
+        process(ConsistencyLevel.ONE,"BEGIN UNLOGGED BATCH UPDATE wide.t1 SET c = 'x' WHERE a = 'p1' AND b = 1; DELETE FROM wide.t1 WHERE a = 'p1' AND b = 2; DELETE FROM wide.t1 WHERE a = 'p1' AND b = 3; APPLY BATCH");
+        assertThat(client().prepareSearch().setIndices("wide").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(8L));
+        assertThat(client().prepareSearch().setIndices("wide").setTypes("t1").setQuery(QueryBuilders.termQuery("c", "x")).get().getHits().getHits()[0].getId(), equalTo("[\"p1\",1]"));
+        assertThat(client().prepareSearch().setIndices("wide").setTypes("t1").setQuery(QueryBuilders.idsQuery("t1").addIds("[\"p1\",2]", "[\"p1\",3]")).get().getHits().getTotalHits(), equalTo(0L));
+    }
+    
+    @Test
+    public void testReadBeforeWriteTest() throws Exception {
+        createIndex("rbw");
+        ensureGreen("rbw");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS rbw.t1 ( a text, b bigint, c text, d text, primary key ((a),b) )");
+        assertAcked(client().admin().indices().preparePutMapping("rbw").setType("t1").setSource("{ \"t1\" : { \"discover\" : \".*\" }}").get());
+        
+        // complete rows are indexed without reading, incomplete rows are read before indexing.
+        process(ConsistencyLevel.ONE,"BEGIN UNLOGGED BATCH INSERT INTO rbw.t1 (a,b,c,d) VALUES ('p1',1,'c1','d1'); INSERT INTO rbw.t1 (a,b,c,d) VALUES ('p1',2,'c2','d2'); APPLY BATCH");
+        process(ConsistencyLevel.ONE,"BEGIN UNLOGGED BATCH UPDATE rbw.t1 SET c = 'x' WHERE a = 'p1' AND b = 1; UPDATE rbw.t1 SET c = 'y', d = 'z' WHERE a = 'p1' AND b = 2; APPLY BATCH");
+        
+        IndexingStats indexingStats = client().admin().indices().prepareStats("rbw").setIndexing(true).get().getTotal().getIndexing();
+        assertThat(indexingStats.getReadBeforeWriteCount(), equalTo(1L));
+        assertThat(indexingStats.getReadBeforeWriteAvoidedCount(), equalTo(3L));
+        
+        SearchResponse rsp = client().prepareSearch().setIndices("rbw").setTypes("t1").setQuery(QueryBuilders.termQuery("c", "x")).get();
+        assertThat(rsp.getHits().getTotalHits(), equalTo(1L));
+        assertThat(rsp.getHits().getHits()[0].getSource().get("d"), equalTo("d1"));
+    }
+    
+    @Test
+    public void testSkipNoopUpdatesTest() throws Exception {
+        createIndex("noop", Settings.builder().put("index.skip_noop_updates", true).build());
+        ensureGreen("noop");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS noop.t1 ( a text, b bigint, c text, primary key ((a),b) )");
+        assertAcked(client().admin().indices().preparePutMapping("noop").setType("t1").setSource("{ \"t1\" : { \"discover\" : \".*\" }}").get());
+        
+        process(ConsistencyLevel.ONE,"INSERT INTO noop.t1 (a,b,c) VALUES ('p1',1,'c1')");
+        process(ConsistencyLevel.ONE,"INSERT INTO noop.t1 (a,b,c) VALUES ('p1',1,'c1')");    // unchanged, not re-indexed
+        assertThat(client().admin().indices().prepareStats("noop").setIndexing(true).get().getTotal().getIndexing().getTotal().getNoopUpdateCount(), equalTo(1L));
+        
+        client().admin().indices().prepareRefresh("noop").get();
+        process(ConsistencyLevel.ONE,"INSERT INTO noop.t1 (a,b,c) VALUES ('p1',1,'c1')");    // unchanged, digest loaded from doc values
+        process(ConsistencyLevel.ONE,"INSERT INTO noop.t1 (a,b,c) VALUES ('p1',1,'c2')");
+        assertThat(client().admin().indices().prepareStats("noop").setIndexing(true).get().getTotal().getIndexing().getTotal().getNoopUpdateCount(), equalTo(2L));
+        
+        SearchResponse rsp = client().prepareSearch().setIndices("noop").setTypes("t1").setQuery(QueryBuilders.termQuery("c", "c2")).get();
+        assertThat(rsp.getHits().getTotalHits(), equalTo(1L));
+    }
+    
+    @Test
+    public void testPartitionKeyRoutingTest() throws Exception {
+        createIndex("pkrouting");
+        ensureGreen("pkrouting");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS pkrouting.t1 ( a text, b bigint, c bigint, d text, primary key ((a,b),c) )");
+        assertAcked(client().admin().indices().preparePutMapping("pkrouting").setType("t1").setSource("{ \"t1\" : { \"discover\" : \".*\" }}").get());
+        
+        for(long i=0; i < 10; i++) {
+            process(ConsistencyLevel.ONE,"INSERT INTO pkrouting.t1 (a,b,c,d) VALUES ('p1',?,1,'d1')", i);
+            process(ConsistencyLevel.ONE,"INSERT INTO pkrouting.t1 (a,b,c,d) VALUES ('p1',?,2,'d2')", i);
+        }
+        
+        SearchResponse rsp = client().prepareSearch().setIndices("pkrouting").setQuery(QueryBuilders.termQuery("c", 1L)).get();
+        assertThat(rsp.getHits().getTotalHits(), equalTo(10L));
+        final int fanOutShards = rsp.getTotalShards();
+        
+        // partition key pinned by term queries, routed to the shard owning the token.
+        rsp = client().prepareSearch().setIndices("pkrouting")
+                .setQuery(QueryBuilders.boolQuery().filter(QueryBuilders.termQuery("a", "p1")).filter(QueryBuilders.termQuery("b", 3L))).get();
+        assertThat(rsp.getHits().getTotalHits(), equalTo(2L));
+        assertThat(rsp.getTotalShards(), equalTo(1));
+        assertThat(rsp.getTotalShards(), lessThanOrEqualTo(fanOutShards));
+        
+        rsp = client().prepareSearch().setIndices("pkrouting").setTypes("t1").setRouting("[\"p1\",3]").setQuery(QueryBuilders.termQuery("d", "d2")).get();
+        assertThat(rsp.getHits().getTotalHits(), equalTo(1L));
+    }
+    
+    @Test
+    public void testCqlSearchTest() throws Exception {
+        createIndex("cqlsearch");
+        ensureGreen("cqlsearch");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS cqlsearch.t1 ( a text, b bigint, c text, es_query text, es_options text, primary key ((a),b) )");
+        assertAcked(client().admin().indices().preparePutMapping("cqlsearch").setType("t1").setSource("{ \"t1\" : { \"discover\" : \"^(a|b|c)$\" }}").get());
+        
+        for(long i=0; i < 5; i++)
+            for(long j=0; j < 4; j++)
+                process(ConsistencyLevel.ONE,"INSERT INTO cqlsearch.t1 (a,b,c) VALUES (?,?,?)", "p"+i, j, (j % 2 == 0) ? "even" : "odd");
+        
+        String esQuery = "{\"query\":{\"term\":{\"c\":\"even\"}}}";
+        assertThat(process(ConsistencyLevel.ONE,"SELECT a,b,c FROM cqlsearch.t1 WHERE es_query=?", esQuery).size(), equalTo(10));
+        assertThat(process(ConsistencyLevel.ONE,"SELECT a,b,c FROM cqlsearch.t1 WHERE es_query=? LIMIT 3", esQuery).size(), equalTo(3));
+        assertThat(process(ConsistencyLevel.ONE,"SELECT a,b,c FROM cqlsearch.t1 WHERE es_query=? AND a='p1'", esQuery).size(), equalTo(2));
+        assertThat(process(ConsistencyLevel.ONE,"SELECT a,b,c FROM cqlsearch.t1 WHERE es_query=? AND es_options='indices=cqlsearch'", esQuery).size(), equalTo(10));
+        
+        // aggregations over the whole ring in a single row, whatever the limit.
+        String aggQuery = "{\"aggs\":{\"by_c\":{\"terms\":{\"field\":\"c\"}}}}";
+        UntypedResultSet rs = process(ConsistencyLevel.ONE,"SELECT es_query FROM cqlsearch.t1 WHERE es_query=?", aggQuery);
+        assertThat(rs.size(), equalTo(1));
+        assertThat(rs.one().getString("es_query"), containsString("\"doc_count\":10"));
+        rs = process(ConsistencyLevel.ONE,"SELECT es_query FROM cqlsearch.t1 WHERE es_query=? LIMIT 1", aggQuery);
+        assertThat(rs.size(), equalTo(1));
+        assertThat(rs.one().getString("es_query"), containsString("\"doc_count\":10"));
+        
+        // aggregations are only computed for partition range reads.
+        expectThrows(InvalidRequestException.class, () -> process(ConsistencyLevel.ONE,"SELECT es_query FROM cqlsearch.t1 WHERE es_query=? AND a='p1'", aggQuery));
+        
+        // the aggregation row is never written to the table.
+        assertThat(process(ConsistencyLevel.ONE,"SELECT * FROM cqlsearch.t1").size(), equalTo(20));
+    }
 }
@@ -394,5 +394,23 @@ public class CqlTypesTests extends ESSingleNodeTestCase {
         assertThat(resp.getHits().getTotalHits(), equalTo(2L));
         assertThat(resp.getFailedShards(), equalTo(0));
     }
+    
+    // unmapped sub-fields are detected while parsing the source and trigger a dynamic mapping update.
+    @Test
+    public void testDynamicObjectSubField() throws Exception {
+        createIndex("test");
+        ensureGreen("test");
+        
+        assertThat(client().prepareIndex("test", "my_type", "1")
+                .setSource("{\"name\": \"a\", \"info\": {\"x\": 1}}", XContentType.JSON)
+                .get().getResult(), equalTo(DocWriteResponse.Result.CREATED));
+        assertThat(client().prepareIndex("test", "my_type", "2")
+                .setSource("{\"name\": \"b\", \"info\": {\"x\": 2, \"y\": \"foo\"}}", XContentType.JSON)
+                .get().getResult(), equalTo(DocWriteResponse.Result.CREATED));
+        
+        Map<String, Object> properties = (Map<String, Object>) client().admin().indices().prepareGetMappings("test").get()
+                .getMappings().get("test").get("my_type").getSourceAsMap().get("properties");
+        assertThat(((Map<String, Object>)((Map<String, Object>) properties.get("info")).get("properties")).containsKey("y"), equalTo(true));
+        assertThat(client().prepareSearch().setIndices("test").setTypes("my_type").setQuery(QueryBuilders.termQuery("info.y", "foo")).get().getHits().getTotalHits(), equalTo(1L));
+    }
 }
-
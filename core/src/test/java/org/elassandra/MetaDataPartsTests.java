@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+/**
+ * Metadata persisted per index in elastic_admin.metadata_parts, and in the legacy elastic_admin.metadata row.
+ */
+public class MetaDataPartsTests extends ESSingleNodeTestCase {
+
+    Map<String, Long> partVersions() throws Exception {
+        Map<String, Long> versions = new HashMap<String, Long>();
+        for(UntypedResultSet.Row row : process(ConsistencyLevel.ONE, "SELECT part, version FROM elastic_admin.metadata_parts WHERE cluster_name = ?", DatabaseDescriptor.getClusterName()))
+            versions.put(row.getString("part"), row.getLong("version"));
+        return versions;
+    }
+
+    long legacyVersion() throws Exception {
+        return process(ConsistencyLevel.ONE, "SELECT version FROM elastic_admin.metadata WHERE cluster_name = ?", DatabaseDescriptor.getClusterName()).one().getLong("version");
+    }
+
+    @Test
+    public void testIncrementalPartsTest() throws Exception {
+        createIndex("test1");
+        createIndex("test2");
+        ensureGreen("test1", "test2");
+        final String uuid1 = resolveIndex("test1").getUUID();
+        final String uuid2 = resolveIndex("test2").getUUID();
+
+        Map<String, Long> versions = partVersions();
+        assertThat(versions.get(ClusterService.GLOBAL_METADATA_PART), equalTo(clusterService().state().metaData().version()));
+        assertThat(versions.get(uuid1), notNullValue());
+        assertThat(versions.get(uuid2), notNullValue());
+        final long version1 = versions.get(uuid1);
+
+        // a mapping update of test2 only rewrites the global part and the test2 part.
+        assertAcked(client().admin().indices().preparePutMapping("test2").setType("t2")
+                .setSource("{ \"t2\" : { \"properties\" : { \"f\" : { \"type\":\"keyword\" } } } }", XContentType.JSON).get());
+        final long version = clusterService().state().metaData().version();
+        versions = partVersions();
+        assertThat(versions.get(ClusterService.GLOBAL_METADATA_PART), equalTo(version));
+        assertThat(versions.get(uuid1), equalTo(version1));
+        assertThat(versions.get(uuid2), equalTo(version));
+        if (clusterService().metadataLegacyRow())
+            assertThat(legacyVersion(), equalTo(version));
+
+        MetaData metaData = clusterService().readMetaDataAsRow(ConsistencyLevel.ONE);
+        assertThat(metaData.version(), equalTo(version));
+        assertThat(metaData.index("test1"), notNullValue());
+        assertThat(metaData.index("test2").mapping("t2"), notNullValue());
+
+        // deleting an index removes its part.
+        assertAcked(client().admin().indices().prepareDelete("test2").get());
+        versions = partVersions();
+        assertThat(versions.containsKey(uuid2), equalTo(false));
+        assertThat(versions.get(uuid1), equalTo(version1));
+        assertThat(clusterService().readMetaDataAsRow(ConsistencyLevel.ONE).index("test2"), equalTo(null));
+    }
+
+    @Test
+    public void testLegacyRowFallbackTest() throws Exception {
+        createIndex("test1");
+        ensureGreen("test1");
+        final MetaData metaData = clusterService().state().metaData();
+
+        // the legacy row updated by a node running a previous version is newer than the parts, only read while upgrading.
+        MetaData legacyMetaData = MetaData.builder(metaData).version(metaData.version() + 1).build();
+        process(ConsistencyLevel.ONE, "UPDATE elastic_admin.metadata SET metadata = ?, version = ? WHERE cluster_name = ?",
+                MetaData.Builder.toXContent(legacyMetaData, MetaData.CASSANDRA_FORMAT_PARAMS), legacyMetaData.version(), DatabaseDescriptor.getClusterName());
+        final long expectedVersion = clusterService().metadataLegacyRow() ? legacyMetaData.version() : metaData.version();
+        assertThat(clusterService().readMetaDataVersion(ConsistencyLevel.ONE), equalTo(expectedVersion));
+        assertThat(clusterService().readMetaDataAsRow(ConsistencyLevel.ONE).version(), equalTo(expectedVersion));
+        process(ConsistencyLevel.ONE, "UPDATE elastic_admin.metadata SET metadata = ?, version = ? WHERE cluster_name = ?",
+                MetaData.Builder.toXContent(metaData, MetaData.CASSANDRA_FORMAT_PARAMS), metaData.version(), DatabaseDescriptor.getClusterName());
+
+        // parts not yet written, as after an upgrade.
+        process(ConsistencyLevel.ONE, "DELETE FROM elastic_admin.metadata_parts WHERE cluster_name = ?", DatabaseDescriptor.getClusterName());
+        MetaData readMetaData = clusterService().readMetaDataAsRow(ConsistencyLevel.ONE);
+        assertThat(readMetaData.version(), equalTo(metaData.version()));
+        assertThat(readMetaData.index("test1"), notNullValue());
+
+        // the next metadata update writes all parts.
+        createIndex("test2");
+        ensureGreen("test2");
+        Map<String, Long> versions = partVersions();
+        assertThat(versions.get(ClusterService.GLOBAL_METADATA_PART), equalTo(clusterService().state().metaData().version()));
+        assertThat(versions.get(resolveIndex("test1").getUUID()), notNullValue());
+        assertThat(versions.get(resolveIndex("test2").getUUID()), notNullValue());
+    }
+}
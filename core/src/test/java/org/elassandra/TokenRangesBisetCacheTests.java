@@ -16,20 +16,27 @@
 package org.elassandra;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.lessThan;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
+import org.elassandra.index.mapper.internal.TokenFieldMapper;
+import org.elassandra.index.search.TokenRangesQuery;
 import org.elasticsearch.action.admin.indices.segments.IndexShardSegments;
 import org.elasticsearch.action.admin.indices.segments.ShardSegments;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.index.engine.Segment;
+import org.elasticsearch.index.engine.SegmentsStats;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.test.ESSingleNodeTestCase;
 import org.junit.Test;
@@ -92,6 +99,71 @@ public class TokenRangesBisetCacheTests extends ESSingleNodeTestCase {
         
         assertThat(lower+upper, equalTo(nbHits));
         assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(N));
+        
+        SegmentsStats segmentsStats = client().admin().indices().prepareStats("test").setSegments(true).get().getPrimaries().getSegments();
+        assertThat(segmentsStats.getTokenRangesBitsetCount(), greaterThan(0L));
+        assertThat(segmentsStats.getTokenRangesBitsetHitCount(), greaterThan(0L));
+        assertThat(segmentsStats.getTokenRangesBitsetMissCount(), greaterThan(0L));
+        assertThat(segmentsStats.getTokenRangesBitsetMemory().getBytes(), greaterThan(0L));
+    }
+    
+    @Test
+    public void tokenRangesQueryTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test2 WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test2.t1 ( a int, b bigint, primary key (a) )");
+        
+        XContentBuilder mapping = XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject();
+        createIndex("test2", Settings.builder().put("index.token_ranges_bitset_cache",false).build(),"t1", mapping);
+        ensureGreen("test2");
+        
+        for(int j=0 ; j < 1000; j++) 
+            process(ConsistencyLevel.ONE,"insert into test2.t1 (a,b) VALUES (?,?)", j, (long)j);
+        
+        long[] counts = new long[4];
+        long[] bounds = new long[] { Long.MIN_VALUE, Long.MIN_VALUE / 2, 0, Long.MAX_VALUE / 2, Long.MAX_VALUE };
+        List<Range<Token>> ranges = new ArrayList<>();
+        for(int i=0; i < 4; i++) {
+            Range<Token> range = new Range<Token>(new LongToken(bounds[i]), new LongToken(bounds[i+1]));
+            ranges.add(range);
+            counts[i] = client().prepareSearch().setIndices("test2").setTypes("t1").setQuery(QueryBuilders.matchAllQuery())
+                    .setTokenRanges(Collections.singleton(range)).get().getHits().getTotalHits();
+        }
+        // disjoint ranges in a single query.
+        assertThat(client().prepareSearch().setIndices("test2").setTypes("t1").setQuery(QueryBuilders.matchAllQuery())
+                .setTokenRanges(Arrays.asList(ranges.get(0), ranges.get(2))).get().getHits().getTotalHits(), equalTo(counts[0] + counts[2]));
+        assertThat(client().prepareSearch().setIndices("test2").setTypes("t1").setQuery(QueryBuilders.matchAllQuery())
+                .setTokenRanges(Arrays.asList(ranges.get(3), ranges.get(1), ranges.get(0))).get().getHits().getTotalHits(), equalTo(counts[0] + counts[1] + counts[3]));
+        
+        // ranges are normalized, so adjacent ranges equal the merged range.
+        TokenRangesQuery q1 = new TokenRangesQuery(TokenFieldMapper.NAME, new long[] { 10, 0 }, new long[] { 20, 9 });
+        TokenRangesQuery q2 = new TokenRangesQuery(TokenFieldMapper.NAME, new long[] { 0 }, new long[] { 20 });
+        assertThat(q1, equalTo(q2));
+        assertThat(q1.hashCode(), equalTo(q2.hashCode()));
+    }
+    
+    @Test
+    public void sortedByTokenTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test3 WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test3.t1 ( a int, b bigint, primary key (a) )");
+        
+        XContentBuilder mapping = XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject();
+        createIndex("unsorted", Settings.builder().put("index.keyspace","test3").put("index.token_ranges_bitset_cache",true).build(),"t1", mapping);
+        createIndex("sorted", Settings.builder().put("index.keyspace","test3").put("index.token_ranges_bitset_cache",true).put("index.sort_by_token",true).build(),"t1", mapping);
+        ensureGreen("unsorted","sorted");
+        
+        for(int j=0 ; j < 1000; j++) 
+            process(ConsistencyLevel.ONE,"insert into test3.t1 (a,b) VALUES (?,?)", j, (long)j);
+        process(ConsistencyLevel.ONE,"delete from test3.t1 WHERE a = 1");
+        client().admin().indices().prepareRefresh("unsorted","sorted").get();
+        
+        List<Range<Token>> ranges = Arrays.asList(
+                new Range<Token>(new LongToken(Long.MIN_VALUE), new LongToken(Long.MIN_VALUE / 2)),
+                new Range<Token>(new LongToken(0), new LongToken(Long.MAX_VALUE / 3)),
+                new Range<Token>(new LongToken(Long.MAX_VALUE / 2), new LongToken(Long.MAX_VALUE)));
+        long expected = client().prepareSearch().setIndices("unsorted").setTypes("t1").setQuery(QueryBuilders.matchAllQuery())
+                .setTokenRanges(ranges).get().getHits().getTotalHits();
+        assertThat(client().prepareSearch().setIndices("sorted").setTypes("t1").setQuery(QueryBuilders.matchAllQuery())
+                .setTokenRanges(ranges).get().getHits().getTotalHits(), equalTo(expected));
+        assertThat(client().prepareSearch().setIndices("sorted").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(999L));
     }
-
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster.routing;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.transport.LocalTransportAddress;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Token range covers of the {@link MinimumCoverSearchStrategy} on synthetic rings.
+ */
+public class MinimumCoverSearchStrategyTests extends ESTestCase {
+
+    /**
+     * @return nodes mapped to their token ranges (primary and replicas), the token range i being owned by nodes i to i+rf-1.
+     */
+    static Map<DiscoveryNode, BitSet> ring(DiscoveryNode[] nodes, int ranges, int rf) {
+        Map<DiscoveryNode, BitSet> shards = new LinkedHashMap<DiscoveryNode, BitSet>();
+        for(DiscoveryNode node : nodes)
+            shards.put(node, new BitSet());
+        for(int i = 0; i < ranges; i++)
+            for(int r = 0; r < rf; r++)
+                shards.get(nodes[(i + r) % nodes.length]).set(i);
+        return shards;
+    }
+
+    static DiscoveryNode[] nodes(int size) {
+        DiscoveryNode[] nodes = new DiscoveryNode[size];
+        for(int i = 0; i < size; i++)
+            nodes[i] = new DiscoveryNode("node" + i, LocalTransportAddress.buildUnique(), Version.CURRENT);
+        return nodes;
+    }
+
+    /**
+     * Check that each cover requests every token range exactly once, from a node owning it.
+     */
+    static void assertCovers(List<Map<DiscoveryNode, BitSet>> covers, Map<DiscoveryNode, BitSet> shards, int ranges) {
+        assertThat(covers.size(), greaterThan(0));
+        for(Map<DiscoveryNode, BitSet> cover : covers) {
+            assertThat(cover.size(), equalTo(covers.get(0).size()));
+            BitSet covered = new BitSet();
+            for(Map.Entry<DiscoveryNode, BitSet> entry : cover.entrySet()) {
+                assertFalse(covered.intersects(entry.getValue()));
+                BitSet owned = (BitSet) entry.getValue().clone();
+                owned.andNot(shards.get(entry.getKey()));
+                assertTrue(owned.isEmpty());
+                covered.or(entry.getValue());
+            }
+            assertThat(covered.cardinality(), equalTo(ranges));
+        }
+    }
+
+    public void testMinimumCover() {
+        final DiscoveryNode[] nodes = nodes(6);
+        final Map<DiscoveryNode, BitSet> shards = ring(nodes, 12, 3);
+        final List<Map<DiscoveryNode, BitSet>> covers = MinimumCoverSearchStrategy.minimumCovers(shards, nodes[0]);
+        assertCovers(covers, shards, 12);
+        // nodes i and i+3 own all token ranges.
+        assertThat(covers.get(0).size(), equalTo(2));
+        assertThat(covers.size(), equalTo(3));
+    }
+
+    public void testNotLargerThanPrimaryCover() {
+        final DiscoveryNode[] nodes = nodes(randomIntBetween(1, 20));
+        final int ranges = nodes.length * randomIntBetween(1, 4);
+        final int rf = randomIntBetween(1, nodes.length);
+        final Map<DiscoveryNode, BitSet> shards = ring(nodes, ranges, rf);
+
+        // the primary first strategy requests all nodes owning a primary token range.
+        final Set<DiscoveryNode> primaryCover = new HashSet<DiscoveryNode>();
+        for(int i = 0; i < ranges; i++)
+            primaryCover.add(nodes[i % nodes.length]);
+
+        final List<Map<DiscoveryNode, BitSet>> covers = MinimumCoverSearchStrategy.minimumCovers(shards, randomFrom(nodes));
+        assertCovers(covers, shards, ranges);
+        assertThat(covers.get(0).size(), lessThanOrEqualTo(primaryCover.size()));
+    }
+
+    public void testUnavailableNode() {
+        final DiscoveryNode[] nodes = nodes(4);
+        final Map<DiscoveryNode, BitSet> shards = ring(nodes, 8, 2);
+        shards.remove(nodes[1]);
+        final List<Map<DiscoveryNode, BitSet>> covers = MinimumCoverSearchStrategy.minimumCovers(shards, nodes[0]);
+        // nodes 0 and 2 are the only owners of some token ranges, and cover all of them.
+        assertCovers(covers, shards, 8);
+        assertThat(covers.size(), equalTo(1));
+        assertThat(covers.get(0).keySet(), equalTo(new HashSet<DiscoveryNode>(Arrays.asList(nodes[0], nodes[2]))));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster.routing;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+/**
+ * Partition key pinned by search queries, extracted by {@link PartitionKeyRouting}.
+ */
+public class PartitionKeyRoutingTests extends ESSingleNodeTestCase {
+
+    static final List<String> COMPOSITE_KEY = Arrays.asList("a", "b");
+
+    MapperService mapperService() {
+        return createIndex("pkr", Settings.EMPTY, "t1", "a", "type=keyword", "b", "type=long", "c", "type=text").mapperService();
+    }
+
+    @Test
+    public void testAcceptedQueriesTest() throws Exception {
+        final MapperService mapperService = mapperService();
+
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.termQuery("a", "p1"), mapperService, Collections.singletonList("a")), equalTo("p1"));
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.termsQuery("b", 3L), mapperService, Collections.singletonList("b")), equalTo("3"));
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.constantScoreQuery(QueryBuilders.termQuery("a", "p1")), mapperService, Collections.singletonList("a")), equalTo("p1"));
+
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.boolQuery().must(QueryBuilders.termQuery("a", "p1")).filter(QueryBuilders.termQuery("b", 3L)),
+                mapperService, COMPOSITE_KEY), equalTo("[\"p1\",3]"));
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.boolQuery().filter(QueryBuilders.termsQuery("a", "p1")).filter(QueryBuilders.constantScoreQuery(QueryBuilders.termQuery("b", 3L)))
+                .should(QueryBuilders.termQuery("c", "x")), mapperService, COMPOSITE_KEY), equalTo("[\"p1\",3]"));
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.boolQuery().must(QueryBuilders.boolQuery().filter(QueryBuilders.termQuery("a", "p1")))
+                .must(QueryBuilders.termQuery("a", "p1")).filter(QueryBuilders.termQuery("b", 3L)), mapperService, COMPOSITE_KEY), equalTo("[\"p1\",3]"));
+    }
+
+    @Test
+    public void testRejectedQueriesTest() throws Exception {
+        final MapperService mapperService = mapperService();
+
+        // not required clauses.
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.boolQuery().should(QueryBuilders.termQuery("a", "p1")).filter(QueryBuilders.termQuery("b", 3L)),
+                mapperService, COMPOSITE_KEY), nullValue());
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.boolQuery().mustNot(QueryBuilders.termQuery("a", "p1")).filter(QueryBuilders.termQuery("b", 3L)),
+                mapperService, COMPOSITE_KEY), nullValue());
+
+        // not a term equality.
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.boolQuery().filter(QueryBuilders.termQuery("a", "p1")).filter(QueryBuilders.rangeQuery("b").gte(3L).lte(3L)),
+                mapperService, COMPOSITE_KEY), nullValue());
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.termsQuery("a", "p1", "p2"), mapperService, Collections.singletonList("a")), nullValue());
+
+        // missing or conflicting partition key columns.
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.termQuery("a", "p1"), mapperService, COMPOSITE_KEY), nullValue());
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.boolQuery().filter(QueryBuilders.termQuery("a", "p1")).filter(QueryBuilders.termQuery("a", "p2"))
+                .filter(QueryBuilders.termQuery("b", 3L)), mapperService, COMPOSITE_KEY), nullValue());
+
+        // analyzed field.
+        assertThat(PartitionKeyRouting.routing(QueryBuilders.termQuery("c", "x"), mapperService, Collections.singletonList("c")), nullValue());
+        assertThat(PartitionKeyRouting.routing(null, mapperService, COMPOSITE_KEY), nullValue());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster.routing;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.transport.LocalTransportAddress;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Node weights of the {@link SearchResponseStats} and route selection of the {@link AdaptiveSearchStrategy}.
+ */
+public class SearchResponseStatsTests extends ESTestCase {
+
+    static final long MS = 1000000L;
+
+    public void testWeight() {
+        SearchResponseStats.NodeStats fast = new SearchResponseStats.NodeStats();
+        SearchResponseStats.NodeStats slow = new SearchResponseStats.NodeStats();
+        fast.onResponse(10 * MS, 0);
+        slow.onResponse(100 * MS, 0);
+        final double mean = 55 * MS;
+        assertThat(fast.weight(mean, 0), lessThan(slow.weight(mean, 0)));
+
+        // in-flight requests increase the weight.
+        fast.inFlight.set(19);
+        assertThat(fast.weight(mean, 0), greaterThan(slow.weight(mean, 0)));
+        fast.inFlight.set(0);
+
+        // failures are penalized, and forgotten over time.
+        final double before = fast.weight(mean, 0);
+        fast.onFailure(0);
+        fast.onFailure(0);
+        assertThat(fast.weight(mean, 0), greaterThan(before * 5));
+        assertThat(fast.failureRate(SearchResponseStats.HALF_LIFE_NANOS * 20), closeTo(0, 0.001));
+
+        // response times decay toward the mean, not to zero.
+        assertThat(slow.ewmaNanos(mean, SearchResponseStats.HALF_LIFE_NANOS), closeTo(77.5 * MS, MS));
+        assertThat(slow.ewmaNanos(mean, SearchResponseStats.HALF_LIFE_NANOS * 20), closeTo(mean, MS));
+        assertThat(fast.ewmaNanos(mean, SearchResponseStats.HALF_LIFE_NANOS * 20), closeTo(mean, MS));
+    }
+
+    public void testUnknownAndDepartedNodes() {
+        final SearchResponseStats stats = new SearchResponseStats();
+        final DiscoveryNode node1 = new DiscoveryNode("node1", LocalTransportAddress.buildUnique(), Version.CURRENT);
+        final DiscoveryNode node2 = new DiscoveryNode("node2", LocalTransportAddress.buildUnique(), Version.CURRENT);
+        stats.wrap(node1, ActionListener.wrap(r -> {}, e -> {})).onResponse(null);
+        stats.wrap(node2, ActionListener.wrap(r -> {}, e -> {})).onFailure(new Exception());
+
+        // unknown nodes have the weight of an idle node having the mean response time, so they are not preferred.
+        final double mean = stats.meanNanos();
+        assertThat(stats.weight("node3", mean, System.nanoTime()), equalTo(mean));
+        assertThat(stats.weight("node2", 1000.0, System.nanoTime()), greaterThan(1000.0));
+
+        // stats of nodes that left the cluster are removed.
+        stats.retain(DiscoveryNodes.builder().add(node1).build());
+        assertThat(stats.weight("node2", 1000.0, System.nanoTime()), equalTo(1000.0));
+    }
+
+    public void testSelectShards() {
+        final DiscoveryNode node1 = new DiscoveryNode("node1", LocalTransportAddress.buildUnique(), Version.CURRENT);
+        final DiscoveryNode node2 = new DiscoveryNode("node2", LocalTransportAddress.buildUnique(), Version.CURRENT);
+        final DiscoveryNode node3 = new DiscoveryNode("node3", LocalTransportAddress.buildUnique(), Version.CURRENT);
+        final Map<DiscoveryNode, BitSet> greenShards = new HashMap<DiscoveryNode, BitSet>();
+        greenShards.put(node1, bitset(0, 1));
+        greenShards.put(node2, bitset(1, 2));
+        greenShards.put(node3, bitset(2, 0));
+
+        final Map<DiscoveryNode, Double> weights = new HashMap<DiscoveryNode, Double>();
+        weights.put(node1, 1.0);
+        weights.put(node2, 3.0);
+        weights.put(node3, 2.0);
+
+        // the slowest node only gets the ranges not covered by healthier nodes.
+        Map<DiscoveryNode, BitSet> selected = AdaptiveSearchStrategy.selectShards(greenShards, weights, node2);
+        assertThat(selected.keySet(), contains(node1, node3));
+        assertThat(selected.get(node1), equalTo(bitset(0, 1)));
+        assertThat(selected.get(node3), equalTo(bitset(2)));
+
+        // on equal weights, the local node comes first.
+        weights.put(node1, 1.0);
+        weights.put(node2, 1.0);
+        weights.put(node3, 1.0);
+        selected = AdaptiveSearchStrategy.selectShards(greenShards, weights, node2);
+        assertThat(selected.get(node2), equalTo(bitset(1, 2)));
+    }
+
+    static BitSet bitset(int... bits) {
+        BitSet bs = new BitSet();
+        for(int bit : bits)
+            bs.set(bit);
+        return bs;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.discovery;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.cluster.routing.ShardRoutingState;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Snapshot and delta encoding of the gossiped shard states.
+ */
+public class GossipShardStatesTests extends ESTestCase {
+
+    public void testSnapshotAndDelta() throws Exception {
+        final GossipShardStates local = new GossipShardStates();
+        final Map<String, ShardRoutingState> states = new HashMap<String, ShardRoutingState>();
+        states.put("index1", ShardRoutingState.STARTED);
+        states.put("index2", ShardRoutingState.INITIALIZING);
+
+        final GossipShardStates.Snapshot snapshot = new GossipShardStates.Snapshot(1, local.snapshot(states));
+        assertThat(snapshot.apply(null), equalTo(states));
+
+        // a delta references known indices by ordinal, and new indices by name.
+        states.put("index2", ShardRoutingState.STARTED);
+        states.put("index3", ShardRoutingState.INITIALIZING);
+        String delta = local.delta(states);
+        assertThat(delta, notNullValue());
+        assertThat(snapshot.apply(delta), equalTo(states));
+
+        // a delta is cumulative since the snapshot.
+        states.put("index3", ShardRoutingState.STARTED);
+        delta = local.delta(states);
+        assertThat(snapshot.apply(delta), equalTo(states));
+    }
+
+    public void testGenerationMismatch() throws Exception {
+        final GossipShardStates local = new GossipShardStates();
+        final Map<String, ShardRoutingState> states = new HashMap<String, ShardRoutingState>();
+        states.put("index1", ShardRoutingState.STARTED);
+        final Map<String, ShardRoutingState> snapshotStates = new HashMap<String, ShardRoutingState>(states);
+        final GossipShardStates.Snapshot snapshot = new GossipShardStates.Snapshot(1, local.snapshot(states));
+
+        // a delta of a newer snapshot, not yet received, is ignored.
+        states.put("index2", ShardRoutingState.STARTED);
+        local.snapshot(states);
+        states.put("index1", ShardRoutingState.RELOCATING);
+        final String delta = local.delta(states);
+        assertThat(snapshot.apply(delta), equalTo(snapshotStates));
+    }
+
+    public void testLargeDelta() throws Exception {
+        final GossipShardStates local = new GossipShardStates();
+        final Map<String, ShardRoutingState> states = new HashMap<String, ShardRoutingState>();
+        assertThat(local.delta(states), nullValue());
+
+        for(int i = 0; i < 100; i++)
+            states.put("index" + i, ShardRoutingState.INITIALIZING);
+        local.snapshot(states);
+        for(int i = 0; i < GossipShardStates.MIN_SNAPSHOT_DELTA + 1; i++)
+            states.put("index" + i, ShardRoutingState.STARTED);
+        assertThat(local.delta(states), notNullValue());
+
+        // a new snapshot is needed when the delta grows over a quarter of the snapshot.
+        for(int i = 0; i < 30; i++)
+            states.put("index" + i, ShardRoutingState.STARTED);
+        assertThat(local.delta(states), nullValue());
+    }
+}